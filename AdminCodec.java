@@ -0,0 +1,55 @@
+package com.example.library;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+// Decodes admin documents directly into Admin; layout matches MongoDBUtil.insertAdmin.
+public class AdminCodec implements Codec<Admin> {
+
+    @Override
+    public Admin decode(BsonReader reader, DecoderContext decoderContext) {
+        Admin admin = new Admin();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (name) {
+                case "adminId":
+                    admin.setId(CodecSupport.readAsString(reader));
+                    break;
+                case "username":
+                    admin.setUsername(CodecSupport.readAsString(reader));
+                    break;
+                case "password":
+                    admin.setPassword(CodecSupport.readAsString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return admin;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Admin admin, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        CodecSupport.writeString(writer, "username", admin.getUsername());
+        CodecSupport.writeString(writer, "password", admin.getPassword());
+        if (admin.getId() != null && !admin.getId().isEmpty())
+            writer.writeString("adminId", admin.getId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Admin> getEncoderClass() {
+        return Admin.class;
+    }
+}
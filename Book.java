@@ -8,6 +8,7 @@ public class Book {
     private String author;
     private Date publishedDate;
     private int quantity;
+    private String documentId;  // MongoDB _id, filled in by BookCodec when projected
 
     public Book() {}
 
@@ -50,4 +51,10 @@ public class Book {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
+    public String getDocumentId() {
+        return documentId;
+    }
+    public void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
 }
\ No newline at end of file
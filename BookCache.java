@@ -0,0 +1,176 @@
+package com.example.library;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded read-through cache for single books, keyed by bookId.
+//
+// Entries expire after a fixed time-to-live. When the cache is full, the least recently
+// used entry is only evicted if the incoming key has been requested more often
+// (TinyLFU admission), so a burst of one-off lookups can't flush the hot titles.
+// Request frequencies live in a count-min sketch of 4-bit counters that is halved
+// periodically, so popularity ages out.
+public class BookCache {
+
+    private static class Entry {
+        final Book book;
+        final long expiresAt;
+
+        Entry(Book book, long expiresAt) {
+            this.book = book;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long expirations;
+
+    public BookCache(int maxSize, long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    public synchronized Book get(String bookId) {
+        sketch.increment(bookId);
+        Entry entry = entries.get(bookId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(bookId);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.book;
+    }
+
+    public synchronized void put(String bookId, Book book) {
+        long expiresAt = System.nanoTime() + ttlNanos;
+        if (entries.containsKey(bookId) || entries.size() < maxSize) {
+            entries.put(bookId, new Entry(book, expiresAt));
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<String, Entry> victim = eldest.next();
+        if (sketch.frequency(bookId) <= sketch.frequency(victim.getKey())) {
+            rejections++;
+            return;
+        }
+        eldest.remove();
+        evictions++;
+        entries.put(bookId, new Entry(book, expiresAt));
+    }
+
+    // Keeps a cached entry in step with a quantity change made by borrow/return.
+    public synchronized void updateQuantity(String bookId, int quantity) {
+        Entry entry = entries.get(bookId);
+        if (entry != null) {
+            Book old = entry.book;
+            entries.put(bookId, new Entry(
+                    new Book(old.getId(), old.getTitle(), old.getAuthor(), old.getPublishedDate(), quantity),
+                    entry.expiresAt));
+        }
+    }
+
+    // Replaces a cached entry with a newer copy written elsewhere; uncached books stay out.
+    public synchronized void refresh(String bookId, Book book) {
+        Entry entry = entries.get(bookId);
+        if (entry != null)
+            entries.put(bookId, new Entry(book, entry.expiresAt));
+    }
+
+    public synchronized void invalidate(String bookId) {
+        entries.remove(bookId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized String stats() {
+        long requests = hits + misses;
+        double hitRate = requests == 0 ? 0 : (double) hits / requests;
+        return String.format("size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d rejected=%d expired=%d",
+                entries.size(), maxSize, hits, misses, hitRate * 100, evictions, rejections, expirations);
+    }
+
+    public synchronized long getHits() { return hits; }
+
+    public synchronized long getMisses() { return misses; }
+
+    public synchronized long getEvictions() { return evictions; }
+
+    // Count-min sketch with four 4-bit counters per key, packed sixteen to a long.
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxSize) {
+            int counters = Integer.highestOneBit(Math.max(16, maxSize) * 4 - 1) << 1;
+            this.table = new long[counters / 16];
+            this.sampleSize = 10 * Math.max(16, maxSize);
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int counter = index(hash, i);
+                int slot = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                if (((table[slot] >>> shift) & 0xfL) < 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize)
+                halve();
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int counter = index(hash, i);
+                min = Math.min(min, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xfL));
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length * 16 - 1);
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
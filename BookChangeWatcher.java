@@ -0,0 +1,266 @@
+package com.example.library;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Follows one change stream over the books and stats collections so every desk sees other
+// desks' writes without polling. Book inserts and updates (with the post-image looked up by
+// the server) refresh the local cache and search index; the catalog counters document
+// carries the new totals. Changes are folded into a pending batch and handed to the
+// listeners on the FX thread: at most one hand-off is queued at a time, so a burst that
+// lands within one frame becomes a single UI pulse holding the latest state of each book.
+//
+// The stream resumes from the last resume token after a disconnect. If the server no longer
+// has that history, it restarts from now and asks the listeners to reload. Change streams
+// need a replica set; against a standalone server the watcher logs that and stays off, and
+// the UI goes back to re-querying after its own writes. A single-node replica set is enough
+// for local testing (see README).
+//
+// Every change is also handed to the CatalogSnapshot, and the stream starts from the token
+// the local snapshot was saved at, so a desk replays what it missed while it was closed.
+public class BookChangeWatcher {
+    private static final int NOT_A_REPLICA_SET = 40573;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final List<Consumer<BookChanges>> listeners = new CopyOnWriteArrayList<>();
+
+    // Pending batch, guarded by the class lock.
+    private static Map<String, Book> changed = new LinkedHashMap<>();
+    private static Set<String> inserted = new HashSet<>();
+    private static CatalogStats stats;
+    private static boolean reloadNeeded;
+    private static boolean pulseQueued;
+
+    private static volatile boolean active;
+    private static volatile boolean caughtUp;
+    private static volatile boolean unsupported;
+    private static volatile BsonDocument resumeToken;
+    private static Thread thread;
+
+    // True while the stream is open; the UI then relies on it instead of re-querying.
+    public static boolean isActive() {
+        return active;
+    }
+
+    // True once the stream has delivered everything that was waiting when it opened.
+    public static boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    // True when the server can't provide change streams (standalone).
+    public static boolean isUnsupported() {
+        return unsupported;
+    }
+
+    // The point in the stream every change up to has been applied.
+    static BsonDocument resumeToken() {
+        return resumeToken;
+    }
+
+    public static void addListener(Consumer<BookChanges> listener) {
+        listeners.add(listener);
+    }
+
+    public static synchronized void start() {
+        if (thread != null)
+            return;
+        resumeToken = CatalogSnapshot.resumeToken();
+        thread = new Thread(BookChangeWatcher::watch, "book-change-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void watch() {
+        // Only the fields the UI shows travel with each event (appliedOps can be large).
+        List<Bson> pipeline = Arrays.asList(
+                Aggregates.match(Filters.in("ns.coll", "books", "stats")),
+                Aggregates.project(Projections.include("operationType", "ns", "documentKey",
+                        "fullDocument._id", "fullDocument.bookId", "fullDocument.title", "fullDocument.author",
+                        "fullDocument.publishedDate", "fullDocument.quantity",
+                        "fullDocument.totalCopies", "fullDocument.totalTitles", "fullDocument.outOfStock")));
+        long backoff = 500;
+        while (true) {
+            try {
+                MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open(pipeline);
+                try {
+                    if (!active)
+                        System.out.println("Watching book changes" + (resumeToken != null ? " (resumed)" : ""));
+                    active = true;
+                    backoff = 500;
+                    while (true) {
+                        ChangeStreamDocument<Document> change = cursor.tryNext();
+                        if (change != null)
+                            apply(change);
+                        else
+                            caughtUp = true;
+                        // Advances past empty batches too, so a resume doesn't rescan them.
+                        if (cursor.getResumeToken() != null)
+                            resumeToken = cursor.getResumeToken();
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (MongoCommandException ex) {
+                if (ex.getErrorCode() == NOT_A_REPLICA_SET) {
+                    System.out.println("Change streams need a replica set; live book updates are off");
+                    active = false;
+                    unsupported = true;
+                    return;
+                }
+                if (ex.getErrorCode() == CHANGE_STREAM_HISTORY_LOST || ex.getErrorCode() == CHANGE_STREAM_FATAL_ERROR) {
+                    System.out.println("Book change history lost, restarting the stream: " + ex.getErrorMessage());
+                    resumeToken = null;
+                    CatalogSnapshot.historyLost();
+                    requestReload();
+                    continue;
+                }
+                backoff = retryAfter(ex, backoff);
+            } catch (MongoException ex) {
+                backoff = retryAfter(ex, backoff);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                backoff = retryAfter(ex, backoff);
+            }
+        }
+    }
+
+    private static MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(List<Bson> pipeline) {
+        if (resumeToken == null)
+            return MongoDBUtil.getDatabase().watch(pipeline)
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .cursor();
+        return MongoDBUtil.getDatabase().watch(pipeline)
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS)
+                .resumeAfter(resumeToken)
+                .cursor();
+    }
+
+    private static long retryAfter(Exception ex, long backoff) {
+        active = false;
+        System.out.println("Book change stream interrupted, retrying in " + backoff + " ms: " + ex.getMessage());
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+    }
+
+    private static void apply(ChangeStreamDocument<Document> change) {
+        OperationType type = change.getOperationType();
+        String collection = change.getNamespace() == null ? null : change.getNamespace().getCollectionName();
+        Document doc = change.getFullDocument();
+        if ("stats".equals(collection)) {
+            if (doc != null && doc.containsKey("totalCopies")) {
+                CatalogStats newStats = CatalogCounters.toStats(doc);
+                CatalogSnapshot.statsChanged(newStats);
+                publish(null, false, newStats);
+            }
+            return;
+        }
+        switch (type) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                // A null post-image means the book was deleted before the lookup ran.
+                if (doc == null) {
+                    requestReload();
+                } else {
+                    Book book = MongoDBUtil.bookChanged(doc);
+                    CatalogSnapshot.changed(doc.get("_id"), book);
+                    publish(book, type == OperationType.INSERT, null);
+                }
+                // Other desks' new books, so this desk's duplicate pre-check knows them.
+                if (doc != null && type == OperationType.INSERT)
+                    IdFilter.BOOK_IDS.add(doc.getString("bookId"));
+                break;
+            case DELETE:
+                // Deletes only carry the _id: the search index maps it back to the book for the
+                // local lookups, but the displayed rows don't have it, so the view reloads.
+                BsonDocument key = change.getDocumentKey();
+                if (key != null && key.isObjectId("_id")) {
+                    CatalogSnapshot.deleted(key.getObjectId("_id").getValue());
+                    MongoDBUtil.bookDeleted(key.getObjectId("_id").getValue().toHexString());
+                } else if (key != null && key.isString("_id")) {
+                    MongoDBUtil.bookDeleted(key.getString("_id").getValue());
+                }
+                requestReload();
+                break;
+            case DROP:
+            case INVALIDATE:
+                CatalogSnapshot.historyLost();
+                requestReload();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Nothing is batched without a listener to drain it (the headless server has none); a
+    // listener added later starts from its own load.
+    private static synchronized void publish(Book book, boolean isNew, CatalogStats newStats) {
+        if (listeners.isEmpty())
+            return;
+        if (book != null && book.getId() != null) {
+            changed.put(book.getId(), book);
+            if (isNew)
+                inserted.add(book.getId());
+        }
+        if (newStats != null)
+            stats = newStats;
+        schedulePulse();
+    }
+
+    private static synchronized void requestReload() {
+        if (listeners.isEmpty())
+            return;
+        reloadNeeded = true;
+        schedulePulse();
+    }
+
+    private static void schedulePulse() {
+        if (pulseQueued)
+            return;
+        pulseQueued = true;
+        LibraryService.FX.execute(BookChangeWatcher::pulse);
+    }
+
+    private static void pulse() {
+        BookChanges batch;
+        synchronized (BookChangeWatcher.class) {
+            batch = new BookChanges(changed, inserted, stats, reloadNeeded);
+            changed = new LinkedHashMap<>();
+            inserted = new HashSet<>();
+            stats = null;
+            reloadNeeded = false;
+            pulseQueued = false;
+        }
+        for (Consumer<BookChanges> listener : listeners) {
+            listener.accept(batch);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.library;
+
+import java.util.Map;
+import java.util.Set;
+
+// One coalesced batch of catalog changes seen by the BookChangeWatcher: the latest state of
+// every book written since the previous batch (keyed by bookId), which of those are new,
+// the latest catalog counters if they moved, and whether something happened that can't be
+// applied as a delta (a delete, or lost change-stream history) so the view must reload.
+public class BookChanges {
+    private final Map<String, Book> changed;
+    private final Set<String> inserted;
+    private final CatalogStats stats;
+    private final boolean reloadNeeded;
+
+    public BookChanges(Map<String, Book> changed, Set<String> inserted, CatalogStats stats, boolean reloadNeeded) {
+        this.changed = changed;
+        this.inserted = inserted;
+        this.stats = stats;
+        this.reloadNeeded = reloadNeeded;
+    }
+
+    public Map<String, Book> getChanged() { return changed; }
+
+    public Set<String> getInserted() { return inserted; }
+
+    // null when the counters did not change.
+    public CatalogStats getStats() { return stats; }
+
+    public boolean isReloadNeeded() { return reloadNeeded; }
+}
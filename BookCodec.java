@@ -0,0 +1,80 @@
+package com.example.library;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+
+// Reads books straight off the wire into Book, without an intermediate Document.
+// Unknown fields are skipped; the layout matches MongoDBUtil.insertBook.
+public class BookCodec implements Codec<Book> {
+
+    @Override
+    public Book decode(BsonReader reader, DecoderContext decoderContext) {
+        Book book = new Book();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (name) {
+                case "_id":
+                    book.setDocumentId(reader.getCurrentBsonType() == BsonType.OBJECT_ID
+                            ? reader.readObjectId().toHexString()
+                            : CodecSupport.readAsString(reader));
+                    break;
+                case "bookId":
+                    book.setId(CodecSupport.readAsString(reader));
+                    break;
+                case "title":
+                    book.setTitle(CodecSupport.readAsString(reader));
+                    break;
+                case "author":
+                    book.setAuthor(CodecSupport.readAsString(reader));
+                    break;
+                case "publishedDate":
+                    if (reader.getCurrentBsonType() == BsonType.DATE_TIME)
+                        book.setPublishedDate(new Date(reader.readDateTime()));
+                    else
+                        reader.skipValue();
+                    break;
+                case "quantity":
+                    book.setQuantity(CodecSupport.readAsInt(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return book;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Book book, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (book.getDocumentId() != null && ObjectId.isValid(book.getDocumentId()))
+            writer.writeObjectId("_id", new ObjectId(book.getDocumentId()));
+        CodecSupport.writeString(writer, "title", book.getTitle());
+        CodecSupport.writeString(writer, "author", book.getAuthor());
+        if (book.getPublishedDate() != null)
+            writer.writeDateTime("publishedDate", book.getPublishedDate().getTime());
+        else
+            writer.writeNull("publishedDate");
+        writer.writeInt32("quantity", book.getQuantity());
+        if (book.getId() != null && !book.getId().isEmpty())
+            writer.writeString("bookId", book.getId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Book> getEncoderClass() {
+        return Book.class;
+    }
+}
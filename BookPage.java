@@ -0,0 +1,31 @@
+package com.example.library;
+
+import java.util.List;
+
+// One page of a keyset-paginated book listing. The cursors are opaque tokens:
+// pass lastCursor to move forward and firstCursor to move backward.
+public class BookPage {
+    private final List<Book> books;
+    private final String firstCursor;
+    private final String lastCursor;
+    private final boolean hasPrevious;
+    private final boolean hasNext;
+
+    public BookPage(List<Book> books, String firstCursor, String lastCursor, boolean hasPrevious, boolean hasNext) {
+        this.books = books;
+        this.firstCursor = firstCursor;
+        this.lastCursor = lastCursor;
+        this.hasPrevious = hasPrevious;
+        this.hasNext = hasNext;
+    }
+
+    public List<Book> getBooks() { return books; }
+
+    public String getFirstCursor() { return firstCursor; }
+
+    public String getLastCursor() { return lastCursor; }
+
+    public boolean hasPrevious() { return hasPrevious; }
+
+    public boolean hasNext() { return hasNext; }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.example.library;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// A multi-criteria catalog query: any mix of author (exact, case-insensitive), title prefix
+// (case-insensitive), published-date range and availability, with a sort order and a page
+// size. Criteria left unset don't restrict anything. Built fluently:
+//
+//     new BookQuery().author("Le Guin").publishedFrom(date).availableOnly(true)
+//             .sortBy(BookSort.PUBLISHED_DATE, false).limit(20)
+//
+// Results are keyset pages like the catalog's; page() continues from a previous page's cursor.
+public class BookQuery {
+    private String author;
+    private String titlePrefix;
+    private Date publishedFrom;    // inclusive
+    private Date publishedBefore;  // exclusive
+    private boolean availableOnly;
+    private BookSort sort = BookSort.NATURAL;
+    private boolean ascending = true;
+    private int limit = 50;
+    private String cursor;
+    private boolean backward;
+
+    public BookQuery author(String author) {
+        this.author = blankToNull(author);
+        return this;
+    }
+
+    public BookQuery titleStartsWith(String prefix) {
+        this.titlePrefix = blankToNull(prefix);
+        return this;
+    }
+
+    public BookQuery publishedFrom(Date from) {
+        this.publishedFrom = from;
+        return this;
+    }
+
+    public BookQuery publishedBefore(Date before) {
+        this.publishedBefore = before;
+        return this;
+    }
+
+    public BookQuery availableOnly(boolean availableOnly) {
+        this.availableOnly = availableOnly;
+        return this;
+    }
+
+    public BookQuery sortBy(BookSort sort, boolean ascending) {
+        this.sort = sort;
+        this.ascending = ascending;
+        return this;
+    }
+
+    public BookQuery limit(int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        this.limit = limit;
+        return this;
+    }
+
+    // Continues from a cursor of a previous page of the same query (null for the first page).
+    public BookQuery page(String cursor, boolean backward) {
+        this.cursor = cursor;
+        this.backward = backward;
+        return this;
+    }
+
+    public BookQuery copy() {
+        BookQuery copy = new BookQuery();
+        copy.author = author;
+        copy.titlePrefix = titlePrefix;
+        copy.publishedFrom = publishedFrom;
+        copy.publishedBefore = publishedBefore;
+        copy.availableOnly = availableOnly;
+        copy.sort = sort;
+        copy.ascending = ascending;
+        copy.limit = limit;
+        copy.cursor = cursor;
+        copy.backward = backward;
+        return copy;
+    }
+
+    public String getAuthor() { return author; }
+
+    public String getTitlePrefix() { return titlePrefix; }
+
+    public Date getPublishedFrom() { return publishedFrom; }
+
+    public Date getPublishedBefore() { return publishedBefore; }
+
+    public boolean isAvailableOnly() { return availableOnly; }
+
+    public BookSort getSort() { return sort; }
+
+    public boolean isAscending() { return ascending; }
+
+    public int getLimit() { return limit; }
+
+    public String getCursor() { return cursor; }
+
+    public boolean isBackward() { return backward; }
+
+    public boolean hasCriteria() {
+        return !equalityFields().isEmpty() || !rangeFields().isEmpty();
+    }
+
+    // Criteria in index terms, for BookQueryPlanner: fields matched exactly...
+    List<String> equalityFields() {
+        List<String> fields = new ArrayList<>();
+        if (author != null)
+            fields.add("author");
+        return fields;
+    }
+
+    // ...and fields matched by a range (a prefix is a range too).
+    List<String> rangeFields() {
+        List<String> fields = new ArrayList<>();
+        if (titlePrefix != null)
+            fields.add("title");
+        if (publishedFrom != null || publishedBefore != null)
+            fields.add("publishedDate");
+        if (availableOnly)
+            fields.add("quantity");
+        return fields;
+    }
+
+    // The same criteria evaluated on a book, for the embedded engine.
+    public boolean matches(Book book) {
+        if (author != null && !author.equalsIgnoreCase(book.getAuthor()))
+            return false;
+        if (titlePrefix != null && (book.getTitle() == null
+                || !book.getTitle().regionMatches(true, 0, titlePrefix, 0, titlePrefix.length())))
+            return false;
+        Date published = book.getPublishedDate();
+        if (publishedFrom != null && (published == null || published.before(publishedFrom)))
+            return false;
+        if (publishedBefore != null && (published == null || !published.before(publishedBefore)))
+            return false;
+        return !availableOnly || book.getQuantity() > 0;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
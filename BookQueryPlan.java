@@ -0,0 +1,50 @@
+package com.example.library;
+
+import java.util.List;
+
+// The index BookQueryPlanner picked for a BookQuery and how it serves it: which criteria
+// bound the index scan, whether the index also returns rows in the requested order, and
+// which criteria are checked on the index keys or need the document itself.
+public class BookQueryPlan {
+    private final String index;  // null when the server chose (see MongoDBUtil.queryBooks)
+    private final List<String> bounds;
+    private final boolean sortedByIndex;
+    private final List<String> keyFilters;
+    private final List<String> fetchFilters;
+
+    public BookQueryPlan(String index, List<String> bounds, boolean sortedByIndex,
+                         List<String> keyFilters, List<String> fetchFilters) {
+        this.index = index;
+        this.bounds = bounds;
+        this.sortedByIndex = sortedByIndex;
+        this.keyFilters = keyFilters;
+        this.fetchFilters = fetchFilters;
+    }
+
+    public String getIndex() { return index; }
+
+    public List<String> getBounds() { return bounds; }
+
+    public boolean isSortedByIndex() { return sortedByIndex; }
+
+    public List<String> getKeyFilters() { return keyFilters; }
+
+    public List<String> getFetchFilters() { return fetchFilters; }
+
+    // e.g. "filter_author_date: bounds author, publishedDate; order from index; key filters quantity"
+    public String describe() {
+        StringBuilder text = new StringBuilder(index == null ? "server's choice" : index);
+        text.append(": ").append(bounds.isEmpty() ? "full index scan" : "bounds " + String.join(", ", bounds));
+        text.append(sortedByIndex ? "; order from index" : "; sorted after the scan");
+        if (!keyFilters.isEmpty())
+            text.append("; key filters ").append(String.join(", ", keyFilters));
+        if (!fetchFilters.isEmpty())
+            text.append("; document filters ").append(String.join(", ", fetchFilters));
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.library;
+
+import com.mongodb.client.model.Indexes;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Picks the index for a BookQuery from a list of declared compound indexes. Keys are laid out
+// equality, sort, range: an index serves a query well when its leading keys are the query's
+// equality fields, followed by either the sort order or a range on a selective field. Every
+// filter index ends with the remaining criteria fields, so whatever doesn't bound the scan is
+// still checked on the index keys before a document is fetched.
+//
+// Candidates are ranked, best first, by:
+//   1. how many leading keys are bound by equality (author);
+//   2. a selective range (title prefix, publication dates) on the next key that is also the
+//      sort order, so the scan is both narrow and stops after one page;
+//   3. a selective range on the next key;
+//   4. the index returning rows in the sort order, so the scan stops after one page;
+//   5. any range on the next key (availability alone keeps most of the catalog);
+//   6. fewer criteria left for the fetched document, then fewer keys.
+//
+// The MongoDB backend declares FILTER_INDEXES (see IndexManager) and hints the chosen one;
+// the embedded engine plans over its sort orders with the same rules.
+public class BookQueryPlanner {
+
+    // A compound index as the planner sees it. stringBounds: whether author/title criteria can
+    // bound a scan of it, i.e. it compares strings case-insensitively like the queries do.
+    public static class Index {
+        private final String name;
+        private final List<String> keys;
+        private final boolean stringBounds;
+
+        public Index(String name, boolean stringBounds, String... keys) {
+            this.name = name;
+            this.keys = Arrays.asList(keys);
+            this.stringBounds = stringBounds;
+        }
+
+        public String getName() { return name; }
+
+        public List<String> getKeys() { return keys; }
+
+        public Bson keys() {
+            return Indexes.ascending(keys);
+        }
+    }
+
+    // The multi-criteria query indexes on books, all with the case-insensitive title collation.
+    public static final List<Index> FILTER_INDEXES = Collections.unmodifiableList(Arrays.asList(
+            new Index("filter_author", true, "author", "_id", "publishedDate", "quantity", "title"),
+            new Index("filter_author_title", true, "author", "title", "_id", "publishedDate", "quantity"),
+            new Index("filter_author_date", true, "author", "publishedDate", "_id", "title", "quantity"),
+            new Index("filter_title", true, "title", "_id", "publishedDate", "quantity", "author"),
+            new Index("filter_date", true, "publishedDate", "_id", "title", "quantity", "author"),
+            new Index("filter_quantity", true, "quantity", "_id", "publishedDate", "title", "author")));
+
+    // What a MongoDB query can use: the filter indexes and the collection's _id index.
+    public static final List<Index> MONGO_INDEXES;
+
+    static {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index("_id_", true, "_id"));
+        indexes.addAll(FILTER_INDEXES);
+        MONGO_INDEXES = Collections.unmodifiableList(indexes);
+    }
+
+    private static final List<String> SELECTIVE = Arrays.asList("title", "publishedDate");
+    private static final List<String> STRING_FIELDS = Arrays.asList("author", "title");
+
+    private static class Candidate {
+        final Index index;
+        int equalityKeys;
+        boolean bounded;
+        boolean selective;
+        boolean sorted;
+        final List<String> bounds = new ArrayList<>();
+        final List<String> keyFilters = new ArrayList<>();
+        final List<String> fetchFilters = new ArrayList<>();
+
+        Candidate(Index index) {
+            this.index = index;
+        }
+    }
+
+    public static BookQueryPlan plan(BookQuery query, List<Index> indexes) {
+        Candidate best = null;
+        for (Index index : indexes) {
+            Candidate candidate = evaluate(query, index);
+            if (best == null || compare(candidate, best) > 0)
+                best = candidate;
+        }
+        if (best == null)
+            throw new IllegalStateException("No indexes to plan " + query + " over");
+        return new BookQueryPlan(best.index.getName(), best.bounds, best.sorted, best.keyFilters, best.fetchFilters);
+    }
+
+    private static Candidate evaluate(BookQuery query, Index index) {
+        Candidate candidate = new Candidate(index);
+        List<String> equality = query.equalityFields();
+        List<String> ranges = query.rangeFields();
+        List<String> keys = index.getKeys();
+
+        int position = 0;
+        while (position < keys.size() && equality.contains(keys.get(position)) && usable(index, keys.get(position))) {
+            candidate.bounds.add(keys.get(position));
+            position++;
+        }
+        candidate.equalityKeys = position;
+        candidate.sorted = startsWith(keys.subList(position, keys.size()), sortKeys(query, candidate.bounds));
+        if (position < keys.size() && ranges.contains(keys.get(position)) && usable(index, keys.get(position))) {
+            candidate.bounded = true;
+            candidate.selective = SELECTIVE.contains(keys.get(position));
+            candidate.bounds.add(keys.get(position));
+        }
+
+        List<String> criteria = new ArrayList<>(equality);
+        criteria.addAll(ranges);
+        for (String field : criteria) {
+            if (candidate.bounds.contains(field))
+                continue;
+            if (keys.contains(field))
+                candidate.keyFilters.add(field);
+            else
+                candidate.fetchFilters.add(field);
+        }
+        return candidate;
+    }
+
+    // The sort keys still to come from the index once equality has fixed its leading keys:
+    // sorting by author within one author is just the _id tie-break.
+    private static List<String> sortKeys(BookQuery query, List<String> equalityBounds) {
+        List<String> sortKeys = new ArrayList<>();
+        BookSort sort = query.getSort();
+        if (sort != BookSort.NATURAL && !equalityBounds.contains(sort.getField()))
+            sortKeys.add(sort.getField());
+        sortKeys.add("_id");
+        return sortKeys;
+    }
+
+    private static boolean usable(Index index, String field) {
+        return index.stringBounds || !STRING_FIELDS.contains(field);
+    }
+
+    private static boolean startsWith(List<String> keys, List<String> prefix) {
+        return keys.size() >= prefix.size() && keys.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static int compare(Candidate a, Candidate b) {
+        int result = Integer.compare(a.equalityKeys, b.equalityKeys);
+        if (result == 0)
+            result = Boolean.compare(a.selective && a.sorted, b.selective && b.sorted);
+        if (result == 0)
+            result = Boolean.compare(a.selective, b.selective);
+        if (result == 0)
+            result = Boolean.compare(a.sorted, b.sorted);
+        if (result == 0)
+            result = Boolean.compare(a.bounded, b.bounded);
+        if (result == 0)
+            result = Integer.compare(b.fetchFilters.size(), a.fetchFilters.size());
+        if (result == 0)
+            result = Integer.compare(b.index.getKeys().size(), a.index.getKeys().size());
+        return result;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.library;
+
+// One page of a BookQuery's matches and the plan that produced it.
+public class BookQueryResult {
+    private final BookPage page;
+    private final BookQueryPlan plan;
+
+    public BookQueryResult(BookPage page, BookQueryPlan plan) {
+        this.page = page;
+        this.plan = plan;
+    }
+
+    public BookPage getPage() { return page; }
+
+    public BookQueryPlan getPlan() { return plan; }
+}
@@ -0,0 +1,46 @@
+package com.example.library;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Catalog storage. MongoBookRepository runs against MongoDB; InMemoryBookRepository is an
+// embedded engine for small branch catalogs, tests and benchmarks.
+public interface BookRepository extends Repository<Book> {
+    List<Book> findAll();
+
+    // Every book in natural order, handed over as it is read rather than collected first.
+    void forEach(Consumer<Book> action);
+
+    // Title/author search, best matches first.
+    List<Book> search(String pattern, int limit);
+
+    // Search results a page at a time, best matches first, with the count and total quantity
+    // of every match.
+    CatalogView searchView(String pattern, String cursor, boolean backward, int limit);
+
+    // Typeahead: titles and authors starting with prefix, most available first.
+    List<Suggestion> suggest(String prefix, int limit);
+
+    // Keyset page; cursors are only meaningful to the repository that issued them.
+    BookPage findPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit, boolean availableOnly);
+
+    // Positional page, for jumps where no neighbouring cursor is known.
+    BookPage findPageAt(BookSort sort, boolean ascending, int offset, int limit, boolean availableOnly);
+
+    // Keyset page plus the totals of everything the view covers: the whole catalog, or with a
+    // search the books whose title or author starts with it (case-insensitive).
+    CatalogView findView(String search, BookSort sort, boolean ascending, String cursor, boolean backward, int limit);
+
+    // Multi-criteria query: one keyset page of the matches and the index plan that served it.
+    BookQueryResult query(BookQuery query);
+
+    // New quantity, or -1 if the book doesn't exist or is out of stock.
+    int borrow(String bookId);
+
+    // New quantity, or -1 if the book doesn't exist.
+    int returnBook(String bookId);
+
+    List<BorrowResult> borrowAll(List<String> bookIds);
+
+    CatalogStats stats();
+}
@@ -0,0 +1,511 @@
+package com.example.library;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process search over book titles and authors. Each book gets a dense int document
+// number, and every character trigram maps to a sorted int[] posting list of the
+// documents containing it. A query counts shared trigrams per document, so substrings
+// match exactly and titles with a typo or two still score on the trigrams they share.
+//
+// Updates replace a document under a new number and leave a tombstone behind; the
+// postings are compacted once tombstones outnumber live documents.
+//
+// The startup scan runs beside the write path. A book written or removed while it runs is
+// newer in the index than the copy the scan may have read, so the scan skips it; a quantity
+// update for a book the scan hasn't reached yet is kept and applied when it arrives.
+//
+// Books that come with their MongoDB _id (Book.getDocumentId) are also findable by it, for
+// change-stream deletes, which carry nothing else.
+public class BookSearchIndex {
+    private static final int GRAM = 3;
+    // Fraction of the query's trigrams a document must share to be a (fuzzy) match.
+    private static final double MIN_OVERLAP = 0.5;
+    // Marks searchView cursors; '.' is outside the URL-safe Base64 the catalog cursors use.
+    private static final String CURSOR_PREFIX = "s.";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> docByKey = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    // Typeahead completions, kept in step with every put and remove.
+    private final SuggestionIndex suggestions = new SuggestionIndex();
+    private Book[] books = new Book[1024];
+    private String[] keys = new String[1024];
+    private String[] titles = new String[1024];   // normalized
+    private String[] authors = new String[1024];  // normalized
+    private int size;
+    private int live;
+    private volatile boolean ready;
+    // While load() runs: keys put or removed by the write path, and quantities set for
+    // keys not yet loaded. Null otherwise; guarded by the write lock.
+    private Set<String> liveKeys;
+    private Map<String, Integer> liveQuantities;
+    private Set<String> liveDeletedDocuments;
+    // key <-> MongoDB _id, for the books stored with one.
+    private final Map<String, String> documentIdByKey = new HashMap<>();
+    private final Map<String, String> keyByDocumentId = new HashMap<>();
+
+    // Per-thread scratch for the trigram counts, cleared after each query.
+    private final ThreadLocal<int[]> counts = ThreadLocal.withInitial(() -> new int[0]);
+
+    private static class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        // Documents are numbered in insertion order, so appends keep the list sorted.
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc)
+                return;
+            if (size == docs.length)
+                docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+    }
+
+    // Streams the catalog once and marks the index ready for queries.
+    public void load() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            liveKeys = new HashSet<>();
+            liveQuantities = new HashMap<>();
+            liveDeletedDocuments = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        MongoDBUtil.forEachBook((key, book) -> put(key, book, true));
+        lock.writeLock().lock();
+        try {
+            liveKeys = null;
+            liveQuantities = null;
+            liveDeletedDocuments = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Search index loaded: " + live + " books in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Book get(String key) {
+        lock.readLock().lock();
+        try {
+            Integer doc = docByKey.get(key);
+            return doc == null ? null : books[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds or replaces the book stored under key.
+    public void put(String key, Book book) {
+        put(key, book, false);
+    }
+
+    // loaded: read by the startup scan, so possibly older than a live write.
+    private void put(String key, Book book, boolean loaded) {
+        String title = normalize(book.getTitle());
+        String author = normalize(book.getAuthor());
+        lock.writeLock().lock();
+        try {
+            if (liveKeys != null) {
+                if (!loaded) {
+                    liveKeys.add(key);
+                    liveQuantities.remove(key);
+                } else if (liveDeletedDocuments.contains(book.getDocumentId())) {
+                    return;
+                } else if (liveKeys.contains(key)) {
+                    // The live copy may lack the _id; the scanned one still names it.
+                    if (docByKey.containsKey(key) && !documentIdByKey.containsKey(key))
+                        mapDocument(key, book.getDocumentId());
+                    return;
+                } else {
+                    Integer quantity = liveQuantities.remove(key);
+                    if (quantity != null)
+                        book = new Book(book.getId(), book.getTitle(), book.getAuthor(), book.getPublishedDate(), quantity);
+                }
+            }
+            mapDocument(key, book.getDocumentId());
+            Integer existing = docByKey.get(key);
+            suggestions.replace(existing == null ? null : books[existing], book);
+            // Only the quantity or date changed: swap the stored book, postings stay valid.
+            if (existing != null && titles[existing].equals(title) && authors[existing].equals(author)) {
+                books[existing] = book;
+                return;
+            }
+            if (existing != null)
+                tombstone(existing);
+            append(key, book, title, author);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            removeKey(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes the book stored with that MongoDB _id and returns its key, or null if none is
+    // indexed. During the load a book the scan hasn't reached yet is kept out when it does.
+    public String removeDocument(String documentId) {
+        lock.writeLock().lock();
+        try {
+            String key = keyByDocumentId.get(documentId);
+            if (key != null)
+                removeKey(key);
+            else if (liveDeletedDocuments != null)
+                liveDeletedDocuments.add(documentId);
+            return key;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Guarded by the write lock.
+    private void removeKey(String key) {
+        if (liveKeys != null) {
+            liveKeys.add(key);
+            liveQuantities.remove(key);
+        }
+        String documentId = documentIdByKey.remove(key);
+        if (documentId != null)
+            keyByDocumentId.remove(documentId);
+        Integer doc = docByKey.remove(key);
+        if (doc != null) {
+            suggestions.replace(books[doc], null);
+            tombstone(doc);
+            compactIfNeeded();
+        }
+    }
+
+    // Guarded by the write lock. A book without an _id (an update's partial copy) keeps the
+    // mapping the key already has.
+    private void mapDocument(String key, String documentId) {
+        if (documentId == null)
+            return;
+        String previous = documentIdByKey.put(key, documentId);
+        if (previous != null && !previous.equals(documentId))
+            keyByDocumentId.remove(previous);
+        keyByDocumentId.put(documentId, key);
+    }
+
+    public void updateQuantity(String key, int quantity) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docByKey.get(key);
+            if (doc != null) {
+                Book old = books[doc];
+                books[doc] = new Book(old.getId(), old.getTitle(), old.getAuthor(), old.getPublishedDate(), quantity);
+                suggestions.replace(old, books[doc]);
+            } else if (liveKeys != null && !liveKeys.contains(key)) {
+                liveQuantities.put(key, quantity);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Title and author completions for a typed prefix, most available first.
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return suggestions.suggest(prefix, limit);
+    }
+
+    // Returns up to limit books ranked by: title substring (prefix first), author
+    // substring, then trigram overlap for near misses.
+    public List<Book> search(String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty())
+            return new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<long[]> hits = rank(q);
+            List<Book> result = new ArrayList<>(Math.min(limit, hits.size()));
+            for (int i = 0; i < hits.size() && i < limit; i++) {
+                result.add(books[(int) hits.get(i)[1]]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One page of the ranked matches, keyset-paged on (score, title, key) like the catalog
+    // pages, with the count and total quantity of every match.
+    public CatalogView searchView(String query, String cursor, boolean backward, int limit) {
+        String q = normalize(query);
+        lock.readLock().lock();
+        try {
+            List<long[]> hits = q.isEmpty() ? new ArrayList<>() : rank(q);
+            long copies = 0;
+            long empty = 0;
+            for (long[] hit : hits) {
+                int quantity = books[(int) hit[1]].getQuantity();
+                copies += quantity;
+                if (quantity <= 0)
+                    empty++;
+            }
+            int from;
+            int to;
+            if (cursor == null) {
+                from = 0;
+                to = Math.min(hits.size(), limit);
+            } else {
+                Object[] boundary = decodeCursor(cursor);
+                if (backward) {
+                    to = seek(hits, boundary, false);
+                    from = Math.max(0, to - limit);
+                    // Fewer than a page left before the cursor: show a full first page instead.
+                    if (to - from < limit)
+                        to = Math.min(hits.size(), limit);
+                } else {
+                    from = seek(hits, boundary, true);
+                    to = Math.min(hits.size(), from + limit);
+                }
+            }
+            List<Book> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                page.add(books[(int) hits.get(i)[1]]);
+            }
+            String first = page.isEmpty() ? null : encodeCursor(hits.get(from));
+            String last = page.isEmpty() ? null : encodeCursor(hits.get(to - 1));
+            return new CatalogView(new BookPage(page, first, last, from > 0, to < hits.size()),
+                    new CatalogStats(copies, hits.size(), empty));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Whether cursor came from searchView rather than from a catalog page.
+    public static boolean isSearchCursor(String cursor) {
+        return cursor != null && cursor.startsWith(CURSOR_PREFIX);
+    }
+
+    // All matches, best first: score, then title, then key so pages have a total order.
+    private List<long[]> rank(String q) {
+        List<long[]> hits = q.length() < GRAM ? scan(q) : lookup(q);
+        hits.sort(Comparator.<long[]>comparingLong(h -> -h[0])
+                .thenComparing(h -> titles[(int) h[1]])
+                .thenComparing(h -> keys[(int) h[1]]));
+        return hits;
+    }
+
+    // The first position whose hit ranks after the boundary (after == true) or at or after it.
+    private int seek(List<long[]> hits, Object[] boundary, boolean after) {
+        int low = 0;
+        int high = hits.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int doc = (int) hits.get(mid)[1];
+            int c = Long.compare((Long) boundary[0], hits.get(mid)[0]);
+            if (c == 0)
+                c = titles[doc].compareTo((String) boundary[1]);
+            if (c == 0)
+                c = keys[doc].compareTo((String) boundary[2]);
+            if (c > 0 || (c == 0 && !after))
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    private String encodeCursor(long[] hit) {
+        int doc = (int) hit[1];
+        String text = hit[0] + "\u0000" + titles[doc] + "\u0000" + keys[doc];
+        return CURSOR_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Object[] decodeCursor(String cursor) {
+        if (!isSearchCursor(cursor))
+            throw new IllegalArgumentException("Not a search cursor: " + cursor);
+        String text = new String(Base64.getUrlDecoder().decode(cursor.substring(CURSOR_PREFIX.length())), StandardCharsets.UTF_8);
+        String[] parts = text.split("\u0000", 3);
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Not a search cursor: " + cursor);
+        return new Object[]{Long.parseLong(parts[0]), parts[1], parts[2]};
+    }
+
+    // Each hit is {score, doc}; scores are fixed point so they sort as longs.
+    private List<long[]> lookup(String q) {
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= q.length(); i++) {
+            grams.add(gram(q, i));
+        }
+        int[] shared = counts.get();
+        if (shared.length < size) {
+            shared = new int[books.length];
+            counts.set(shared);
+        }
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (long g : grams) {
+            Postings list = postings.get(g);
+            if (list == null)
+                continue;
+            for (int i = 0; i < list.size; i++) {
+                int doc = list.docs[i];
+                if (shared[doc]++ == 0) {
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = doc;
+                }
+            }
+        }
+
+        int minShared = Math.max(1, (int) Math.ceil(grams.size() * MIN_OVERLAP));
+        List<long[]> hits = new ArrayList<>();
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            int count = shared[doc];
+            shared[doc] = 0;
+            if (count < minShared || books[doc] == null)
+                continue;
+            long score = score(doc, q);
+            if (score == 0)
+                score = 1000L * count / grams.size();
+            hits.add(new long[]{score, doc});
+        }
+        return hits;
+    }
+
+    // Queries shorter than a trigram can't use the postings; scan the normalized fields.
+    private List<long[]> scan(String q) {
+        List<long[]> hits = new ArrayList<>();
+        for (int doc = 0; doc < size; doc++) {
+            if (books[doc] == null)
+                continue;
+            long score = score(doc, q);
+            if (score > 0)
+                hits.add(new long[]{score, doc});
+        }
+        return hits;
+    }
+
+    private long score(int doc, String q) {
+        String title = titles[doc];
+        if (title.startsWith(q))
+            return 4000;
+        if (title.contains(" " + q))
+            return 3500;
+        if (title.contains(q))
+            return 3000;
+        if (authors[doc].contains(q))
+            return 2000;
+        return 0;
+    }
+
+    private void append(String key, Book book, String title, String author) {
+        if (size == books.length) {
+            int capacity = size * 2;
+            books = Arrays.copyOf(books, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+        }
+        int doc = size++;
+        books[doc] = book;
+        keys[doc] = key;
+        titles[doc] = title;
+        authors[doc] = author;
+        docByKey.put(key, doc);
+        live++;
+        indexField(doc, title);
+        indexField(doc, author);
+    }
+
+    private void indexField(int doc, String text) {
+        // Pad so word starts and ends get their own trigrams.
+        String padded = " " + text + " ";
+        for (int i = 0; i + GRAM <= padded.length(); i++) {
+            postings.computeIfAbsent(gram(padded, i), g -> new Postings()).add(doc);
+        }
+    }
+
+    private void tombstone(int doc) {
+        books[doc] = null;
+        keys[doc] = null;
+        live--;
+    }
+
+    private void compactIfNeeded() {
+        int dead = size - live;
+        if (size < 1024 || dead < live)
+            return;
+        Book[] oldBooks = books;
+        String[] oldKeys = keys;
+        int oldSize = size;
+        int capacity = Math.max(1024, live * 2);
+        books = new Book[capacity];
+        keys = new String[capacity];
+        titles = new String[capacity];
+        authors = new String[capacity];
+        size = 0;
+        live = 0;
+        docByKey.clear();
+        postings.clear();
+        for (int doc = 0; doc < oldSize; doc++) {
+            if (oldBooks[doc] != null)
+                append(oldKeys[doc], oldBooks[doc], normalize(oldBooks[doc].getTitle()), normalize(oldBooks[doc].getAuthor()));
+        }
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // Lower case, accents stripped, punctuation collapsed to single spaces.
+    static String normalize(String text) {
+        if (text == null)
+            return "";
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int end = sb.length();
+        if (end > 0 && sb.charAt(end - 1) == ' ')
+            sb.setLength(end - 1);
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.example.library;
+
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import org.bson.conversions.Bson;
+
+// Server-side sort orders for the catalog. Every order is tie-broken on _id so
+// keyset pages are stable, and each one has a matching (field, _id) index.
+public enum BookSort {
+    NATURAL("_id"),
+    TITLE("title"),
+    AUTHOR("author"),
+    PUBLISHED_DATE("publishedDate"),
+    QUANTITY("quantity");
+
+    private final String field;
+
+    BookSort(String field) {
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public Bson orderBy(boolean ascending) {
+        if (this == NATURAL)
+            return ascending ? Sorts.ascending("_id") : Sorts.descending("_id");
+        return ascending ? Sorts.ascending(field, "_id") : Sorts.descending(field, "_id");
+    }
+
+    // The same index serves both directions.
+    public Bson indexKeys() {
+        return this == NATURAL ? null : Indexes.ascending(field, "_id");
+    }
+}
\ No newline at end of file
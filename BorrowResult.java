@@ -0,0 +1,27 @@
+package com.example.library;
+
+public class BorrowResult {
+    public enum Status { BORROWED, OUT_OF_STOCK, NOT_FOUND }
+
+    private final String bookId;
+    private final int copies;
+    private final Status status;
+    private final int quantity;  // quantity left after the batch, -1 if the book doesn't exist
+
+    public BorrowResult(String bookId, int copies, Status status, int quantity) {
+        this.bookId = bookId;
+        this.copies = copies;
+        this.status = status;
+        this.quantity = quantity;
+    }
+
+    public String getBookId() { return bookId; }
+
+    public int getCopies() { return copies; }
+
+    public Status getStatus() { return status; }
+
+    public int getQuantity() { return quantity; }
+
+    public boolean isBorrowed() { return status == Status.BORROWED; }
+}
\ No newline at end of file
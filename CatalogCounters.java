@@ -0,0 +1,159 @@
+package com.example.library;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Materialized catalog counters (total copies, total titles, out-of-stock titles) kept in
+// a single document of the "stats" collection. Every write that changes a quantity applies
+// its delta with one atomic $inc, so reading the counters is a single _id lookup instead of
+// an aggregation over the whole catalog. A periodic reconciliation recomputes them from
+// the books collection to correct any drift (e.g. a desk crashing between the two writes).
+//
+// The reconciliation applies only the difference, and only if no $inc landed while the
+// catalog was being scanned (compare-and-set on the values read before the scan); otherwise
+// it waits for the next round. It runs on one desk at a time: whichever holds the lease
+// document in "stats", renewed each round and taken over once it has expired.
+public class CatalogCounters {
+    static final String STATS_ID = "catalog";
+    private static final String LEASE_ID = "reconciler";
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long RECONCILE_MINUTES = Long.getLong("library.stats.reconcileMinutes", 10L);
+    // Identifies this desk as the lease holder.
+    private static final String DESK = new ObjectId().toHexString();
+
+    private static ScheduledExecutorService reconciler;
+
+    private static MongoCollection<Document> statsCollection() {
+        return MongoDBUtil.getDatabase().getCollection("stats");
+    }
+
+    public static void increment(long copies, long titles, long outOfStock) {
+        if (copies == 0 && titles == 0 && outOfStock == 0)
+            return;
+        statsCollection().updateOne(Filters.eq("_id", STATS_ID),
+                Updates.combine(
+                        Updates.inc("totalCopies", copies),
+                        Updates.inc("totalTitles", titles),
+                        Updates.inc("outOfStock", outOfStock)),
+                new UpdateOptions().upsert(true));
+    }
+
+    // 1 if a title with this quantity counts as out of stock, 0 otherwise.
+    public static int outOfStock(int quantity) {
+        return quantity <= 0 ? 1 : 0;
+    }
+
+    public static CatalogStats read() {
+        Document doc = statsCollection().find(Filters.eq("_id", STATS_ID)).first();
+        if (doc == null)
+            return reconcile();
+        return toStats(doc);
+    }
+
+    // Recomputes the counters from the books collection and corrects the stored values.
+    public static CatalogStats reconcile() {
+        Document before = statsCollection().find(Filters.eq("_id", STATS_ID)).first();
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$group", new Document("_id", null)
+                .append("totalCopies", new Document("$sum", "$quantity"))
+                .append("totalTitles", new Document("$sum", 1))
+                .append("outOfStock", new Document("$sum", new Document("$cond",
+                        Arrays.asList(new Document("$lte", Arrays.asList("$quantity", 0)), 1, 0))))));
+        Document totals = MongoDBUtil.getDatabase().getCollection("books").aggregate(pipeline).first();
+        CatalogStats counted = new CatalogStats(
+                totals == null ? 0L : ((Number) totals.get("totalCopies")).longValue(),
+                totals == null ? 0L : ((Number) totals.get("totalTitles")).longValue(),
+                totals == null ? 0L : ((Number) totals.get("outOfStock")).longValue());
+        if (before == null) {
+            // An $inc that created the document during the scan wins; the next round corrects it.
+            statsCollection().updateOne(Filters.eq("_id", STATS_ID), Updates.combine(
+                    Updates.setOnInsert("totalCopies", counted.getTotalCopies()),
+                    Updates.setOnInsert("totalTitles", counted.getTotalTitles()),
+                    Updates.setOnInsert("outOfStock", counted.getOutOfStock())),
+                    new UpdateOptions().upsert(true));
+            return read();
+        }
+        CatalogStats stored = toStats(before);
+        long copies = counted.getTotalCopies() - stored.getTotalCopies();
+        long titles = counted.getTotalTitles() - stored.getTotalTitles();
+        long outOfStock = counted.getOutOfStock() - stored.getOutOfStock();
+        if (copies == 0 && titles == 0 && outOfStock == 0)
+            return stored;
+        UpdateResult result = statsCollection().updateOne(Filters.and(
+                        Filters.eq("_id", STATS_ID),
+                        Filters.eq("totalCopies", before.get("totalCopies")),
+                        Filters.eq("totalTitles", before.get("totalTitles")),
+                        Filters.eq("outOfStock", before.get("outOfStock"))),
+                Updates.combine(
+                        Updates.inc("totalCopies", copies),
+                        Updates.inc("totalTitles", titles),
+                        Updates.inc("outOfStock", outOfStock)));
+        if (result.getMatchedCount() == 0) {
+            System.out.println("Catalog counters changed during reconciliation; retrying next round");
+            return read();
+        }
+        System.out.println("Catalog counters reconciled: copies " + copies + ", titles " + titles
+                + ", out of stock " + outOfStock);
+        return counted;
+    }
+
+    // True if this desk holds the reconciliation lease, taking it over if it has expired.
+    private static boolean holdLease() {
+        long now = System.currentTimeMillis();
+        try {
+            Document lease = statsCollection().findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", LEASE_ID),
+                            Filters.or(Filters.eq("owner", DESK), Filters.lt("until", new Date(now)))),
+                    Updates.combine(Updates.set("owner", DESK),
+                            Updates.set("until", new Date(now + TimeUnit.MINUTES.toMillis(RECONCILE_MINUTES * 2)))),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            return lease != null;
+        } catch (MongoException ex) {
+            // The upsert collides with the lease another desk holds.
+            if (ex.getCode() == DUPLICATE_KEY)
+                return false;
+            throw ex;
+        }
+    }
+
+    public static synchronized void startReconciliation() {
+        if (reconciler != null)
+            return;
+        reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "catalog-counter-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                if (holdLease())
+                    reconcile();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }, RECONCILE_MINUTES, RECONCILE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    static CatalogStats toStats(Document doc) {
+        return new CatalogStats(
+                ((Number) doc.get("totalCopies", 0L)).longValue(),
+                ((Number) doc.get("totalTitles", 0L)).longValue(),
+                ((Number) doc.get("outOfStock", 0L)).longValue());
+    }
+}
@@ -0,0 +1,412 @@
+package com.example.library;
+
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+// Streams a CSV or NDJSON catalog file (optionally .gz) into the books collection.
+//
+// One reader thread parses and validates rows into batches; a few writer threads insert
+// them with unordered insertMany. The queue between them is bounded, so memory stays at
+// a handful of batches no matter how large the file is. Invalid rows and rows the server
+// rejects go to <file>.rejects. Progress is checkpointed to <file>.checkpoint as the last
+// line whose batch (and every batch before it) has been written; a rerun resumes there.
+// Rows without a bookId have no unique key to catch a replay, so they get an _id made of
+// the run's import ID (kept in the checkpoint) and their line: a resumed run re-inserting
+// them gets duplicate keys back, like the rows that have a bookId.
+//
+// CSV files need a header row naming the columns: bookId, title, author,
+// publishedDate (yyyy-MM-dd) and quantity. NDJSON lines use the same field names. A quoted
+// CSV field may contain line breaks (CollectionExporter writes them that way), so a record
+// can span lines; line numbers in rejects and the checkpoint count physical lines.
+//
+// Usage: CatalogImporter <file> [batchSize] [writers]
+public class CatalogImporter {
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static class Batch {
+        final long firstLine;
+        final long lastLine;
+        final List<Document> docs;
+        final List<Long> lines;
+
+        Batch(long firstLine, long lastLine, List<Document> docs, List<Long> lines) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.docs = docs;
+            this.lines = lines;
+        }
+    }
+
+    private static final Batch END = new Batch(-1, -1, null, null);
+
+    private final Path input;
+    private final int batchSize;
+    private final int writers;
+    private final Path rejectsFile;
+    private final Path checkpointFile;
+    private final boolean ndjson;
+
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong alreadyImported = new AtomicLong();
+
+    private final TreeMap<Long, Long> completedBatches = new TreeMap<>();
+    private boolean resuming;
+    private long resumeLine;
+    private long committedLine;
+    // Seconds and 4 random bytes, hex: the first 8 bytes of the _ids of rows without a bookId.
+    private String importId;
+    private BufferedWriter rejects;
+    private volatile Exception failure;
+
+    public CatalogImporter(Path input, int batchSize, int writers) {
+        this.input = input;
+        this.batchSize = batchSize;
+        this.writers = writers;
+        this.rejectsFile = Paths.get(input + ".rejects");
+        this.checkpointFile = Paths.get(input + ".checkpoint");
+        String name = input.getFileName().toString().toLowerCase();
+        this.ndjson = name.endsWith(".ndjson") || name.endsWith(".jsonl")
+                || name.endsWith(".ndjson.gz") || name.endsWith(".jsonl.gz");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: CatalogImporter <file.csv|file.ndjson[.gz]> [batchSize] [writers]");
+            return;
+        }
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int writers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        new CatalogImporter(Paths.get(args[0]), batchSize, writers).run();
+    }
+
+    public void run() throws Exception {
+        // The checkpoint exists from the start of a run until it completes, so its
+        // presence means the previous run was interrupted.
+        resuming = Files.exists(checkpointFile);
+        if (resuming) {
+            String[] checkpoint = Files.readString(checkpointFile).trim().split("\\s+");
+            resumeLine = Long.parseLong(checkpoint[0]);
+            // A checkpoint from before import IDs can't match its rows without a bookId.
+            importId = checkpoint.length > 1 ? checkpoint[1] : newImportId();
+            System.out.println("Resuming " + input + " after line " + resumeLine);
+        } else {
+            importId = newImportId();
+            Files.writeString(checkpointFile, "0 " + importId);
+        }
+        committedLine = resumeLine;
+        rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "import-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> report(start), 5, 5, TimeUnit.SECONDS);
+
+        // Two batches per writer in flight at most: the reader blocks when writers fall behind.
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(writers * 2);
+        List<Thread> writerThreads = new ArrayList<>();
+        for (int i = 1; i <= writers; i++) {
+            Thread writer = new Thread(() -> writeBatches(queue), "import-writer-" + i);
+            writer.start();
+            writerThreads.add(writer);
+        }
+        try {
+            readBatches(queue);
+        } finally {
+            for (int i = 0; i < writers; i++) {
+                queue.put(END);
+            }
+            for (Thread writer : writerThreads) {
+                writer.join();
+            }
+            progress.shutdownNow();
+            rejects.close();
+        }
+
+        report(start);
+        if (failure != null)
+            throw new IllegalStateException("Import stopped at line " + committedLine
+                    + "; rerun to resume from the checkpoint.", failure);
+        Files.deleteIfExists(checkpointFile);
+        System.out.println("Import complete.");
+    }
+
+    private void readBatches(BlockingQueue<Batch> queue) throws IOException, InterruptedException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setLenient(false);
+        try (BufferedReader reader = open()) {
+            Map<String, Integer> columns = null;
+            long lineNumber = 0;
+            long batchStart = resumeLine + 1;
+            if (!ndjson) {
+                String header = reader.readLine();
+                lineNumber++;
+                if (header == null)
+                    return;
+                columns = new HashMap<>();
+                if (header.startsWith("\uFEFF"))
+                    header = header.substring(1);
+                List<String> names = parseCsv(header);
+                for (int i = 0; i < names.size(); i++) {
+                    columns.put(names.get(i).trim(), i);
+                }
+            }
+
+            List<Document> docs = new ArrayList<>(batchSize);
+            List<Long> lines = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null && failure == null) {
+                lineNumber++;
+                long recordLine = lineNumber;
+                // The record goes on until its quotes close; readLine drops the break itself.
+                String next;
+                while (!ndjson && insideQuotes(line) && (next = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line + "\n" + next;
+                }
+                if (lineNumber <= resumeLine) {
+                    batchStart = lineNumber + 1;
+                    continue;
+                }
+                if (!line.trim().isEmpty()) {
+                    rowsRead.incrementAndGet();
+                    try {
+                        Document doc = ndjson ? fromJson(line, dateFormat) : fromCsv(parseCsv(line), columns, dateFormat);
+                        if (!doc.containsKey("bookId"))
+                            doc.append("_id", rowId(recordLine));
+                        docs.add(doc);
+                        lines.add(recordLine);
+                    } catch (RuntimeException | ParseException ex) {
+                        reject(recordLine, ex.getMessage(), line);
+                    }
+                }
+                if (docs.size() == batchSize) {
+                    queue.put(new Batch(batchStart, lineNumber, docs, lines));
+                    batchStart = lineNumber + 1;
+                    docs = new ArrayList<>(batchSize);
+                    lines = new ArrayList<>(batchSize);
+                }
+            }
+            if (lineNumber >= batchStart)
+                queue.put(new Batch(batchStart, lineNumber, docs, lines));
+        }
+    }
+
+    private BufferedReader open() throws IOException {
+        InputStream in = Files.newInputStream(input);
+        if (input.getFileName().toString().toLowerCase().endsWith(".gz"))
+            in = new GZIPInputStream(in, 1 << 16);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private void writeBatches(BlockingQueue<Batch> queue) {
+        try {
+            while (true) {
+                Batch batch = queue.take();
+                if (batch == END)
+                    return;
+                if (failure != null)
+                    continue;
+                try {
+                    if (!batch.docs.isEmpty())
+                        write(batch);
+                    complete(batch);
+                } catch (Exception ex) {
+                    failure = ex;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Batch batch) throws IOException {
+        Map<Integer, BulkWriteError> errors = MongoDBUtil.insertBooks(batch.docs);
+        inserted.addAndGet(batch.docs.size() - errors.size());
+        for (Map.Entry<Integer, BulkWriteError> error : errors.entrySet()) {
+            long line = batch.lines.get(error.getKey());
+            // After a crash the batches that were queued or in flight past the checkpoint may
+            // already be in; they come back as duplicates of their bookId, or of the _id the
+            // line was given.
+            if (resuming && error.getValue().getCode() == DUPLICATE_KEY
+                    && line <= resumeLine + (long) batchSize * writers * 3) {
+                alreadyImported.incrementAndGet();
+                continue;
+            }
+            reject(line, error.getValue().getMessage(), batch.docs.get(error.getKey()).toJson());
+        }
+    }
+
+    // Advances the checkpoint over every batch that is now contiguously complete.
+    private synchronized void complete(Batch batch) throws IOException {
+        completedBatches.put(batch.firstLine, batch.lastLine);
+        Long next;
+        boolean advanced = false;
+        while ((next = completedBatches.remove(committedLine + 1)) != null) {
+            committedLine = next;
+            advanced = true;
+        }
+        if (advanced) {
+            Path temp = Paths.get(checkpointFile + ".tmp");
+            Files.writeString(temp, committedLine + " " + importId);
+            Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static String newImportId() {
+        byte[] random = new byte[4];
+        new SecureRandom().nextBytes(random);
+        ByteBuffer id = ByteBuffer.allocate(8).putInt((int) (System.currentTimeMillis() / 1000)).put(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : id.array()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private ObjectId rowId(long line) {
+        ByteBuffer id = ByteBuffer.allocate(12).putLong(Long.parseUnsignedLong(importId, 16)).putInt((int) line);
+        return new ObjectId(id.array());
+    }
+
+    private synchronized void reject(long line, String reason, String row) throws IOException {
+        rejected.incrementAndGet();
+        // One reject per line, also for a CSV record that spanned several.
+        rejects.write(line + "\t" + reason + "\t" + row.replace("\r", "\\r").replace("\n", "\\n"));
+        rejects.newLine();
+    }
+
+    private void report(long start) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        System.out.printf("Import: read=%d inserted=%d rejected=%d alreadyImported=%d (%.0f rows/s, checkpoint line %d)%n",
+                rowsRead.get(), inserted.get(), rejected.get(), alreadyImported.get(),
+                inserted.get() / seconds, committedLine);
+    }
+
+    private static Document fromCsv(List<String> fields, Map<String, Integer> columns, SimpleDateFormat dateFormat)
+            throws ParseException {
+        return toBookDocument(field(fields, columns, "bookId"), field(fields, columns, "title"),
+                field(fields, columns, "author"), field(fields, columns, "publishedDate"),
+                field(fields, columns, "quantity"), dateFormat);
+    }
+
+    private static Document fromJson(String line, SimpleDateFormat dateFormat) throws ParseException {
+        Document doc = Document.parse(line);
+        Object quantity = doc.get("quantity");
+        return toBookDocument(doc.getString("bookId"), doc.getString("title"), doc.getString("author"),
+                doc.get("publishedDate"), quantity == null ? null : quantity.toString(), dateFormat);
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.size())
+            return null;
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // Same document shape as MongoDBUtil.insertBook.
+    private static Document toBookDocument(String bookId, String title, String author, Object publishedDate,
+                                           String quantity, SimpleDateFormat dateFormat) throws ParseException {
+        if (title == null || title.trim().isEmpty())
+            throw new IllegalArgumentException("missing title");
+        if (quantity == null)
+            throw new IllegalArgumentException("missing quantity");
+        int qty;
+        try {
+            qty = Integer.parseInt(quantity.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid quantity: " + quantity);
+        }
+        if (qty < 0)
+            throw new IllegalArgumentException("negative quantity: " + qty);
+        Date date = null;
+        if (publishedDate instanceof Date)
+            date = (Date) publishedDate;
+        else if (publishedDate != null)
+            date = dateFormat.parse(publishedDate.toString().trim());
+
+        Document doc = new Document("title", title.trim())
+                .append("author", author)
+                .append("publishedDate", date)
+                .append("quantity", qty);
+        if (bookId != null && !bookId.isEmpty())
+            doc.append("bookId", bookId);
+        return doc;
+    }
+
+    // True if text ends inside a quoted field: "" escapes come in pairs, so an odd number
+    // of quotes leaves one open.
+    static boolean insideQuotes(String text) {
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"')
+                quoted = !quoted;
+        }
+        return quoted;
+    }
+
+    // Minimal RFC 4180 field splitting: commas, double-quoted fields and "" escapes.
+    static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
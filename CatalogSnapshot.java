@@ -0,0 +1,464 @@
+package com.example.library;
+
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Local copy of the books catalog so a desk can draw its first screen before the server
+// answers. The copy is a binary file opened with a read-only memory map; a row is decoded
+// straight from the mapped bytes when it is shown, so opening and reading the first page
+// costs the same for a thousand books or ten million.
+//
+// File layout: a 64-byte header, fixed 36-byte records in _id order, then a string heap.
+//   header  [int magic][int record size][int count][long saved at][long copies][long titles]
+//           [long out of stock][int token offset][long generation]
+//   record  [12-byte _id][int bookId][int title][int author][long published][int quantity]
+// Strings are heap offsets ([int length][utf-8 bytes]), -1 for null; a null date is
+// Long.MIN_VALUE. The token is the change-stream resume token the copy is current up to.
+//
+// After startup the BookChangeWatcher resumes from that token, so every change made since
+// the copy was saved is replayed into an overlay here; once the stream has caught up the
+// copy plus overlay is written out as the next generation, and again every
+// library.catalogSnapshot.seconds (default 300) while changes arrive. Without a usable token
+// (first run, standalone server, lost history) the copy is rebuilt from a full scan.
+// Each generation is a new file <library.catalogSnapshot>.<n> (default catalog.snap.<n>),
+// so a file still mapped is never overwritten; older generations are deleted when possible.
+//
+// MongoDB backend only; off with -Dlibrary.catalogSnapshot.enabled=false. Books stored with a
+// non-ObjectId _id are left out.
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x43415431; // "CAT1"
+    private static final int HEADER = 64;
+    private static final int RECORD = 36;
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.catalogSnapshot.enabled", "true"));
+    private static final Path FILE = Paths.get(System.getProperty("library.catalogSnapshot", "catalog.snap")).toAbsolutePath();
+    private static final long SAVE_SECONDS = Long.getLong("library.catalogSnapshot.seconds", 300);
+
+    // Marks a book deleted since the copy was saved.
+    private static final Book DELETED = new Book();
+
+    // One generation, mapped read-only.
+    private static class Mapped {
+        final Path file;
+        final ByteBuffer buffer;
+        final int count;
+        final long heap;
+        final long savedAt;
+        final CatalogStats stats;
+        final BsonDocument token;
+        final long generation;
+
+        Mapped(Path file, ByteBuffer buffer) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+            if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != RECORD)
+                throw new IOException("Not a catalog snapshot: " + file);
+            count = buffer.getInt(8);
+            heap = HEADER + (long) count * RECORD;
+            if (heap > buffer.capacity())
+                throw new IOException("Truncated catalog snapshot: " + file);
+            savedAt = buffer.getLong(12);
+            stats = new CatalogStats(buffer.getLong(20), buffer.getLong(28), buffer.getLong(36));
+            String tokenJson = string(buffer.getInt(44));
+            token = tokenJson == null ? null : BsonDocument.parse(tokenJson);
+            generation = buffer.getLong(48);
+        }
+
+        ObjectId id(int index) {
+            byte[] bytes = new byte[12];
+            ByteBuffer view = buffer.duplicate();
+            view.position(HEADER + index * RECORD);
+            view.get(bytes);
+            return new ObjectId(bytes);
+        }
+
+        Book book(int index) {
+            int record = HEADER + index * RECORD;
+            long published = buffer.getLong(record + 24);
+            Book book = new Book(string(buffer.getInt(record + 12)), string(buffer.getInt(record + 16)),
+                    string(buffer.getInt(record + 20)), published == NULL_DATE ? null : new java.util.Date(published),
+                    buffer.getInt(record + 32));
+            book.setDocumentId(id(index).toHexString());
+            return book;
+        }
+
+        // Position of id, or -(insertion point) - 1.
+        int indexOf(ObjectId id) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int result = id(mid).compareTo(id);
+                if (result < 0)
+                    low = mid + 1;
+                else if (result > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        }
+
+        private String string(int offset) {
+            if (offset < 0)
+                return null;
+            int position = (int) (heap + offset);
+            byte[] bytes = new byte[buffer.getInt(position)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + 4);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static volatile Mapped base;
+    // Changes seen since base was saved, by _id; DELETED for removals.
+    private static final Map<ObjectId, Book> overlay = new ConcurrentHashMap<>();
+    private static volatile CatalogStats latestStats;
+    private static volatile boolean dirty;
+    private static volatile boolean rebuildNeeded;
+    private static Thread syncer;
+
+    public static boolean isOpen() {
+        return base != null;
+    }
+
+    // When the copy on disk was last current with the server, or 0 if there is none.
+    public static long savedAt() {
+        Mapped mapped = base;
+        return mapped == null ? 0 : mapped.savedAt;
+    }
+
+    // The resume token the BookChangeWatcher should replay from, or null for "now".
+    public static BsonDocument resumeToken() {
+        Mapped mapped = base;
+        return mapped == null ? null : mapped.token;
+    }
+
+    // Maps the newest complete generation, if any. Cheap: nothing is read beyond the header.
+    public static synchronized void open() {
+        if (!ENABLED || base != null)
+            return;
+        List<Path> generations = generations();
+        for (int i = generations.size() - 1; i >= 0 && base == null; i--) {
+            try {
+                base = map(generations.get(i));
+                System.out.println("Catalog snapshot: " + base.count + " books, saved "
+                        + new java.util.Date(base.savedAt) + " (" + generations.get(i).getFileName() + ")");
+            } catch (IOException ex) {
+                System.out.println("Skipping catalog snapshot " + generations.get(i) + ": " + ex.getMessage());
+            }
+        }
+        rebuildNeeded = base == null || base.token == null;
+        deleteOldGenerations();
+    }
+
+    // The first page in natural order and the catalog totals, as of the copy plus any changes
+    // replayed since; null without a snapshot. The page has no cursors: it is replaced by the
+    // server's page as soon as that arrives.
+    public static CatalogView firstView(int limit) {
+        Mapped mapped = base;
+        if (mapped == null)
+            return null;
+        List<Book> books = new ArrayList<>(limit);
+        for (int i = 0; i < mapped.count && books.size() < limit; i++) {
+            Book changed = overlay.isEmpty() ? null : overlay.get(mapped.id(i));
+            if (changed != DELETED)
+                books.add(changed != null ? changed : mapped.book(i));
+        }
+        CatalogStats stats = latestStats;
+        return new CatalogView(new BookPage(books, null, null, false, false), stats != null ? stats : mapped.stats);
+    }
+
+    // ------------------- CHANGES (from the BookChangeWatcher) ---------------------
+
+    static void changed(Object id, Book book) {
+        if (ENABLED && id instanceof ObjectId) {
+            overlay.put((ObjectId) id, book);
+            dirty = true;
+        }
+    }
+
+    static void deleted(ObjectId id) {
+        if (ENABLED) {
+            overlay.put(id, DELETED);
+            dirty = true;
+        }
+    }
+
+    static void statsChanged(CatalogStats stats) {
+        latestStats = stats;
+        dirty = true;
+    }
+
+    // The stream can't replay everything since the copy; only a full scan brings it up to date.
+    static void historyLost() {
+        rebuildNeeded = true;
+    }
+
+    // ------------------- SAVING ---------------------
+
+    // Brings the copy up to date in the background once the change stream has caught up.
+    public static synchronized void startSync() {
+        if (!ENABLED || syncer != null)
+            return;
+        syncer = new Thread(CatalogSnapshot::syncLoop, "catalog-snapshot");
+        syncer.setDaemon(true);
+        syncer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Only a merge here: a full scan can't be relied on to finish during shutdown.
+            if (dirty && !rebuildNeeded && base != null)
+                saveQuietly(false);
+        }, "catalog-snapshot-shutdown"));
+    }
+
+    private static void syncLoop() {
+        boolean rebuiltWithoutStream = false;
+        while (true) {
+            try {
+                // Wait for the stream to replay what happened since the copy. Without change
+                // streams the copy can only be refreshed by a full scan, once per launch.
+                while (!BookChangeWatcher.isCaughtUp() && !BookChangeWatcher.isUnsupported()) {
+                    Thread.sleep(1000);
+                }
+                if (BookChangeWatcher.isUnsupported()) {
+                    if (!rebuiltWithoutStream)
+                        saveQuietly(true);
+                    rebuiltWithoutStream = true;
+                } else if (rebuildNeeded) {
+                    saveQuietly(true);
+                } else if (dirty) {
+                    saveQuietly(false);
+                }
+                Thread.sleep(SAVE_SECONDS * 1000);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private static void saveQuietly(boolean fullScan) {
+        try {
+            long start = System.nanoTime();
+            save(fullScan);
+            System.out.println("Catalog snapshot saved: " + base.count + " books" + (fullScan ? " (full scan)" : "")
+                    + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (Exception ex) {
+            System.out.println("Catalog snapshot save failed: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // Writes the next generation from a full scan, or from the current copy plus the overlay,
+    // then maps it in place of the current one.
+    private static synchronized void save(boolean fullScan) throws IOException {
+        // The token first: every change up to it is already in the overlay (or the scan), and
+        // changes after it are replayed again on the next launch, which is harmless.
+        BsonDocument token = BookChangeWatcher.resumeToken();
+        dirty = false;
+        if (fullScan)
+            rebuildNeeded = false;
+        Map<ObjectId, Book> changes = new HashMap<>(overlay);
+        Mapped current = base;
+        long generation = current == null ? 1 : current.generation + 1;
+        Path target = FILE.resolveSibling(FILE.getFileName() + "." + generation);
+        Path temp = FILE.resolveSibling(FILE.getFileName() + "." + generation + ".tmp");
+        CatalogStats stats;
+        try (Writer writer = new Writer(temp)) {
+            if (fullScan) {
+                stats = CatalogCounters.read();
+                MongoDBUtil.forEachBookById(writer::add);
+            } else {
+                stats = latestStats != null ? latestStats : current.stats;
+                merge(current, changes, writer);
+            }
+            writer.finish(stats, token, generation, System.currentTimeMillis());
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            if (fullScan)
+                rebuildNeeded = true;
+            dirty = true;
+            throw ex;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        base = map(target);
+        // Entries that changed again while saving stay for the next generation.
+        for (Map.Entry<ObjectId, Book> entry : changes.entrySet()) {
+            overlay.remove(entry.getKey(), entry.getValue());
+        }
+        deleteOldGenerations();
+    }
+
+    // Both sides in _id order: rows of the copy, replaced or dropped by the overlay, with new
+    // books merged in.
+    private static void merge(Mapped current, Map<ObjectId, Book> changes, Writer writer) throws IOException {
+        List<ObjectId> added = new ArrayList<>();
+        for (Map.Entry<ObjectId, Book> entry : changes.entrySet()) {
+            if (entry.getValue() != DELETED && current.indexOf(entry.getKey()) < 0)
+                added.add(entry.getKey());
+        }
+        Collections.sort(added);
+        int next = 0;
+        for (int i = 0; i < current.count; i++) {
+            ObjectId id = current.id(i);
+            for (; next < added.size() && added.get(next).compareTo(id) < 0; next++) {
+                writer.add(added.get(next), changes.get(added.get(next)));
+            }
+            Book changed = changes.get(id);
+            if (changed != DELETED)
+                writer.add(id, changed != null ? changed : current.book(i));
+        }
+        for (; next < added.size(); next++) {
+            writer.add(added.get(next), changes.get(added.get(next)));
+        }
+    }
+
+    private static Mapped map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Mapped(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Complete generations, oldest first.
+    private static List<Path> generations() {
+        List<Path> files = new ArrayList<>();
+        String prefix = FILE.getFileName() + ".";
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(FILE.getParent(), prefix + "*")) {
+            for (Path file : directory) {
+                if (file.getFileName().toString().substring(prefix.length()).matches("\\d+"))
+                    files.add(file);
+            }
+        } catch (IOException ex) {
+            System.out.println("Unable to list catalog snapshots: " + ex.getMessage());
+        }
+        files.sort((a, b) -> Long.compare(generationOf(a), generationOf(b)));
+        return files;
+    }
+
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    // A file that is still mapped can't be deleted on some platforms; it goes on a later try.
+    private static void deleteOldGenerations() {
+        Mapped current = base;
+        for (Path file : generations()) {
+            if (current != null && generationOf(file) < current.generation) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    // still mapped
+                }
+            }
+        }
+    }
+
+    // Streams records into the file and strings into a side file that is appended at the end,
+    // so neither has to be held in memory.
+    private static class Writer implements AutoCloseable {
+        private final Path heapFile;
+        private final FileChannel records;
+        private final FileChannel heap;
+        private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD * 2048);
+        private final ByteBuffer heapBuffer = ByteBuffer.allocate(1 << 16);
+        private int count;
+        private long heapSize;
+
+        Writer(Path file) throws IOException {
+            heapFile = file.resolveSibling(file.getFileName() + ".heap");
+            records = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.READ);
+            heap = FileChannel.open(heapFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.READ);
+            records.position(HEADER);
+        }
+
+        void add(ObjectId id, Book book) {
+            try {
+                if (recordBuffer.remaining() < RECORD)
+                    flush(recordBuffer, records);
+                recordBuffer.put(id.toByteArray());
+                recordBuffer.putInt(string(book.getId()));
+                recordBuffer.putInt(string(book.getTitle()));
+                recordBuffer.putInt(string(book.getAuthor()));
+                recordBuffer.putLong(book.getPublishedDate() == null ? NULL_DATE : book.getPublishedDate().getTime());
+                recordBuffer.putInt(book.getQuantity());
+                count++;
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to write catalog snapshot", ex);
+            }
+        }
+
+        void finish(CatalogStats stats, BsonDocument token, long generation, long savedAt) throws IOException {
+            int tokenOffset = string(token == null ? null : token.toJson());
+            flush(recordBuffer, records);
+            flush(heapBuffer, heap);
+            long position = HEADER + (long) count * RECORD;
+            for (long copied = 0; copied < heapSize; ) {
+                copied += heap.transferTo(copied, heapSize - copied, records);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(RECORD).putInt(count).putLong(savedAt)
+                    .putLong(stats.getTotalCopies()).putLong(stats.getTotalTitles()).putLong(stats.getOutOfStock())
+                    .putInt(tokenOffset).putLong(generation);
+            header.flip();
+            records.write(header, 0);
+            records.force(true);
+            if (records.size() != position + heapSize)
+                throw new IOException("Catalog snapshot size mismatch");
+        }
+
+        private int string(String value) throws IOException {
+            if (value == null)
+                return -1;
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (heapSize + 4 + bytes.length > Integer.MAX_VALUE)
+                throw new IOException("Catalog snapshot string heap over 2 GB");
+            int offset = (int) heapSize;
+            if (heapBuffer.remaining() < 4 + bytes.length)
+                flush(heapBuffer, heap);
+            if (heapBuffer.remaining() < 4 + bytes.length) {
+                heap.write(ByteBuffer.allocate(4).putInt(bytes.length).flip());
+                heap.write(ByteBuffer.wrap(bytes));
+            } else {
+                heapBuffer.putInt(bytes.length).put(bytes);
+            }
+            heapSize += 4 + bytes.length;
+            return offset;
+        }
+
+        private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            records.close();
+            heap.close();
+            Files.deleteIfExists(heapFile);
+        }
+    }
+}
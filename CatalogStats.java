@@ -0,0 +1,20 @@
+package com.example.library;
+
+// Snapshot of the materialized catalog counters.
+public class CatalogStats {
+    private final long totalCopies;
+    private final long totalTitles;
+    private final long outOfStock;
+
+    public CatalogStats(long totalCopies, long totalTitles, long outOfStock) {
+        this.totalCopies = totalCopies;
+        this.totalTitles = totalTitles;
+        this.outOfStock = outOfStock;
+    }
+
+    public long getTotalCopies() { return totalCopies; }
+
+    public long getTotalTitles() { return totalTitles; }
+
+    public long getOutOfStock() { return outOfStock; }
+}
@@ -0,0 +1,17 @@
+package com.example.library;
+
+// What the Books tab shows for one page: the rows, plus how many titles match the view's
+// filter and how many copies they hold (the whole catalog when there is no filter).
+public class CatalogView {
+    private final BookPage page;
+    private final CatalogStats totals;
+
+    public CatalogView(BookPage page, CatalogStats totals) {
+        this.page = page;
+        this.totals = totals;
+    }
+
+    public BookPage getPage() { return page; }
+
+    public CatalogStats getTotals() { return totals; }
+}
@@ -0,0 +1,379 @@
+package com.example.library;
+
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+// Local write-ahead log for the circulation desk. A borrow or return is appended to a
+// memory-mapped file and forced to disk, and the desk is answered straight away; a single
+// replay thread then applies the operations to MongoDB strictly in log order. Each
+// operation carries an ObjectId idempotency key that MongoDBUtil remembers on the book,
+// so an operation replayed twice (a crash between applying it and advancing the
+// watermark) only lands once. The loan journal event reuses the same id, is dated with
+// the time the desk accepted the operation rather than the time it reached the server, and
+// is stored before the operation counts as synced, so a crash can't keep the stock change
+// and lose the loan.
+//
+// File layout: a 32-byte header (magic, synced sequence number) followed by records of
+//   [int length][int crc32][long seq][byte type][12-byte opId][long time][utf bookId][utf memberId]
+// On open the records after the synced sequence are replayed; a torn final record fails
+// its CRC and ends the scan. Once everything is synced the log rewinds to the start, and
+// when it fills up the unsynced tail is moved to the front.
+//
+// An operation is only accepted after a local check against the in-memory search index
+// (book exists, and for a borrow, a copy is left after the operations still queued), so a
+// rejection during replay means another desk got there first. Those are reported, not retried.
+//
+// Used with the MongoDB backend unless -Dlibrary.wal.enabled=false; the file is
+// -Dlibrary.wal (default circulation.wal) of library.wal.sizeMb (default 16) megabytes.
+public class CirculationLog {
+    public static final byte BORROW = 1;
+    public static final byte RETURN = 2;
+
+    private static final int MAGIC = 0x57414C31; // "WAL1"
+    private static final int HEADER = 32;
+    private static final int SYNCED_SEQ_OFFSET = 8;
+    private static final long MAX_RETRY_MILLIS = 10_000;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.wal.enabled", "true"));
+    private static final Path FILE = Paths.get(System.getProperty("library.wal", "circulation.wal"));
+    private static final int CAPACITY = Integer.getInteger("library.wal.sizeMb", 16) << 20;
+
+    private static class Operation {
+        final long seq;
+        final byte type;
+        final ObjectId opId;
+        final String bookId;
+        final String memberId;
+        // When the desk accepted the operation; the loan journal dates the event with it.
+        final Date at;
+        int end;
+
+        Operation(long seq, byte type, ObjectId opId, Date at, String bookId, String memberId) {
+            this.seq = seq;
+            this.type = type;
+            this.opId = opId;
+            this.at = at;
+            this.bookId = bookId;
+            this.memberId = memberId;
+        }
+    }
+
+    private static MappedByteBuffer map;
+    private static int writePosition;
+    private static int firstUnsynced;
+    private static long nextSeq;
+    private static volatile boolean open;
+
+    // Appended under the class lock; the head stays queued until it has been applied.
+    private static final LinkedBlockingDeque<Operation> unsynced = new LinkedBlockingDeque<>();
+    // Net change in stock per book from operations not yet applied.
+    private static final Map<String, AtomicInteger> pendingDelta = new ConcurrentHashMap<>();
+    private static final List<String> rejected = Collections.synchronizedList(new ArrayList<>());
+
+    // The log is only used once the search index can vouch for book IDs and stock.
+    public static boolean isEnabled() {
+        return ENABLED && open && MongoDBUtil.getSearchIndex().isReady();
+    }
+
+    public static int unsyncedCount() {
+        return unsynced.size();
+    }
+
+    // Operations MongoDB refused during replay, most recent last.
+    public static List<String> rejected() {
+        synchronized (rejected) {
+            return new ArrayList<>(rejected);
+        }
+    }
+
+    // Opens (or creates) the log, queues whatever was not synced before the last shutdown
+    // or crash, and starts the replay thread.
+    public static synchronized void open() throws IOException {
+        if (!ENABLED || open)
+            return;
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+        }
+        long syncedSeq = 0;
+        if (map.getInt(0) == MAGIC) {
+            syncedSeq = map.getLong(SYNCED_SEQ_OFFSET);
+        } else {
+            map.putInt(0, MAGIC);
+            map.putLong(SYNCED_SEQ_OFFSET, 0);
+            map.putInt(HEADER, 0);
+        }
+        nextSeq = syncedSeq + 1;
+        writePosition = HEADER;
+        firstUnsynced = -1;
+        long lastSeq = 0;
+        int position = HEADER;
+        Operation operation;
+        while ((operation = read(position)) != null && operation.seq > lastSeq) {
+            if (operation.seq > syncedSeq) {
+                if (firstUnsynced < 0)
+                    firstUnsynced = position;
+                queue(operation);
+                nextSeq = operation.seq + 1;
+            }
+            lastSeq = operation.seq;
+            position = operation.end;
+        }
+        writePosition = position;
+        if (firstUnsynced < 0)
+            firstUnsynced = writePosition;
+        if (writePosition + 4 <= CAPACITY)
+            map.putInt(writePosition, 0);
+        if (!unsynced.isEmpty())
+            System.out.println("Circulation log: replaying " + unsynced.size() + " unsynced operations");
+        open = true;
+
+        Thread replayer = new Thread(CirculationLog::replayLoop, "circulation-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    // Records a borrow and returns the projected quantity, or -1 if the book is unknown or
+    // has no copy left once queued operations are counted.
+    public static int borrow(String bookId, String memberId) {
+        return append(BORROW, bookId, memberId);
+    }
+
+    // Records a return and returns the projected quantity, or -1 if the book is unknown.
+    public static int giveBack(String bookId, String memberId) {
+        return append(RETURN, bookId, memberId);
+    }
+
+    // A batch checkout, with the same semantics as BookRepository.borrowAll: each distinct ID
+    // is all-or-nothing for the copies requested, results in first-seen order. Every copy is
+    // its own borrow record; the quantities are projected as for a single borrow.
+    public static synchronized List<BorrowResult> borrowAll(List<String> bookIds, String memberId) {
+        Map<String, Integer> copies = new LinkedHashMap<>();
+        int room = 0;
+        for (String bookId : bookIds) {
+            copies.merge(bookId, 1, Integer::sum);
+            room += recordSize(bookId, memberId);
+        }
+        // Room for the whole batch up front, so a full log fails it before anything is written.
+        ensureRoom(room + 4);
+        List<BorrowResult> results = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : copies.entrySet()) {
+            String bookId = entry.getKey();
+            int wanted = entry.getValue();
+            Book known = MongoDBUtil.getSearchIndex().get(bookId);
+            if (known == null) {
+                results.add(new BorrowResult(bookId, wanted, BorrowResult.Status.NOT_FOUND, 0));
+                continue;
+            }
+            int available = known.getQuantity() + pendingDelta(bookId).get();
+            if (available < wanted) {
+                results.add(new BorrowResult(bookId, wanted, BorrowResult.Status.OUT_OF_STOCK, Math.max(0, available)));
+                continue;
+            }
+            for (int i = 0; i < wanted; i++) {
+                write(BORROW, bookId, memberId);
+            }
+            results.add(new BorrowResult(bookId, wanted, BorrowResult.Status.BORROWED, available - wanted));
+        }
+        return results;
+    }
+
+    private static synchronized int append(byte type, String bookId, String memberId) {
+        Book known = MongoDBUtil.getSearchIndex().get(bookId);
+        if (known == null)
+            return -1;
+        int delta = type == BORROW ? -1 : 1;
+        int projected = known.getQuantity() + pendingDelta(bookId).get() + delta;
+        if (projected < 0)
+            return -1;
+        write(type, bookId, memberId);
+        return projected;
+    }
+
+    // Bytes one record takes, length and CRC included.
+    private static int recordSize(String bookId, String memberId) {
+        return 8 + 8 + 1 + 12 + 8 + 2 + bookId.getBytes(StandardCharsets.UTF_8).length
+                + 2 + (memberId == null ? "" : memberId).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // Appends the record, forces it to disk and queues it for replay. Caller holds the class lock.
+    private static void write(byte type, String bookId, String memberId) {
+        Operation operation = new Operation(nextSeq, type, new ObjectId(), new Date(), bookId, memberId);
+        byte[] book = bookId.getBytes(StandardCharsets.UTF_8);
+        byte[] member = (memberId == null ? "" : memberId).getBytes(StandardCharsets.UTF_8);
+        int payload = 8 + 1 + 12 + 8 + 2 + book.length + 2 + member.length;
+        ensureRoom(8 + payload + 4);
+
+        int start = writePosition;
+        map.position(start + 8);
+        map.putLong(operation.seq);
+        map.put(type);
+        map.put(operation.opId.toByteArray());
+        map.putLong(operation.at.getTime());
+        map.putShort((short) book.length);
+        map.put(book);
+        map.putShort((short) member.length);
+        map.put(member);
+        map.putInt(start + 4, crc(start + 8, payload));
+        map.putInt(start, payload);
+        writePosition = start + 8 + payload;
+        // A zero length marks the end of the log for the scan on open.
+        map.putInt(writePosition, 0);
+        map.force();
+
+        operation.end = writePosition;
+        nextSeq++;
+        queue(operation);
+    }
+
+    private static void queue(Operation operation) {
+        pendingDelta(operation.bookId).addAndGet(operation.type == BORROW ? -1 : 1);
+        unsynced.add(operation);
+        CirculationLog.class.notifyAll();
+    }
+
+    private static AtomicInteger pendingDelta(String bookId) {
+        return pendingDelta.computeIfAbsent(bookId, key -> new AtomicInteger());
+    }
+
+    // Rewinds when everything is synced, otherwise moves the unsynced tail to the front.
+    private static void ensureRoom(int needed) {
+        if (writePosition + needed <= CAPACITY)
+            return;
+        int tail = writePosition - firstUnsynced;
+        if (HEADER + tail + needed > CAPACITY)
+            throw new IllegalStateException("Circulation log is full: " + unsynced.size() + " operations not yet synced");
+        byte[] bytes = new byte[tail];
+        map.position(firstUnsynced);
+        map.get(bytes);
+        map.position(HEADER);
+        map.put(bytes);
+        int shift = firstUnsynced - HEADER;
+        for (Operation operation : unsynced) {
+            operation.end -= shift;
+        }
+        firstUnsynced = HEADER;
+        writePosition = HEADER + tail;
+        map.putInt(writePosition, 0);
+        map.force();
+    }
+
+    private static void replayLoop() {
+        long backoff = 100;
+        while (true) {
+            Operation operation;
+            synchronized (CirculationLog.class) {
+                while ((operation = unsynced.peekFirst()) == null) {
+                    try {
+                        CirculationLog.class.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+            Operation current = operation;
+            // Ordering: the next operation is not attempted until this one is resolved, which
+            // includes its loan journal event being stored; only then may the log drop it.
+            // A retry after the book update landed only retries the journal write.
+            Integer applied = null;
+            while (true) {
+                try {
+                    if (applied == null)
+                        applied = QueryMetrics.track(current.type == BORROW ? "replayBorrow" : "replayReturn",
+                                () -> current.type == BORROW
+                                        ? MongoDBUtil.borrowBook(current.bookId, current.opId)
+                                        : MongoDBUtil.returnBook(current.bookId, current.opId));
+                    int quantity = applied;
+                    if (quantity < 0) {
+                        String message = (operation.type == BORROW ? "Borrow" : "Return") + " of " + operation.bookId
+                                + " for member " + operation.memberId + " was rejected by the server";
+                        System.out.println("Circulation log: " + message);
+                        rejected.add(message);
+                    } else if (operation.type == BORROW) {
+                        LoanJournal.storeBorrowed(operation.memberId, operation.bookId, operation.opId, operation.at);
+                    } else {
+                        LoanJournal.storeReturned(operation.memberId, operation.bookId, operation.opId, operation.at);
+                    }
+                    backoff = 100;
+                    break;
+                } catch (Exception ex) {
+                    System.out.println("Circulation log: replay failed, retrying in " + backoff + " ms: " + ex.getMessage());
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                    backoff = Math.min(MAX_RETRY_MILLIS, backoff * 2);
+                }
+            }
+            synced(operation);
+        }
+    }
+
+    private static synchronized void synced(Operation operation) {
+        unsynced.pollFirst();
+        pendingDelta(operation.bookId).addAndGet(operation.type == BORROW ? 1 : -1);
+        map.putLong(SYNCED_SEQ_OFFSET, operation.seq);
+        firstUnsynced = operation.end;
+        if (unsynced.isEmpty()) {
+            writePosition = HEADER;
+            firstUnsynced = HEADER;
+            map.putInt(HEADER, 0);
+        }
+        map.force();
+    }
+
+    // Decodes the record at position, or null at the end of the log or a torn record.
+    private static Operation read(int position) {
+        if (position + 8 > CAPACITY)
+            return null;
+        int payload = map.getInt(position);
+        if (payload <= 0 || position + 8 + payload > CAPACITY)
+            return null;
+        if (map.getInt(position + 4) != crc(position + 8, payload))
+            return null;
+        map.position(position + 8);
+        long seq = map.getLong();
+        byte type = map.get();
+        byte[] id = new byte[12];
+        map.get(id);
+        Date at = new Date(map.getLong());
+        String bookId = readString();
+        String memberId = readString();
+        Operation operation = new Operation(seq, type, new ObjectId(id), at, bookId, memberId.isEmpty() ? null : memberId);
+        operation.end = position + 8 + payload;
+        return operation;
+    }
+
+    private static String readString() {
+        byte[] bytes = new byte[map.getShort() & 0xFFFF];
+        map.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(int position, int length) {
+        byte[] bytes = new byte[length];
+        map.position(position);
+        map.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
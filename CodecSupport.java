@@ -0,0 +1,49 @@
+package com.example.library;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+
+// Lenient field readers shared by the model codecs: older documents may store numbers
+// or strings with slightly different BSON types than the current code writes.
+final class CodecSupport {
+    private CodecSupport() {}
+
+    static String readAsString(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING:
+                return reader.readString();
+            case INT32:
+                return Integer.toString(reader.readInt32());
+            case INT64:
+                return Long.toString(reader.readInt64());
+            case OBJECT_ID:
+                return reader.readObjectId().toHexString();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static int readAsInt(BsonReader reader) {
+        BsonType type = reader.getCurrentBsonType();
+        switch (type) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null)
+            writer.writeString(name, value);
+        else
+            writer.writeNull(name);
+    }
+}
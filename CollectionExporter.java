@@ -0,0 +1,232 @@
+package com.example.library;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+// Streams a collection (books, members, staff or admins) to CSV or NDJSON, optionally
+// gzipped. Documents are read as RawBsonDocument straight off the cursor and written one
+// at a time, so memory stays at one cursor batch regardless of collection size.
+//
+// With more than one partition the _id space is split at sampled boundaries and each
+// range is exported to its own part file on its own thread.
+//
+// Usage: CollectionExporter <collection> <output> [csv|ndjson] [--gzip] [--partitions=N]
+//        [--batch=N] [--fields=a,b,c]
+public class CollectionExporter {
+    public enum Format { CSV, NDJSON }
+
+    // Passwords are left out unless explicitly requested with --fields.
+    private static final Map<String, List<String>> DEFAULT_FIELDS = new HashMap<>();
+
+    static {
+        DEFAULT_FIELDS.put("books", Arrays.asList("bookId", "title", "author", "publishedDate", "quantity"));
+        DEFAULT_FIELDS.put("members", Arrays.asList("memberId", "name", "membershipNumber"));
+        DEFAULT_FIELDS.put("staff", Arrays.asList("staffId", "username"));
+        DEFAULT_FIELDS.put("admins", Arrays.asList("adminId", "username"));
+    }
+
+    private final String collectionName;
+    private final Path output;
+    private final Format format;
+    private final boolean gzip;
+    private final int partitions;
+    private final int batchSize;
+    private final List<String> fields;
+
+    public CollectionExporter(String collectionName, Path output, Format format, boolean gzip,
+                              int partitions, int batchSize, List<String> fields) {
+        if (!DEFAULT_FIELDS.containsKey(collectionName))
+            throw new IllegalArgumentException("Unknown collection: " + collectionName);
+        this.collectionName = collectionName;
+        this.output = output;
+        this.format = format;
+        this.gzip = gzip;
+        this.partitions = Math.max(1, partitions);
+        this.batchSize = batchSize;
+        this.fields = fields != null ? fields : DEFAULT_FIELDS.get(collectionName);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: CollectionExporter <books|members|staff|admins> <output> [csv|ndjson]"
+                    + " [--gzip] [--partitions=N] [--batch=N] [--fields=a,b,c]");
+            return;
+        }
+        Format format = Format.NDJSON;
+        boolean gzip = false;
+        int partitions = 1;
+        int batchSize = 1000;
+        List<String> fields = null;
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equalsIgnoreCase("csv") || arg.equalsIgnoreCase("ndjson"))
+                format = Format.valueOf(arg.toUpperCase());
+            else if (arg.equals("--gzip"))
+                gzip = true;
+            else if (arg.startsWith("--partitions="))
+                partitions = Integer.parseInt(arg.substring("--partitions=".length()));
+            else if (arg.startsWith("--batch="))
+                batchSize = Integer.parseInt(arg.substring("--batch=".length()));
+            else if (arg.startsWith("--fields="))
+                fields = Arrays.asList(arg.substring("--fields=".length()).split(","));
+            else
+                throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+        new CollectionExporter(args[0], Paths.get(args[1]), format, gzip, partitions, batchSize, fields).run();
+    }
+
+    public long run() throws Exception {
+        MongoCollection<RawBsonDocument> collection = MongoDBUtil.getDatabase()
+                .getCollection(collectionName, RawBsonDocument.class);
+        long start = System.nanoTime();
+        long total;
+        if (partitions == 1) {
+            total = export(collection, new Document(), output);
+        } else {
+            List<Bson> ranges = partitionRanges(collection);
+            ExecutorService pool = Executors.newFixedThreadPool(ranges.size());
+            try {
+                List<Future<Long>> parts = new ArrayList<>();
+                for (int i = 0; i < ranges.size(); i++) {
+                    Bson range = ranges.get(i);
+                    Path part = Paths.get(output + ".part-" + i);
+                    parts.add(pool.submit(() -> export(collection, range, part)));
+                }
+                total = 0;
+                for (Future<Long> part : parts) {
+                    total += part.get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        System.out.printf("Exported %d %s documents in %.1f s (%.0f docs/s)%n",
+                total, collectionName, seconds, total / seconds);
+        return total;
+    }
+
+    // Splits the _id space into ranges of roughly equal size from a random sample of ids.
+    private List<Bson> partitionRanges(MongoCollection<RawBsonDocument> collection) {
+        List<Document> pipeline = Arrays.asList(
+                new Document("$sample", new Document("size", partitions * 64)),
+                new Document("$project", new Document("_id", 1)),
+                new Document("$sort", new Document("_id", 1)));
+        List<BsonValue> sample = new ArrayList<>();
+        for (RawBsonDocument doc : collection.aggregate(pipeline)) {
+            sample.add(doc.get("_id"));
+        }
+        List<BsonValue> bounds = new ArrayList<>();
+        for (int i = 1; i < partitions && !sample.isEmpty(); i++) {
+            BsonValue bound = sample.get(i * sample.size() / partitions);
+            if (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(bound))
+                bounds.add(bound);
+        }
+        List<Bson> ranges = new ArrayList<>();
+        BsonValue lower = null;
+        for (BsonValue upper : bounds) {
+            ranges.add(lower == null ? Filters.lt("_id", upper)
+                    : Filters.and(Filters.gte("_id", lower), Filters.lt("_id", upper)));
+            lower = upper;
+        }
+        ranges.add(lower == null ? new Document() : Filters.gte("_id", lower));
+        return ranges;
+    }
+
+    private long export(MongoCollection<RawBsonDocument> collection, Bson filter, Path file) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        long count = 0;
+        try (Writer writer = open(file)) {
+            if (format == Format.CSV) {
+                writer.write(String.join(",", fields));
+                writer.write('\n');
+            }
+            Bson projection = format == Format.CSV || fields.contains("_id")
+                    ? Projections.include(fields)
+                    : Projections.fields(Projections.include(fields), Projections.excludeId());
+            for (RawBsonDocument doc : collection.find(filter)
+                    .projection(projection)
+                    .sort(Sorts.ascending("_id"))
+                    .batchSize(batchSize)) {
+                if (format == Format.NDJSON)
+                    writer.write(doc.toJson());
+                else
+                    writeCsvRow(writer, doc, dateFormat);
+                writer.write('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Writer open(Path file) throws IOException {
+        Path target = gzip ? Paths.get(file + ".gz") : file;
+        OutputStream out = Files.newOutputStream(target);
+        if (gzip)
+            out = new GZIPOutputStream(out, 1 << 16);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    // Same layout CatalogImporter reads: dates as yyyy-MM-dd, fields quoted only when needed.
+    private void writeCsvRow(Writer writer, BsonDocument doc, SimpleDateFormat dateFormat) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0)
+                writer.write(',');
+            BsonValue value = doc.get(fields.get(i));
+            if (value == null || value.isNull())
+                continue;
+            String text;
+            if (value.isString())
+                text = value.asString().getValue();
+            else if (value.isDateTime())
+                text = dateFormat.format(new Date(value.asDateTime().getValue()));
+            else if (value.isInt32())
+                text = Integer.toString(value.asInt32().getValue());
+            else if (value.isInt64())
+                text = Long.toString(value.asInt64().getValue());
+            else if (value.isDouble())
+                text = Double.toString(value.asDouble().getValue());
+            else if (value.isObjectId())
+                text = value.asObjectId().getValue().toHexString();
+            else if (value.isBoolean())
+                text = Boolean.toString(value.asBoolean().getValue());
+            else
+                text = value.toString();
+            writer.write(csvEscape(text));
+        }
+    }
+
+    private static String csvEscape(String text) {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+            return text;
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.library;
+
+// Approximate set of strings with deletion: 16-bit fingerprints in buckets of four slots,
+// each key having two candidate buckets (partial-key cuckoo hashing). A negative answer is
+// exact; a positive one is wrong with probability about 8 / 65536 at full load. Removing a
+// key that was never added can drop another key's fingerprint, so callers only remove keys
+// they know were stored.
+//
+// When an insert can't find room after MAX_KICKS displacements the homeless fingerprint is
+// kept aside; if that happens a second time the filter is saturated and answers "maybe"
+// for everything until it is rebuilt larger.
+public class CuckooFilter {
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_KICKS = 500;
+    private static final double MAX_LOAD = 0.95;
+
+    private final short[] slots;
+    private final int bucketMask;
+    private int count;
+    private short victim;
+    private int victimBucket;
+    private boolean saturated;
+    private long random = 0x9E3779B97F4A7C15L;
+
+    public CuckooFilter(long capacity) {
+        long buckets = Long.highestOneBit(Math.max(1, (long) Math.ceil(capacity / (BUCKET_SIZE * MAX_LOAD))) * 2 - 1);
+        if (buckets * BUCKET_SIZE > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Capacity too large: " + capacity);
+        slots = new short[(int) buckets * BUCKET_SIZE];
+        bucketMask = (int) buckets - 1;
+    }
+
+    public synchronized void add(String key) {
+        if (saturated)
+            return;
+        long hash = hash(key);
+        short fingerprint = fingerprint(hash);
+        int bucket = (int) hash & bucketMask;
+        if (insert(bucket, fingerprint) || insert(alternate(bucket, fingerprint), fingerprint)) {
+            count++;
+            return;
+        }
+        // Both buckets full: evict a random resident and move it to its other bucket.
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int slot = bucket * BUCKET_SIZE + (int) (nextRandom() & (BUCKET_SIZE - 1));
+            short evicted = slots[slot];
+            slots[slot] = fingerprint;
+            fingerprint = evicted;
+            bucket = alternate(bucket, fingerprint);
+            if (insert(bucket, fingerprint)) {
+                count++;
+                return;
+            }
+        }
+        if (victim == 0) {
+            victim = fingerprint;
+            victimBucket = bucket;
+            count++;
+        } else {
+            saturated = true;
+        }
+    }
+
+    public synchronized boolean mightContain(String key) {
+        if (saturated)
+            return true;
+        long hash = hash(key);
+        short fingerprint = fingerprint(hash);
+        int bucket = (int) hash & bucketMask;
+        int other = alternate(bucket, fingerprint);
+        if (victim == fingerprint && (victimBucket == bucket || victimBucket == other))
+            return true;
+        return find(bucket, fingerprint) >= 0 || find(other, fingerprint) >= 0;
+    }
+
+    public synchronized boolean remove(String key) {
+        if (saturated)
+            return false;
+        long hash = hash(key);
+        short fingerprint = fingerprint(hash);
+        int bucket = (int) hash & bucketMask;
+        int other = alternate(bucket, fingerprint);
+        if (victim == fingerprint && (victimBucket == bucket || victimBucket == other)) {
+            victim = 0;
+            count--;
+            return true;
+        }
+        int slot = find(bucket, fingerprint);
+        if (slot < 0)
+            slot = find(other, fingerprint);
+        if (slot < 0)
+            return false;
+        slots[slot] = 0;
+        count--;
+        // A freed slot may take the stashed fingerprint back.
+        if (victim != 0 && insert(victimBucket, victim))
+            victim = 0;
+        return true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    public long memoryBytes() {
+        return (long) slots.length * Short.BYTES;
+    }
+
+    // Chance that a key never added is reported present at the current load: each lookup
+    // compares against up to 2 * BUCKET_SIZE fingerprints of 16 bits.
+    public synchronized double expectedFalsePositiveRate() {
+        if (saturated)
+            return 1.0;
+        double load = (double) count / slots.length;
+        return 1 - Math.pow(1 - 1.0 / 65535, 2.0 * BUCKET_SIZE * load);
+    }
+
+    private boolean insert(int bucket, short fingerprint) {
+        int base = bucket * BUCKET_SIZE;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            if (slots[i] == 0) {
+                slots[i] = fingerprint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int find(int bucket, short fingerprint) {
+        int base = bucket * BUCKET_SIZE;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            if (slots[i] == fingerprint)
+                return i;
+        }
+        return -1;
+    }
+
+    // The other bucket depends only on this one and the fingerprint, so an evicted
+    // fingerprint can be moved without the original key.
+    private int alternate(int bucket, short fingerprint) {
+        return (bucket ^ (int) mix(fingerprint & 0xFFFF)) & bucketMask;
+    }
+
+    // 0 marks an empty slot, so fingerprints run from 1 to 65535.
+    private static short fingerprint(long hash) {
+        int fingerprint = (int) (hash >>> 48) % 65535 + 1;
+        return (short) fingerprint;
+    }
+
+    // FNV-1a over the chars, then a 64-bit finalizer so the bucket index and fingerprint
+    // bits are independent.
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private long nextRandom() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return random;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.library;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Duplicate pre-check for one identifier space (bookId, memberId, membershipNumber, ...).
+// A cuckoo filter holds every ID in the collection, streamed in once at startup and kept
+// current by the write paths, so most inserts learn "definitely new" without a query; only
+// a possible match is looked up in the database. Until the load finishes, or if the filter
+// saturates, every check goes to the database.
+//
+// Another desk's inserts only reach this filter through the change stream (books) or not at
+// all (accounts), so the unique indexes remain the final word on duplicates.
+//
+// An ID removed while the load runs may not be in the filter yet, and removing an ID that was
+// never stored can drop another ID's fingerprint. Those removals are held back: the scan
+// skips the IDs, and one it had already streamed in stays behind as a false positive (a
+// database lookup) rather than risking a false "definitely new".
+//
+// Capacity is twice the collection size at startup, at least library.idfilter.capacity
+// (default 65536).
+public class IdFilter {
+    private static final long MIN_CAPACITY = Long.getLong("library.idfilter.capacity", 1 << 16);
+
+    public static final IdFilter BOOK_IDS = new IdFilter("books", "bookId");
+    public static final IdFilter MEMBER_IDS = new IdFilter("members", "memberId");
+    public static final IdFilter MEMBERSHIP_NUMBERS = new IdFilter("members", "membershipNumber");
+    public static final IdFilter STAFF_IDS = new IdFilter("staff", "staffId");
+    public static final IdFilter ADMIN_IDS = new IdFilter("admins", "adminId");
+
+    private final String collection;
+    private final String field;
+    private volatile CuckooFilter filter = new CuckooFilter(MIN_CAPACITY);
+    private volatile boolean ready;
+    // While load() runs: IDs removed, and IDs the write paths added (so known to be stored).
+    // Null otherwise; guarded by this.
+    private Set<String> removedWhileLoading;
+    private Set<String> addedWhileLoading;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder definitelyNew = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private IdFilter(String collection, String field) {
+        this.collection = collection;
+        this.field = field;
+    }
+
+    public static List<IdFilter> all() {
+        return Arrays.asList(BOOK_IDS, MEMBER_IDS, MEMBERSHIP_NUMBERS, STAFF_IDS, ADMIN_IDS);
+    }
+
+    // Streams every identifier space in; IDs inserted meanwhile go into the new filter as well.
+    public static void loadAll() {
+        for (IdFilter idFilter : all()) {
+            long start = System.nanoTime();
+            idFilter.load(MongoDBUtil.countDocuments(idFilter.collection),
+                    sink -> MongoDBUtil.forEachValue(idFilter.collection, idFilter.field, sink));
+            System.out.println("ID filter loaded: " + idFilter.stats() + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    void load(long expected, Consumer<Consumer<String>> source) {
+        CuckooFilter loaded = new CuckooFilter(Math.max(MIN_CAPACITY, expected * 2));
+        synchronized (this) {
+            ready = false;
+            removedWhileLoading = new HashSet<>();
+            addedWhileLoading = new HashSet<>();
+            filter = loaded;
+        }
+        source.accept(id -> {
+            synchronized (this) {
+                if (!removedWhileLoading.contains(id))
+                    loaded.add(id);
+            }
+        });
+        synchronized (this) {
+            removedWhileLoading = null;
+            addedWhileLoading = null;
+            ready = true;
+        }
+    }
+
+    public String getName() {
+        return collection + "." + field;
+    }
+
+    public void add(String id) {
+        if (id == null || id.isEmpty())
+            return;
+        if (ready) {
+            filter.add(id);
+            return;
+        }
+        synchronized (this) {
+            if (addedWhileLoading != null) {
+                removedWhileLoading.remove(id);
+                addedWhileLoading.add(id);
+            }
+            filter.add(id);
+        }
+    }
+
+    // Only for IDs that were actually stored (see CuckooFilter).
+    public void remove(String id) {
+        if (id == null || id.isEmpty())
+            return;
+        if (ready) {
+            filter.remove(id);
+            return;
+        }
+        synchronized (this) {
+            if (removedWhileLoading == null || addedWhileLoading.remove(id))
+                filter.remove(id);
+            else
+                removedWhileLoading.add(id);
+        }
+    }
+
+    // True if id is already taken. existsInDatabase runs only when the filter can't rule it out.
+    public boolean isDuplicate(String id, Predicate<String> existsInDatabase) {
+        if (id == null || id.isEmpty())
+            return false;
+        checks.increment();
+        if (ready && !filter.mightContain(id)) {
+            definitelyNew.increment();
+            return false;
+        }
+        if (existsInDatabase.test(id)) {
+            duplicates.increment();
+            return true;
+        }
+        if (ready)
+            falsePositives.increment();
+        return false;
+    }
+
+    // Share of new IDs the filter failed to rule out.
+    public double observedFalsePositiveRate() {
+        long absent = definitelyNew.sum() + falsePositives.sum();
+        return absent == 0 ? 0 : (double) falsePositives.sum() / absent;
+    }
+
+    public String stats() {
+        CuckooFilter current = filter;
+        return String.format("%s: ids=%d memory=%.1fKB expectedFP=%.4f%% observedFP=%.4f%% checks=%d dbLookups=%d duplicates=%d%s",
+                getName(), current.size(), current.memoryBytes() / 1024.0,
+                current.expectedFalsePositiveRate() * 100, observedFalsePositiveRate() * 100,
+                checks.sum(), checks.sum() - definitelyNew.sum(), duplicates.sum(),
+                !ready ? " (loading)" : current.isSaturated() ? " (saturated)" : "");
+    }
+}
@@ -0,0 +1,794 @@
+package com.example.library;
+
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Embedded catalog engine. Books live in slots; every sort order is a plain int[] of slots
+// kept sorted by (sort key, insertion sequence), the in-memory counterpart of the
+// (field, _id) indexes, so keyset pages are a binary search plus a short scan. IDs map to
+// slots through an open-addressing String->int table and stock totals are kept as running
+// counters. Readers share a read lock; writes take the write lock and shift the affected
+// order arrays in place. A bulk load (insertAll) appends instead and merges each order once.
+//
+// Stored books are never mutated: a write replaces the slot's Book, so a reader holding a
+// returned Book keeps a consistent copy.
+public class InMemoryBookRepository implements BookRepository {
+    private static final BookSort[] SORTS = BookSort.values();
+    private static final Predicate<Book> ALL = book -> true;
+    private static final Predicate<Book> AVAILABLE = book -> book.getQuantity() > 0;
+    // The sort orders as the query planner sees them, in SORTS order.
+    private static final List<BookQueryPlanner.Index> ORDER_INDEXES = new ArrayList<>();
+
+    static {
+        for (BookSort sort : SORTS) {
+            ORDER_INDEXES.add(sort == BookSort.NATURAL
+                    ? new BookQueryPlanner.Index("natural_order", false, "_id")
+                    : new BookQueryPlanner.Index(sort.getField() + "_order", false, sort.getField(), "_id"));
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final SlotMap slotById = new SlotMap();
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    // Books handed to forEach per read lock hold.
+    private static final int FOREACH_CHUNK = 1024;
+    private final AtomicLong version = new AtomicLong();
+
+    private Book[] books = new Book[64];
+    private String[] keys = new String[64];
+    private long[] seqs = new long[64];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private final int[][] orders = new int[SORTS.length][64];
+    private int size;
+    private long nextSeq;
+
+    private long totalCopies;
+    private long outOfStock;
+
+    @Override
+    public void insert(Book book) {
+        Book stored = copy(book, book.getQuantity());
+        lock.writeLock().lock();
+        try {
+            String key = keyOf(stored);
+            if (slotById.get(key) >= 0)
+                throw new IllegalStateException("Duplicate bookId: " + key);
+            int slot = store(key, stored);
+            for (BookSort sort : SORTS) {
+                insertOrder(sort, slot, size);
+            }
+            size++;
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Bulk load, e.g. from a snapshot: O(n log n) for the batch rather than a shift of every
+    // order array per book. Each order gets the new slots appended, sorted, and merged with
+    // what it already held. Nothing is stored if an ID is taken or repeated.
+    public void insertAll(List<Book> batch) {
+        List<Book> stored = new ArrayList<>(batch.size());
+        for (Book book : batch) {
+            stored.add(copy(book, book.getQuantity()));
+        }
+        lock.writeLock().lock();
+        try {
+            Set<String> seen = new HashSet<>();
+            for (Book book : stored) {
+                String key = book.getId();
+                if (key != null && !key.isEmpty() && (slotById.get(key) >= 0 || !seen.add(key)))
+                    throw new IllegalStateException("Duplicate bookId: " + key);
+            }
+            Integer[] added = new Integer[stored.size()];
+            for (int i = 0; i < added.length; i++) {
+                Book book = stored.get(i);
+                added[i] = store(keyOf(book), book);
+            }
+            for (BookSort sort : SORTS) {
+                mergeOrder(sort, added);
+            }
+            size += added.length;
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(String bookId, Document updateFields) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotById.get(bookId);
+            if (slot < 0)
+                return;
+            Book old = books[slot];
+            Book updated = copy(old, updateFields.containsKey("quantity")
+                    ? ((Number) updateFields.get("quantity")).intValue() : old.getQuantity());
+            if (updateFields.containsKey("title"))
+                updated.setTitle(updateFields.getString("title"));
+            if (updateFields.containsKey("author"))
+                updated.setAuthor(updateFields.getString("author"));
+            if (updateFields.containsKey("publishedDate"))
+                updated.setPublishedDate(updateFields.getDate("publishedDate"));
+            replace(slot, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String bookId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotById.get(bookId);
+            if (slot < 0)
+                return;
+            for (BookSort sort : SORTS) {
+                removeOrder(sort, slot, size);
+            }
+            size--;
+            count(books[slot], -1);
+            slotById.remove(bookId);
+            searchIndex.remove(keys[slot]);
+            books[slot] = null;
+            keys[slot] = null;
+            if (freeCount == freeSlots.length)
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            freeSlots[freeCount++] = slot;
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Book findById(String bookId) {
+        lock.readLock().lock();
+        try {
+            int slot = slotById.get(bookId);
+            return slot < 0 ? null : books[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findAll() {
+        lock.readLock().lock();
+        try {
+            int[] order = orders[BookSort.NATURAL.ordinal()];
+            List<Book> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(books[order[i]]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Walks the natural order FOREACH_CHUNK books per read lock hold, resuming after the last
+    // sequence handed out, so the catalog isn't copied and a slow consumer doesn't hold off
+    // writers. Books inserted during the walk come at the end and are included.
+    @Override
+    public void forEach(Consumer<Book> action) {
+        Book[] chunk = new Book[FOREACH_CHUNK];
+        Book probe = new Book();
+        long after = -1;
+        while (true) {
+            int count = 0;
+            lock.readLock().lock();
+            try {
+                int[] order = orders[BookSort.NATURAL.ordinal()];
+                for (int i = upperBound(BookSort.NATURAL, probe, after, size); i < size && count < chunk.length; i++) {
+                    chunk[count++] = books[order[i]];
+                    after = seqs[order[i]];
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < count; i++) {
+                action.accept(chunk[i]);
+                chunk[i] = null;
+            }
+            if (count < chunk.length)
+                return;
+        }
+    }
+
+    @Override
+    public List<Book> search(String pattern, int limit) {
+        return searchIndex.search(pattern, limit);
+    }
+
+    @Override
+    public CatalogView searchView(String pattern, String cursor, boolean backward, int limit) {
+        return searchIndex.searchView(pattern, cursor, backward, limit);
+    }
+
+    @Override
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return searchIndex.suggest(prefix, limit);
+    }
+
+    @Override
+    public BookPage findPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit, boolean availableOnly) {
+        return findPage(sort, ascending, cursor, backward, limit, availableOnly ? AVAILABLE : ALL);
+    }
+
+    // Same prefix semantics as the MongoDB view; counting the matches is one pass over the catalog.
+    @Override
+    public CatalogView findView(String search, BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        lock.readLock().lock();
+        try {
+            if (search == null || search.isEmpty())
+                return new CatalogView(findPage(sort, ascending, cursor, backward, limit, ALL), stats());
+            Predicate<Book> matches = book -> startsWithIgnoreCase(book.getTitle(), search)
+                    || startsWithIgnoreCase(book.getAuthor(), search);
+            long titles = 0;
+            long copies = 0;
+            long empty = 0;
+            int[] order = orders[BookSort.NATURAL.ordinal()];
+            for (int i = 0; i < size; i++) {
+                Book book = books[order[i]];
+                if (matches.test(book)) {
+                    titles++;
+                    copies += book.getQuantity();
+                    if (book.getQuantity() <= 0)
+                        empty++;
+                }
+            }
+            return new CatalogView(findPage(sort, ascending, cursor, backward, limit, matches),
+                    new CatalogStats(copies, titles, empty));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BookPage findPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit, Predicate<Book> filter) {
+        boolean scanAscending = ascending != backward;
+        lock.readLock().lock();
+        try {
+            int start;
+            if (cursor == null) {
+                start = scanAscending ? 0 : size - 1;
+            } else {
+                Book probe = new Book();
+                long probeSeq = decodeCursor(sort, cursor, probe);
+                start = scanAscending ? upperBound(sort, probe, probeSeq, size)
+                        : lowerBound(sort, probe, probeSeq, size) - 1;
+            }
+            List<Integer> slots = scan(sort, start, scanAscending, 0, limit + 1, filter);
+            BookPage page = toPage(sort, slots, cursor, backward, limit);
+            // Fewer than a page left before the cursor: show a full first page instead.
+            return page != null ? page : findPage(sort, ascending, null, false, limit, filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Plans over the sort orders like MongoDB over its indexes. A range on the order's leading
+    // key (publication dates, availability) narrows the scan to a binary-searched slice; the
+    // other criteria are checked per book. Author and title criteria never bound a scan here,
+    // since the orders compare strings case-sensitively and the criteria don't.
+    @Override
+    public BookQueryResult query(BookQuery query) {
+        BookQueryPlan plan = BookQueryPlanner.plan(query, ORDER_INDEXES);
+        BookSort order = SORTS[0];
+        for (int i = 0; i < SORTS.length; i++) {
+            if (ORDER_INDEXES.get(i).getName().equals(plan.getIndex()))
+                order = SORTS[i];
+        }
+        BookSort sort = query.getSort();
+        String cursor = query.getCursor();
+        boolean scanAscending = query.isAscending() != query.isBackward();
+        lock.readLock().lock();
+        try {
+            int from = 0;
+            int to = size;
+            Book probe = new Book();
+            if (plan.getBounds().contains("publishedDate")) {
+                if (query.getPublishedFrom() != null) {
+                    probe.setPublishedDate(query.getPublishedFrom());
+                    from = lowerBound(order, probe, Long.MIN_VALUE, size);
+                }
+                if (query.getPublishedBefore() != null) {
+                    probe.setPublishedDate(query.getPublishedBefore());
+                    to = lowerBound(order, probe, Long.MIN_VALUE, size);
+                }
+            } else if (plan.getBounds().contains("quantity")) {
+                probe.setQuantity(1);
+                from = lowerBound(order, probe, Long.MIN_VALUE, size);
+            }
+
+            Book cursorProbe = new Book();
+            long cursorSeq = cursor == null ? 0 : decodeCursor(sort, cursor, cursorProbe);
+            List<Integer> slots;
+            if (plan.isSortedByIndex()) {
+                int start = scanAscending ? from : to - 1;
+                if (cursor != null) {
+                    start = scanAscending ? Math.max(from, upperBound(sort, cursorProbe, cursorSeq, size))
+                            : Math.min(to, lowerBound(sort, cursorProbe, cursorSeq, size)) - 1;
+                }
+                slots = scan(sort, start, scanAscending, from, to, 0, query.getLimit() + 1, query::matches);
+            } else {
+                // Every match in the slice, then sorted; only the rows past the cursor are kept.
+                slots = new ArrayList<>();
+                int[] slice = orders[order.ordinal()];
+                for (int i = from; i < to; i++) {
+                    int slot = slice[i];
+                    if (!query.matches(books[slot]))
+                        continue;
+                    int side = cursor == null ? 0 : compare(sort, slot, cursorProbe, cursorSeq);
+                    if (cursor == null || (scanAscending ? side > 0 : side < 0))
+                        slots.add(slot);
+                }
+                slots.sort((a, b) -> {
+                    int result = compareKeys(sort, books[a], books[b]);
+                    result = result != 0 ? result : Long.compare(seqs[a], seqs[b]);
+                    return scanAscending ? result : -result;
+                });
+                if (slots.size() > query.getLimit() + 1)
+                    slots = new ArrayList<>(slots.subList(0, query.getLimit() + 1));
+            }
+            BookPage page = toPage(sort, slots, cursor, query.isBackward(), query.getLimit());
+            if (page == null)
+                return query(query.copy().page(null, false));
+            return new BookQueryResult(page, plan);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BookPage findPageAt(BookSort sort, boolean ascending, int offset, int limit, boolean availableOnly) {
+        lock.readLock().lock();
+        try {
+            List<Integer> slots = scan(sort, ascending ? 0 : size - 1, ascending, offset, limit + 1, availableOnly ? AVAILABLE : ALL);
+            boolean more = slots.size() > limit;
+            if (more)
+                slots.remove(limit);
+            return toPage(sort, slots, offset > 0, more);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int borrow(String bookId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotById.get(bookId);
+            if (slot < 0 || books[slot].getQuantity() <= 0)
+                return -1;
+            int quantity = books[slot].getQuantity() - 1;
+            replace(slot, copy(books[slot], quantity));
+            return quantity;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int returnBook(String bookId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotById.get(bookId);
+            if (slot < 0)
+                return -1;
+            int quantity = books[slot].getQuantity() + 1;
+            replace(slot, copy(books[slot], quantity));
+            return quantity;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Same semantics as the MongoDB batch: each distinct ID is all-or-nothing for the
+    // number of copies requested, results in first-seen order.
+    @Override
+    public List<BorrowResult> borrowAll(List<String> bookIds) {
+        Map<String, Integer> copies = new LinkedHashMap<>();
+        for (String bookId : bookIds) {
+            copies.merge(bookId, 1, Integer::sum);
+        }
+        List<BorrowResult> results = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : copies.entrySet()) {
+                int slot = slotById.get(entry.getKey());
+                if (slot < 0) {
+                    results.add(new BorrowResult(entry.getKey(), entry.getValue(), BorrowResult.Status.NOT_FOUND, 0));
+                    continue;
+                }
+                int quantity = books[slot].getQuantity();
+                if (quantity < entry.getValue()) {
+                    results.add(new BorrowResult(entry.getKey(), entry.getValue(), BorrowResult.Status.OUT_OF_STOCK, quantity));
+                    continue;
+                }
+                replace(slot, copy(books[slot], quantity - entry.getValue()));
+                results.add(new BorrowResult(entry.getKey(), entry.getValue(), BorrowResult.Status.BORROWED,
+                        quantity - entry.getValue()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return results;
+    }
+
+    @Override
+    public CatalogStats stats() {
+        lock.readLock().lock();
+        try {
+            return new CatalogStats(totalCopies, size, outOfStock);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bumped on every write; the snapshot writer uses it to skip unchanged state.
+    public long version() {
+        return version.get();
+    }
+
+    // ------------------- STORAGE ---------------------
+
+    // Swaps in a new version of the book, re-sorting only the orders whose key changed.
+    private void replace(int slot, Book updated) {
+        Book old = books[slot];
+        boolean[] moved = new boolean[SORTS.length];
+        for (BookSort sort : SORTS) {
+            if (sort != BookSort.NATURAL && compareKeys(sort, old, updated) != 0) {
+                moved[sort.ordinal()] = true;
+                removeOrder(sort, slot, size);
+            }
+        }
+        count(old, -1);
+        books[slot] = updated;
+        count(updated, 1);
+        for (BookSort sort : SORTS) {
+            if (moved[sort.ordinal()])
+                insertOrder(sort, slot, size - 1);
+        }
+        searchIndex.put(keys[slot], updated);
+        version.incrementAndGet();
+    }
+
+    private void count(Book book, int sign) {
+        totalCopies += sign * (long) book.getQuantity();
+        if (book.getQuantity() <= 0)
+            outOfStock += sign;
+    }
+
+    // The book's ID, or a generated one for a book stored without.
+    private String keyOf(Book stored) {
+        String key = stored.getId();
+        if (key == null || key.isEmpty()) {
+            key = "#" + nextSeq;
+            stored.setDocumentId(key);
+        }
+        return key;
+    }
+
+    // Puts the book in a slot and indexes it by ID; the caller places it in the orders.
+    private int store(String key, Book stored) {
+        int slot = allocateSlot();
+        books[slot] = stored;
+        keys[slot] = key;
+        seqs[slot] = nextSeq++;
+        slotById.put(key, slot);
+        count(stored, 1);
+        searchIndex.put(key, stored);
+        return slot;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0)
+            return freeSlots[--freeCount];
+        if (slotCount == books.length) {
+            int capacity = slotCount * 2;
+            books = Arrays.copyOf(books, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            seqs = Arrays.copyOf(seqs, capacity);
+        }
+        return slotCount++;
+    }
+
+    // Inserts slot into an order currently holding `length` entries.
+    private void insertOrder(BookSort sort, int slot, int length) {
+        int[] order = orders[sort.ordinal()];
+        if (length == order.length)
+            order = orders[sort.ordinal()] = Arrays.copyOf(order, length * 2);
+        int pos = upperBound(sort, books[slot], seqs[slot], length);
+        System.arraycopy(order, pos, order, pos + 1, length - pos);
+        order[pos] = slot;
+    }
+
+    // Sorts the new slots and merges them with the `size` entries the order holds.
+    private void mergeOrder(BookSort sort, Integer[] added) {
+        Arrays.sort(added, (a, b) -> compare(sort, a, books[b], seqs[b]));
+        int[] order = orders[sort.ordinal()];
+        int[] merged = new int[Math.max(order.length, Integer.highestOneBit(size + added.length) * 2)];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size && j < added.length) {
+            merged[k++] = compare(sort, order[i], books[added[j]], seqs[added[j]]) <= 0 ? order[i++] : added[j++];
+        }
+        while (i < size) {
+            merged[k++] = order[i++];
+        }
+        while (j < added.length) {
+            merged[k++] = added[j++];
+        }
+        orders[sort.ordinal()] = merged;
+    }
+
+    // Must run while books[slot] still holds the value the slot was sorted by.
+    private void removeOrder(BookSort sort, int slot, int length) {
+        int[] order = orders[sort.ordinal()];
+        int pos = lowerBound(sort, books[slot], seqs[slot], length);
+        System.arraycopy(order, pos + 1, order, pos, length - pos - 1);
+    }
+
+    // First position whose entry sorts at or after (probe, seq).
+    private int lowerBound(BookSort sort, Book probe, long seq, int length) {
+        int[] order = orders[sort.ordinal()];
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(sort, order[mid], probe, seq) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // First position whose entry sorts strictly after (probe, seq).
+    private int upperBound(BookSort sort, Book probe, long seq, int length) {
+        int[] order = orders[sort.ordinal()];
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(sort, order[mid], probe, seq) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // Walks the order from start, skipping the first `skip` matches and collecting up to `max` slots.
+    private List<Integer> scan(BookSort sort, int start, boolean forward, int skip, int max, Predicate<Book> filter) {
+        return scan(sort, start, forward, 0, size, skip, max, filter);
+    }
+
+    // Same, within positions [from, to) of the order.
+    private List<Integer> scan(BookSort sort, int start, boolean forward, int from, int to, int skip, int max, Predicate<Book> filter) {
+        int[] order = orders[sort.ordinal()];
+        List<Integer> slots = new ArrayList<>(Math.min(max, size));
+        int step = forward ? 1 : -1;
+        for (int i = start; i >= from && i < to && slots.size() < max; i += step) {
+            int slot = order[i];
+            if (!filter.test(books[slot]))
+                continue;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            slots.add(slot);
+        }
+        return slots;
+    }
+
+    // Turns up to limit + 1 slots in scan order into a page, or null when a backward page
+    // came up short and the caller should load the first page.
+    private BookPage toPage(BookSort sort, List<Integer> slots, String cursor, boolean backward, int limit) {
+        boolean more = slots.size() > limit;
+        if (more)
+            slots.remove(limit);
+        if (backward) {
+            if (!more)
+                return null;
+            Collections.reverse(slots);
+        }
+        boolean hasPrevious = backward ? more : cursor != null;
+        boolean hasNext = backward || more;
+        return toPage(sort, slots, hasPrevious, hasNext);
+    }
+
+    private BookPage toPage(BookSort sort, List<Integer> slots, boolean hasPrevious, boolean hasNext) {
+        List<Book> page = new ArrayList<>(slots.size());
+        for (int slot : slots) {
+            page.add(books[slot]);
+        }
+        String firstCursor = slots.isEmpty() ? null : encodeCursor(sort, slots.get(0));
+        String lastCursor = slots.isEmpty() ? null : encodeCursor(sort, slots.get(slots.size() - 1));
+        return new BookPage(page, firstCursor, lastCursor, hasPrevious, hasNext);
+    }
+
+    private int compare(BookSort sort, int slot, Book probe, long seq) {
+        int result = compareKeys(sort, books[slot], probe);
+        return result != 0 ? result : Long.compare(seqs[slot], seq);
+    }
+
+    // Nulls sort first, as they do in MongoDB.
+    private static int compareKeys(BookSort sort, Book a, Book b) {
+        switch (sort) {
+            case TITLE:
+                return compareStrings(a.getTitle(), b.getTitle());
+            case AUTHOR:
+                return compareStrings(a.getAuthor(), b.getAuthor());
+            case PUBLISHED_DATE:
+                return Long.compare(time(a.getPublishedDate()), time(b.getPublishedDate()));
+            case QUANTITY:
+                return Integer.compare(a.getQuantity(), b.getQuantity());
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean startsWithIgnoreCase(String value, String prefix) {
+        return value != null && value.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static int compareStrings(String a, String b) {
+        if (a == null || b == null)
+            return a == null ? (b == null ? 0 : -1) : 1;
+        return a.compareTo(b);
+    }
+
+    private static long time(Date date) {
+        return date == null ? Long.MIN_VALUE : date.getTime();
+    }
+
+    // The cursor is the row's insertion sequence and sort value: "seq:" followed by
+    // n (null), s<string> or l<long>.
+    private String encodeCursor(BookSort sort, int slot) {
+        Book book = books[slot];
+        String value;
+        switch (sort) {
+            case TITLE:
+                value = book.getTitle() == null ? "n" : "s" + book.getTitle();
+                break;
+            case AUTHOR:
+                value = book.getAuthor() == null ? "n" : "s" + book.getAuthor();
+                break;
+            case PUBLISHED_DATE:
+                value = book.getPublishedDate() == null ? "n" : "l" + book.getPublishedDate().getTime();
+                break;
+            case QUANTITY:
+                value = "l" + book.getQuantity();
+                break;
+            default:
+                value = "n";
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((seqs[slot] + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Fills probe with the cursor's sort value and returns its sequence.
+    private static long decodeCursor(BookSort sort, String cursor, Book probe) {
+        String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int colon = text.indexOf(':');
+        long seq = Long.parseLong(text.substring(0, colon));
+        char type = text.charAt(colon + 1);
+        String value = text.substring(colon + 2);
+        switch (sort) {
+            case TITLE:
+                probe.setTitle(type == 'n' ? null : value);
+                break;
+            case AUTHOR:
+                probe.setAuthor(type == 'n' ? null : value);
+                break;
+            case PUBLISHED_DATE:
+                probe.setPublishedDate(type == 'n' ? null : new Date(Long.parseLong(value)));
+                break;
+            case QUANTITY:
+                probe.setQuantity(type == 'n' ? 0 : (int) Long.parseLong(value));
+                break;
+            default:
+                break;
+        }
+        return seq;
+    }
+
+    private static Book copy(Book book, int quantity) {
+        Book copy = new Book(book.getId(), book.getTitle(), book.getAuthor(), book.getPublishedDate(), quantity);
+        copy.setDocumentId(book.getDocumentId());
+        return copy;
+    }
+
+    // Open-addressing String -> slot table with linear probing and backward-shift
+    // deletion, so lookups don't box and there are no tombstones to clean up.
+    private static class SlotMap {
+        private String[] keys = new String[128];
+        private int[] values = new int[128];
+        private int size;
+
+        int get(String key) {
+            if (key == null)
+                return -1;
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key))
+                    return values[i];
+            }
+            return -1;
+        }
+
+        void put(String key, int value) {
+            if ((size + 1) * 2 > keys.length)
+                resize(keys.length * 2);
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null && !keys[i].equals(key)) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null)
+                size++;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        void remove(String key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null && !keys[i].equals(key)) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null)
+                return;
+            keys[i] = null;
+            size--;
+            // Pull back any later entry in the run whose home slot is at or before the hole.
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    keys[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            String[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new String[capacity];
+            values = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null)
+                    put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
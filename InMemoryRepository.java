@@ -0,0 +1,98 @@
+package com.example.library;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Embedded repository for one account type (members, staff or admins), held in a
+// concurrent map keyed by ID. Records inserted without an ID get a generated one,
+// the way MongoDB assigns an _id.
+public class InMemoryRepository<T> implements Repository<T> {
+    private final ConcurrentHashMap<String, T> records = new ConcurrentHashMap<>();
+    private final Function<T, String> idOf;
+    private final BiConsumer<T, String> setId;
+    private final BiConsumer<T, Document> applyUpdate;
+    private final AtomicLong version = new AtomicLong();
+
+    public InMemoryRepository(Function<T, String> idOf, BiConsumer<T, String> setId, BiConsumer<T, Document> applyUpdate) {
+        this.idOf = idOf;
+        this.setId = setId;
+        this.applyUpdate = applyUpdate;
+    }
+
+    @Override
+    public void insert(T record) {
+        String id = idOf.apply(record);
+        if (id == null || id.isEmpty()) {
+            id = UUID.randomUUID().toString();
+            setId.accept(record, id);
+        }
+        if (records.putIfAbsent(id, record) != null)
+            throw new IllegalStateException("Duplicate ID: " + id);
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void update(String id, Document updateFields) {
+        records.computeIfPresent(id, (key, record) -> {
+            applyUpdate.accept(record, updateFields);
+            return record;
+        });
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void delete(String id) {
+        if (records.remove(id) != null)
+            version.incrementAndGet();
+    }
+
+    @Override
+    public T findById(String id) {
+        return records.get(id);
+    }
+
+    public List<T> findAll() {
+        return new ArrayList<>(records.values());
+    }
+
+    // Bumped on every write; the snapshot writer uses it to skip unchanged state.
+    public long version() {
+        return version.get();
+    }
+
+    public static InMemoryRepository<Member> members() {
+        return new InMemoryRepository<>(Member::getId, Member::setId, (member, fields) -> {
+            if (fields.containsKey("name"))
+                member.setName(fields.getString("name"));
+            if (fields.containsKey("membershipNumber"))
+                member.setMembershipNumber(fields.getString("membershipNumber"));
+            if (fields.containsKey("password"))
+                member.setPassword(fields.getString("password"));
+        });
+    }
+
+    public static InMemoryRepository<Staff> staff() {
+        return new InMemoryRepository<>(Staff::getId, Staff::setId, (staff, fields) -> {
+            if (fields.containsKey("username"))
+                staff.setUsername(fields.getString("username"));
+            if (fields.containsKey("password"))
+                staff.setPassword(fields.getString("password"));
+        });
+    }
+
+    public static InMemoryRepository<Admin> admins() {
+        return new InMemoryRepository<>(Admin::getId, Admin::setId, (admin, fields) -> {
+            if (fields.containsKey("username"))
+                admin.setUsername(fields.getString("username"));
+            if (fields.containsKey("password"))
+                admin.setPassword(fields.getString("password"));
+        });
+    }
+}
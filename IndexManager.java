@@ -0,0 +1,227 @@
+package com.example.library;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Declares every index the application relies on and reconciles them at startup:
+// missing indexes are created, and indexes whose definition has drifted are rebuilt.
+public class IndexManager {
+
+    private static class IndexSpec {
+        final String collection;
+        final Bson keys;
+        final IndexOptions options;
+
+        IndexSpec(String collection, Bson keys, IndexOptions options) {
+            this.collection = collection;
+            this.keys = keys;
+            this.options = options;
+        }
+    }
+
+    private static final List<IndexSpec> REQUIRED = new ArrayList<>();
+
+    static {
+        // Every update, delete, borrow and return filters on the user-defined IDs. They are
+        // optional on insert, so the unique indexes are sparse to allow documents without one.
+        unique("books", "bookId");
+        unique("members", "memberId");
+        unique("members", "membershipNumber");
+        unique("staff", "staffId");
+        unique("admins", "adminId");
+
+        // Keyset pagination, one per server-side sort order.
+        for (BookSort sort : BookSort.values()) {
+            if (sort.indexKeys() != null)
+                declare("books", sort.indexKeys(), new IndexOptions().name(sort.getField() + "_id_sort"));
+        }
+
+        // Members' "available books" view: title order over in-stock books only. Quantity is in
+        // the key so the pattern differs from the title sort index and the filter needs no fetch.
+        declare("books", Indexes.ascending("title", "_id", "quantity"),
+                new IndexOptions().name("available_title").partialFilterExpression(Filters.gt("quantity", 0)));
+
+        // Title search: case-insensitive prefix ranges and whole-word text search. The catalog
+        // view's search matches title or author prefixes, so author gets a prefix index too.
+        declare("books", Indexes.ascending("title"),
+                new IndexOptions().name("title_prefix_ci").collation(MongoDBUtil.TITLE_COLLATION));
+        declare("books", Indexes.ascending("author"),
+                new IndexOptions().name("author_prefix_ci").collation(MongoDBUtil.TITLE_COLLATION));
+        declare("books", Indexes.text("title"), new IndexOptions().name("title_text"));
+
+        // Multi-criteria queries (BookQuery): one compound index per equality/sort/range shape
+        // the planner relies on, with the search collation so author and title match case-insensitively.
+        for (BookQueryPlanner.Index index : BookQueryPlanner.FILTER_INDEXES) {
+            declare("books", index.keys(), new IndexOptions().name(index.getName()).collation(MongoDBUtil.TITLE_COLLATION));
+        }
+
+        // Loan journal: a member's history per book in time order, open loans by due date for
+        // overdue reports, at most one loan closed per return, and returns not yet applied.
+        declare("loans", Indexes.ascending("memberId", "bookId", "at"), new IndexOptions().name("member_book_at"));
+        declare("loans", Indexes.ascending("dueDate"), new IndexOptions().name("borrow_due")
+                .partialFilterExpression(Filters.and(Filters.eq("type", "borrow"), Filters.eq("returnedAt", null))));
+        declare("loans", Indexes.ascending("returnedBy"), new IndexOptions().name("returned_by_unique")
+                .unique(true).partialFilterExpression(Filters.exists("returnedBy")));
+        declare("loans", Indexes.ascending("at"),
+                new IndexOptions().name("return_pending").partialFilterExpression(Filters.eq("pending", true)));
+    }
+
+    private static void unique(String collection, String field) {
+        declare(collection, Indexes.ascending(field),
+                new IndexOptions().name(field + "_unique").unique(true).sparse(true));
+    }
+
+    private static void declare(String collection, Bson keys, IndexOptions options) {
+        REQUIRED.add(new IndexSpec(collection, keys, options));
+    }
+
+    // Creates missing indexes and rebuilds ones whose keys or options no longer match.
+    // Indexes that aren't declared here are left alone. Failures (e.g. existing duplicate
+    // IDs blocking a unique index) are reported but don't stop the application.
+    public static void ensureIndexes() {
+        MongoDatabase database = MongoDBUtil.getDatabase();
+        Map<String, Map<String, Document>> existingByCollection = new HashMap<>();
+        for (IndexSpec spec : REQUIRED) {
+            MongoCollection<Document> collection = database.getCollection(spec.collection);
+            Map<String, Document> existing = existingByCollection.computeIfAbsent(spec.collection, name -> {
+                Map<String, Document> indexes = new HashMap<>();
+                for (Document index : collection.listIndexes()) {
+                    indexes.put(index.getString("name"), index);
+                }
+                return indexes;
+            });
+
+            String name = spec.options.getName();
+            Document current = existing.get(name);
+            try {
+                if (current != null && matches(spec, current))
+                    continue;
+                if (current != null) {
+                    System.out.println("Rebuilding index " + spec.collection + "." + name);
+                    collection.dropIndex(name);
+                }
+                collection.createIndex(spec.keys, spec.options);
+                System.out.println("Created index " + spec.collection + "." + name);
+            } catch (MongoCommandException ex) {
+                System.out.println("Unable to create index " + spec.collection + "." + name + ": " + ex.getErrorMessage());
+            }
+        }
+    }
+
+    private static boolean matches(IndexSpec spec, Document current) {
+        CodecRegistry registry = MongoDBUtil.getDatabase().getCodecRegistry();
+        BsonDocument keys = spec.keys.toBsonDocument(BsonDocument.class, registry);
+        boolean text = keys.values().stream().anyMatch(v -> v.isString() && "text".equals(v.asString().getValue()));
+        Document currentKeys = current.get("key", Document.class);
+        // Text indexes are stored with internal _fts/_ftsx keys, so compare the weighted fields instead.
+        if (text) {
+            Document weights = current.get("weights", new Document());
+            if (!weights.keySet().equals(keys.keySet()))
+                return false;
+        } else if (!currentKeys.toBsonDocument(BsonDocument.class, registry).equals(keys)) {
+            return false;
+        }
+        if (spec.options.isUnique() != current.getBoolean("unique", false))
+            return false;
+        if (spec.options.isSparse() != current.getBoolean("sparse", false))
+            return false;
+        Bson partial = spec.options.getPartialFilterExpression();
+        Document currentPartial = current.get("partialFilterExpression", Document.class);
+        if (partial == null || currentPartial == null) {
+            if (partial != currentPartial)
+                return false;
+        } else if (!currentPartial.toBsonDocument(BsonDocument.class, registry)
+                .equals(partial.toBsonDocument(BsonDocument.class, registry))) {
+            return false;
+        }
+        Collation collation = spec.options.getCollation();
+        Document currentCollation = current.get("collation", Document.class);
+        if (collation == null || currentCollation == null)
+            return collation == null && currentCollation == null;
+        return collation.getLocale().equals(currentCollation.getString("locale"))
+                && collation.getStrength().getIntRepresentation() == currentCollation.getInteger("strength", 3);
+    }
+
+    // Runs explain() on the hot queries and fails if any of them would scan the whole
+    // collection. Enable at startup with -Dlibrary.verifyQueryPlans=true.
+    public static void verifyQueryPlans() {
+        MongoDatabase database = MongoDBUtil.getDatabase();
+        Map<String, FindIterable<Document>> queries = new HashMap<>();
+        queries.put("books by bookId", database.getCollection("books").find(Filters.eq("bookId", "")));
+        queries.put("members by memberId", database.getCollection("members").find(Filters.eq("memberId", "")));
+        queries.put("staff by staffId", database.getCollection("staff").find(Filters.eq("staffId", "")));
+        queries.put("admins by adminId", database.getCollection("admins").find(Filters.eq("adminId", "")));
+        queries.put("books by title prefix", database.getCollection("books")
+                .find(MongoDBUtil.titlePrefixFilter("a")).collation(MongoDBUtil.TITLE_COLLATION));
+        queries.put("books by title text", database.getCollection("books").find(Filters.text("a")));
+        queries.put("open loans by member", LoanJournal.collection().find(Filters.and(Filters.eq("memberId", ""),
+                Filters.eq("type", "borrow"), Filters.eq("returnedAt", null))).sort(Sorts.ascending("at")));
+        queries.put("open loans due before", LoanJournal.collection().find(Filters.and(Filters.eq("type", "borrow"),
+                Filters.eq("returnedAt", null), Filters.lt("dueDate", new Date()))).sort(Sorts.ascending("dueDate")));
+        queries.put("pending returns", LoanJournal.collection().find(Filters.eq("pending", true)).sort(Sorts.ascending("at")));
+        for (BookSort sort : BookSort.values()) {
+            queries.put("books sorted by " + sort.getField(),
+                    database.getCollection("books").find().sort(sort.orderBy(true)).limit(10));
+        }
+        // Every combination of BookQuery criteria, in every sort order.
+        for (int criteria = 1; criteria < 16; criteria++) {
+            for (BookSort sort : BookSort.values()) {
+                BookQuery query = new BookQuery()
+                        .author((criteria & 1) != 0 ? "a" : null)
+                        .titleStartsWith((criteria & 2) != 0 ? "a" : null)
+                        .publishedFrom((criteria & 4) != 0 ? new Date(0) : null)
+                        .availableOnly((criteria & 8) != 0)
+                        .sortBy(sort, true);
+                BookQueryPlan plan = BookQueryPlanner.plan(query, BookQueryPlanner.MONGO_INDEXES);
+                queries.put("books filtered by " + query.equalityFields() + query.rangeFields()
+                        + " sorted by " + sort.getField() + " on " + plan.getIndex(), MongoDBUtil.bookQuery(query, plan.getIndex()));
+            }
+        }
+
+        List<String> scans = new ArrayList<>();
+        for (Map.Entry<String, FindIterable<Document>> query : queries.entrySet()) {
+            Document plan = query.getValue().explain().get("queryPlanner", Document.class);
+            if (usesStage(plan.get("winningPlan", Document.class), "COLLSCAN"))
+                scans.add(query.getKey());
+        }
+        if (!scans.isEmpty())
+            throw new IllegalStateException("Hot queries fall back to COLLSCAN: " + scans);
+        System.out.println("Query plans verified: " + queries.size() + " queries use indexes.");
+    }
+
+    private static boolean usesStage(Document plan, String stage) {
+        if (plan == null)
+            return false;
+        if (stage.equals(plan.getString("stage")))
+            return true;
+        // Newer servers wrap the classic plan in queryPlan, older ones nest inputStage(s).
+        if (usesStage(plan.get("queryPlan", Document.class), stage)
+                || usesStage(plan.get("inputStage", Document.class), stage))
+            return true;
+        List<Document> inputs = plan.getList("inputStages", Document.class);
+        if (inputs != null) {
+            for (Document input : inputs) {
+                if (usesStage(input, stage))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.example.library;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Windowed, read-only list behind a TableView. TableView only asks for the rows in its
+// viewport, so get() serves cached pages, returns null (an empty row) for anything not
+// loaded yet and fetches that page plus a prefetch margin in the background. When a page
+// arrives its rows are announced as replaced and the table repaints them. Pages far from
+// the viewport are dropped so memory stays at a few pages however long the list is.
+//
+// A page is fetched by seeking from a neighbouring page's cursor when one is loaded (the
+// normal case while scrolling) and by offset only after a jump.
+public class LazyBookList extends ObservableListBase<Book> {
+    private final boolean availableOnly;
+    private final BookSort sort;
+    private final int pageSize;
+    private final int prefetchPages;
+    private final int maxPages;
+
+    private final Map<Integer, BookPage> pages = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int size;
+    private int generation;
+    private int lastPage;
+
+    public LazyBookList(boolean availableOnly, BookSort sort, int pageSize, int prefetchPages, int maxPages) {
+        this.availableOnly = availableOnly;
+        this.sort = sort;
+        this.pageSize = pageSize;
+        this.prefetchPages = prefetchPages;
+        this.maxPages = maxPages;
+    }
+
+    // Drops every page and resizes the list to newSize rows.
+    public void reset(int newSize) {
+        generation++;
+        pages.clear();
+        loading.clear();
+        int oldSize = size;
+        size = newSize;
+        beginChange();
+        nextReplace(0, newSize, Collections.nCopies(oldSize, null));
+        endChange();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Book get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        int page = index / pageSize;
+        if (page != lastPage) {
+            lastPage = page;
+            evictDistantPages();
+        }
+        for (int p = Math.max(0, page - prefetchPages); p <= page + prefetchPages && p * pageSize < size; p++) {
+            request(p);
+        }
+        BookPage loaded = pages.get(page);
+        if (loaded == null)
+            return null;
+        int offset = index - page * pageSize;
+        return offset < loaded.getBooks().size() ? loaded.getBooks().get(offset) : null;
+    }
+
+    // Swaps newer copies of loaded books into place, keyed by bookId. Rows keep their
+    // position; a book that went out of stock stays until the next reset.
+    public void refresh(Map<String, Book> changed) {
+        beginChange();
+        for (Map.Entry<Integer, BookPage> entry : pages.entrySet()) {
+            List<Book> books = entry.getValue().getBooks();
+            for (int i = 0; i < books.size(); i++) {
+                Book newer = changed.get(books.get(i).getId());
+                if (newer != null) {
+                    Book old = books.set(i, newer);
+                    int index = entry.getKey() * pageSize + i;
+                    if (index < size)
+                        nextSet(index, old);
+                }
+            }
+        }
+        endChange();
+    }
+
+    private void request(int page) {
+        if (pages.containsKey(page) || !loading.add(page))
+            return;
+        int requestGeneration = generation;
+        CompletableFuture<BookPage> fetch;
+        BookPage before = pages.get(page - 1);
+        BookPage after = pages.get(page + 1);
+        if (before != null && before.getLastCursor() != null)
+            fetch = LibraryService.submit("getAvailableBooksPage", () -> Repositories.books().findPage(sort, true, before.getLastCursor(), false, pageSize, availableOnly));
+        else if (after != null && after.getFirstCursor() != null && page > 0)
+            fetch = LibraryService.submit("getAvailableBooksPage", () -> Repositories.books().findPage(sort, true, after.getFirstCursor(), true, pageSize, availableOnly));
+        else
+            fetch = LibraryService.submit("getAvailableBooksPage", () -> Repositories.books().findPageAt(sort, true, page * pageSize, pageSize, availableOnly));
+
+        LibraryService.onFxThread(fetch, loaded -> {
+            if (requestGeneration != generation)
+                return;
+            loading.remove(page);
+            if (Math.abs(page - lastPage) > maxPages / 2)
+                return;
+            pages.put(page, loaded);
+            int from = page * pageSize;
+            int to = Math.min(size, from + loaded.getBooks().size());
+            if (to > from) {
+                beginChange();
+                nextReplace(from, to, Collections.nCopies(to - from, null));
+                endChange();
+            }
+        }, error -> {
+            loading.remove(page);
+            error.printStackTrace();
+        });
+    }
+
+    private void evictDistantPages() {
+        if (pages.size() <= maxPages)
+            return;
+        pages.keySet().removeIf(p -> Math.abs(p - lastPage) > maxPages / 2);
+    }
+}
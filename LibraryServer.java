@@ -0,0 +1,494 @@
+package com.example.library;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// HTTP/JSON API over the same repositories the desks use, so many clients can share one
+// process's MongoDB connection pool instead of each opening their own:
+//
+//   GET    /api/books                        every book, streamed as a JSON array
+//   GET    /api/books/page?search=&sort=&ascending=&cursor=&backward=&limit=
+//                                            a keyset page plus totals (as the Books tab)
+//   GET    /api/books/search?q=&limit=       title/author search
+//   GET    /api/books/suggest?prefix=&limit= typeahead
+//   GET    /api/books/stats                  catalog totals
+//   GET    /api/books/{bookId}
+//   POST   /api/books                        {"bookId", "title", "author", "publishedDate", "quantity"}
+//   PUT    /api/books/{bookId}               any of those fields but bookId
+//   DELETE /api/books/{bookId}
+//   POST   /api/books/{bookId}/borrow        {"memberId"} -> {"quantity"}, 409 if none left
+//   POST   /api/books/{bookId}/return        {"memberId"} -> {"quantity"}
+//   POST/GET/PUT/DELETE /api/members[/{id}], /api/staffs[/{id}], /api/admins[/{id}]
+//
+// Dates are ISO-8601 (yyyy-MM-dd is accepted on input); passwords are accepted but never
+// returned. Each request runs on one thread of a fixed pool (library.http.threads, default
+// 16) behind a bounded queue (library.http.queue, default 256). When the queue is full the
+// accepting thread serves the request itself and stops accepting meanwhile, so overload
+// backs up into the listen backlog instead of onto the database. The MongoDB pool is the
+// one MongoDBUtil already holds (sized by mongo.pool.* in library.properties).
+//
+// Run with the same classpath as the desk app: java com.example.library.LibraryServer
+// (-Dlibrary.http.port, default 5000). The API has no authentication, so it listens on
+// loopback only unless -Dlibrary.http.host names another address (0.0.0.0 for all). The
+// circulation log and the local catalog snapshot are desk features and are off here
+// unless set explicitly.
+public class LibraryServer {
+    private static final String HOST = System.getProperty("library.http.host", "127.0.0.1");
+    private static final int PORT = Integer.getInteger("library.http.port", 5000);
+    private static final int THREADS = Integer.getInteger("library.http.threads", 16);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("library.http.queue", 256);
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int MAX_LIMIT = 1000;
+
+    // An error answered with its status and message.
+    private static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // How one kind of account is read from and written to JSON.
+    private static class Accounts<T> {
+        final String name;            // "Member", as in the LibraryService operation names
+        final Repository<T> repository;
+        final Function<Document, T> fromJson;
+        final Function<T, Document> toJson;
+        final List<String> fields;    // updatable with PUT
+
+        Accounts(String name, Repository<T> repository, Function<Document, T> fromJson,
+                 Function<T, Document> toJson, String... fields) {
+            this.name = name;
+            this.repository = repository;
+            this.fromJson = fromJson;
+            this.toJson = toJson;
+            this.fields = Arrays.asList(fields);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        StartupTimer.end(StartupTimer.LAUNCH);
+        System.getProperties().putIfAbsent("library.wal.enabled", "false");
+        System.getProperties().putIfAbsent("library.catalogSnapshot.enabled", "false");
+        Repositories.start().exceptionally(ex -> {
+            System.out.println("Storage startup failed: " + ex.getMessage());
+            ex.printStackTrace();
+            return null;
+        });
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                task -> new Thread(task, "library-http-" + threadCount.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/books", handler(LibraryServer::books));
+        server.createContext("/api/members", handler(accounts(new Accounts<>("Member", Repositories.members(),
+                json -> new Member(json.getString("memberId"), json.getString("name"),
+                        json.getString("membershipNumber"), json.getString("password")),
+                member -> new Document("memberId", member.getId()).append("name", member.getName())
+                        .append("membershipNumber", member.getMembershipNumber()),
+                "name", "membershipNumber", "password"))));
+        server.createContext("/api/staffs", handler(accounts(new Accounts<>("Staff", Repositories.staff(),
+                json -> new Staff(json.getString("staffId"), json.getString("username"), json.getString("password")),
+                staff -> new Document("staffId", staff.getId()).append("username", staff.getUsername()),
+                "username", "password"))));
+        server.createContext("/api/admins", handler(accounts(new Accounts<>("Admin", Repositories.admins(),
+                json -> new Admin(json.getString("adminId"), json.getString("username"), json.getString("password")),
+                admin -> new Document("adminId", admin.getId()).append("username", admin.getUsername()),
+                "username", "password"))));
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1), "library-http-shutdown"));
+        System.out.println("Library API listening on http://" + HOST + ":" + PORT + "/api ("
+                + THREADS + " request threads)");
+        StartupTimer.firstInteraction("HTTP API listening");
+    }
+
+    private interface Route {
+        void handle(HttpExchange exchange, List<String> path) throws Exception;
+    }
+
+    // Splits the path below the context and turns exceptions into error responses.
+    private static HttpHandler handler(Route route) {
+        return exchange -> {
+            try {
+                String context = exchange.getHttpContext().getPath();
+                List<String> path = new ArrayList<>();
+                for (String segment : exchange.getRequestURI().getRawPath().substring(context.length()).split("/")) {
+                    if (!segment.isEmpty())
+                        path.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+                }
+                route.handle(exchange, path);
+            } catch (ApiException ex) {
+                sendError(exchange, ex.status, ex.getMessage());
+            } catch (IllegalStateException ex) {
+                sendError(exchange, 409, ex.getMessage());
+            } catch (IllegalArgumentException | JsonParseException | ClassCastException ex) {
+                sendError(exchange, 400, ex.getMessage());
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                sendError(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    // ------------------- BOOKS ---------------------
+
+    private static void books(HttpExchange exchange, List<String> path) throws Exception {
+        String method = exchange.getRequestMethod();
+        BookRepository books = Repositories.books();
+        Map<String, String> params = query(exchange);
+        if (path.isEmpty()) {
+            if (method.equals("GET")) {
+                streamBooks(exchange);
+            } else if (method.equals("POST")) {
+                Book book = toBook(body(exchange));
+                track("insertBook", () -> {
+                    books.insert(book);
+                    return null;
+                });
+                send(exchange, 201, bookJson(book));
+            } else {
+                throw new ApiException(405, "Method not allowed");
+            }
+            return;
+        }
+        String first = path.get(0);
+        if (path.size() == 1 && method.equals("GET")) {
+            switch (first) {
+                case "page": {
+                    String sort = params.getOrDefault("sort", "natural");
+                    CatalogView view = track("getCatalogView", () -> books.findView(params.getOrDefault("search", ""),
+                            BookSort.valueOf(sort.toUpperCase(Locale.ROOT)),
+                            !"false".equals(params.get("ascending")), params.get("cursor"),
+                            "true".equals(params.get("backward")), limit(params, 10)));
+                    BookPage page = view.getPage();
+                    send(exchange, 200, new Document("books", bookList(page.getBooks()))
+                            .append("firstCursor", page.getFirstCursor())
+                            .append("lastCursor", page.getLastCursor())
+                            .append("hasPrevious", page.hasPrevious())
+                            .append("hasNext", page.hasNext())
+                            .append("totals", statsJson(view.getTotals())));
+                    return;
+                }
+                case "search": {
+                    String pattern = required(params, "q");
+                    List<Book> found = track("searchBooks", () -> books.search(pattern, limit(params, 50)));
+                    send(exchange, 200, new Document("books", bookList(found)));
+                    return;
+                }
+                case "suggest": {
+                    String prefix = required(params, "prefix");
+                    List<Suggestion> suggestions = track("suggest", () -> books.suggest(prefix, limit(params, 10)));
+                    List<Document> json = new ArrayList<>();
+                    for (Suggestion suggestion : suggestions) {
+                        json.add(new Document("text", suggestion.getText())
+                                .append("kind", suggestion.getKind().name().toLowerCase(Locale.ROOT))
+                                .append("weight", suggestion.getWeight()));
+                    }
+                    send(exchange, 200, new Document("suggestions", json));
+                    return;
+                }
+                case "stats":
+                    send(exchange, 200, statsJson(track("getCatalogStats", books::stats)));
+                    return;
+                default:
+                    break;
+            }
+        }
+        String bookId = first;
+        if (path.size() == 2 && method.equals("POST") && (path.get(1).equals("borrow") || path.get(1).equals("return"))) {
+            String memberId = body(exchange).getString("memberId");
+            boolean borrow = path.get(1).equals("borrow");
+            int quantity = track(borrow ? "borrowBook" : "returnBook",
+                    () -> borrow ? LibraryService.borrow(bookId, memberId) : LibraryService.giveBack(bookId, memberId));
+            if (quantity < 0)
+                throw new ApiException(borrow ? 409 : 404, borrow ? "Unknown book or no copy left" : "Unknown book");
+            send(exchange, 200, new Document("bookId", bookId).append("quantity", quantity));
+            return;
+        }
+        if (path.size() != 1)
+            throw new ApiException(404, "Not found");
+        switch (method) {
+            case "GET": {
+                Book book = track("getBook", () -> books.findById(bookId));
+                if (book == null)
+                    throw new ApiException(404, "No book " + bookId);
+                send(exchange, 200, bookJson(book));
+                break;
+            }
+            case "PUT": {
+                Document fields = bookFields(body(exchange));
+                requireFields(fields);
+                track("updateBook", () -> {
+                    books.update(bookId, fields);
+                    return null;
+                });
+                send(exchange, 204, null);
+                break;
+            }
+            case "DELETE":
+                track("deleteBook", () -> {
+                    books.delete(bookId);
+                    return null;
+                });
+                send(exchange, 204, null);
+                break;
+            default:
+                throw new ApiException(405, "Method not allowed");
+        }
+    }
+
+    // Written as it is read: the response is chunked and no list of the catalog is built.
+    private static void streamBooks(HttpExchange exchange) throws Exception {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write('[');
+            boolean[] first = {true};
+            track("streamBooks", () -> {
+                Repositories.books().forEach(book -> {
+                    try {
+                        if (!first[0])
+                            out.write(',');
+                        first[0] = false;
+                        out.write(bookJson(book).toJson());
+                    } catch (IOException ex) {
+                        // The client went away; stop reading the catalog for it.
+                        throw new IllegalStateException("Client disconnected", ex);
+                    }
+                });
+                return null;
+            });
+            out.write(']');
+        }
+    }
+
+    private static Book toBook(Document json) {
+        Document fields = bookFields(json);
+        String bookId = json.getString("bookId");
+        if (bookId == null || bookId.isEmpty())
+            throw new IllegalArgumentException("bookId is required");
+        return new Book(bookId, fields.getString("title"), fields.getString("author"),
+                fields.getDate("publishedDate"), fields.getInteger("quantity", 0));
+    }
+
+    // A PUT must change something; an empty update would reach the database as an empty $set.
+    private static void requireFields(Document fields) {
+        if (fields.isEmpty())
+            throw new IllegalArgumentException("No updatable fields in the request body");
+    }
+
+    // The updatable fields of a book, with the date parsed.
+    private static Document bookFields(Document json) {
+        Document fields = new Document();
+        for (String field : Arrays.asList("title", "author", "publishedDate", "quantity")) {
+            if (!json.containsKey(field))
+                continue;
+            Object value = json.get(field);
+            if (field.equals("publishedDate"))
+                value = date(value);
+            else if (field.equals("quantity"))
+                value = ((Number) value).intValue();
+            fields.append(field, value);
+        }
+        return fields;
+    }
+
+    private static Date date(Object value) {
+        if (value == null || value instanceof Date)
+            return (Date) value;
+        String text = value.toString();
+        try {
+            return text.length() == 10 ? new SimpleDateFormat("yyyy-MM-dd").parse(text) : Date.from(Instant.parse(text));
+        } catch (ParseException | DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid date: " + text);
+        }
+    }
+
+    private static Document bookJson(Book book) {
+        return new Document("bookId", book.getId())
+                .append("title", book.getTitle())
+                .append("author", book.getAuthor())
+                .append("publishedDate", book.getPublishedDate() == null ? null : book.getPublishedDate().toInstant().toString())
+                .append("quantity", book.getQuantity());
+    }
+
+    private static List<Document> bookList(List<Book> books) {
+        List<Document> json = new ArrayList<>(books.size());
+        for (Book book : books) {
+            json.add(bookJson(book));
+        }
+        return json;
+    }
+
+    private static Document statsJson(CatalogStats stats) {
+        return new Document("totalCopies", stats.getTotalCopies())
+                .append("totalTitles", stats.getTotalTitles())
+                .append("outOfStock", stats.getOutOfStock());
+    }
+
+    // ------------------- MEMBERS, STAFF, ADMINS ---------------------
+
+    private static <T> Route accounts(Accounts<T> accounts) {
+        return (exchange, path) -> {
+            String method = exchange.getRequestMethod();
+            if (path.isEmpty() && method.equals("POST")) {
+                T account = accounts.fromJson.apply(body(exchange));
+                track("insert" + accounts.name, () -> {
+                    accounts.repository.insert(account);
+                    return null;
+                });
+                send(exchange, 201, accounts.toJson.apply(account));
+                return;
+            }
+            if (path.size() != 1)
+                throw new ApiException(path.isEmpty() ? 405 : 404, path.isEmpty() ? "Method not allowed" : "Not found");
+            String id = path.get(0);
+            switch (method) {
+                case "GET": {
+                    T account = track("get" + accounts.name, () -> accounts.repository.findById(id));
+                    if (account == null)
+                        throw new ApiException(404, "No " + accounts.name.toLowerCase(Locale.ROOT) + " " + id);
+                    send(exchange, 200, accounts.toJson.apply(account));
+                    break;
+                }
+                case "PUT": {
+                    Document json = body(exchange);
+                    Document fields = new Document();
+                    for (String field : accounts.fields) {
+                        if (json.containsKey(field))
+                            fields.append(field, json.getString(field));
+                    }
+                    requireFields(fields);
+                    track("update" + accounts.name, () -> {
+                        accounts.repository.update(id, fields);
+                        return null;
+                    });
+                    send(exchange, 204, null);
+                    break;
+                }
+                case "DELETE":
+                    track("delete" + accounts.name, () -> {
+                        accounts.repository.delete(id);
+                        return null;
+                    });
+                    send(exchange, 204, null);
+                    break;
+                default:
+                    throw new ApiException(405, "Method not allowed");
+            }
+        };
+    }
+
+    // ------------------- REQUESTS AND RESPONSES ---------------------
+
+    // Recorded in QueryMetrics under the operation names the desks use.
+    private static <T> T track(String operation, Callable<T> task) throws Exception {
+        return QueryMetrics.track(operation, task);
+    }
+
+    private static Document body(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                if (bytes.size() + read > MAX_BODY_BYTES)
+                    throw new ApiException(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+                bytes.write(buffer, 0, read);
+            }
+        }
+        if (bytes.size() == 0)
+            return new Document();
+        return Document.parse(bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null)
+            return params;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException(name + " is required");
+        return value.trim();
+    }
+
+    private static int limit(Map<String, String> params, int defaultLimit) {
+        String value = params.get("limit");
+        int limit = value == null ? defaultLimit : Integer.parseInt(value);
+        if (limit < 1 || limit > MAX_LIMIT)
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        return limit;
+    }
+
+    private static void send(HttpExchange exchange, int status, Document body) throws IOException {
+        byte[] bytes = body == null ? new byte[0] : body.toJson().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0)
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, new Document("error", message == null ? "Error" : message));
+        } catch (IOException ex) {
+            // Headers already sent (a stream failed part way) or the client is gone.
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.library;
+
+import javafx.application.Platform;
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Asynchronous front for the repositories (see Repositories). Every call runs on a small
+// bounded pool so the JavaFX Application Thread never waits on a MongoDB round trip;
+// results are handed back on the FX thread through onFxThread.
+public class LibraryService {
+    private static final int THREADS = Integer.getInteger("library.db.threads", 4);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("library.db.queue", 256);
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                task -> {
+                    Thread thread = new Thread(task, "library-db-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static int threadCount() {
+        return THREADS;
+    }
+
+    // Runs continuations on the JavaFX Application Thread.
+    public static final Executor FX = Platform::runLater;
+
+    // Submits a task to the pool. Cancelling the returned future interrupts the task if
+    // it is still running; a full queue completes it with RejectedExecutionException.
+    public static <T> CompletableFuture<T> submit(Callable<T> task) {
+        AtomicReference<FutureTask<T>> running = new AtomicReference<>();
+        CompletableFuture<T> result = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                FutureTask<T> futureTask = running.get();
+                if (futureTask != null)
+                    futureTask.cancel(true);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        FutureTask<T> futureTask = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled())
+                    return;
+                try {
+                    result.complete(get());
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex.getCause() != null ? ex.getCause() : ex);
+                }
+            }
+        };
+        running.set(futureTask);
+        try {
+            executor.execute(futureTask);
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    // Submits a task that is recorded in QueryMetrics as the named operation.
+    public static <T> CompletableFuture<T> submit(String operation, Callable<T> task) {
+        return submit(() -> QueryMetrics.track(operation, task));
+    }
+
+    public static CompletableFuture<Void> run(String operation, Runnable task) {
+        return submit(operation, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public static CompletableFuture<Void> run(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Delivers the outcome on the FX thread. Cancelled (superseded) requests are dropped silently.
+    public static <T> void onFxThread(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        future.whenCompleteAsync((value, error) -> {
+            if (error == null) {
+                onSuccess.accept(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof CancellationException))
+                onError.accept(cause);
+        }, FX);
+    }
+
+    // Tracks the most recent request of one kind (a search, a page load) and cancels
+    // the previous one when a newer request supersedes it.
+    public static class Latest<T> {
+        private CompletableFuture<T> current;
+
+        public synchronized CompletableFuture<T> replace(CompletableFuture<T> next) {
+            if (current != null && !current.isDone())
+                current.cancel(true);
+            current = next;
+            return next;
+        }
+    }
+
+    // ------------------- BOOKS ---------------------
+    public static CompletableFuture<BookPage> getBooksPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        return submit("getBooksPage", () -> Repositories.books().findPage(sort, ascending, cursor, backward, limit, false));
+    }
+
+    // Page rows and totals for the Books tab in one call; search may be empty.
+    public static CompletableFuture<CatalogView> getCatalogView(String search, BookSort sort, boolean ascending,
+                                                                String cursor, boolean backward, int limit) {
+        return submit("getCatalogView", () -> Repositories.books().findView(search, sort, ascending, cursor, backward, limit));
+    }
+
+    public static CompletableFuture<Long> getBooksCount() {
+        return submit("getBooksCount", () -> Repositories.books().stats().getTotalTitles());
+    }
+
+    public static CompletableFuture<Integer> getTotalQuantity() {
+        return submit("getTotalQuantity", () -> (int) Repositories.books().stats().getTotalCopies());
+    }
+
+    public static CompletableFuture<CatalogStats> getCatalogStats() {
+        return submit("getCatalogStats", () -> Repositories.books().stats());
+    }
+
+    public static CompletableFuture<List<Book>> getAllBooks() {
+        return submit("getAllBooks", () -> Repositories.books().findAll());
+    }
+
+    public static CompletableFuture<List<Book>> searchBooks(String pattern, int limit) {
+        return submit("searchBooks", () -> Repositories.books().search(pattern, limit));
+    }
+
+    public static CompletableFuture<CatalogView> searchView(String pattern, String cursor, boolean backward, int limit) {
+        return submit("searchBooks", () -> Repositories.books().searchView(pattern, cursor, backward, limit));
+    }
+
+    public static CompletableFuture<BookQueryResult> queryBooks(BookQuery query) {
+        return submit("queryBooks", () -> Repositories.books().query(query));
+    }
+
+    public static CompletableFuture<List<Suggestion>> suggest(String prefix, int limit) {
+        return submit("suggest", () -> Repositories.books().suggest(prefix, limit));
+    }
+
+    public static CompletableFuture<Book> getBook(String bookId) {
+        return submit("getBook", () -> Repositories.books().findById(bookId));
+    }
+
+    public static CompletableFuture<Void> insertBook(Book book) {
+        return run("insertBook", () -> Repositories.books().insert(book));
+    }
+
+    public static CompletableFuture<Void> updateBook(String bookId, Document updateFields) {
+        return run("updateBook", () -> Repositories.books().update(bookId, updateFields));
+    }
+
+    public static CompletableFuture<Void> deleteBook(String bookId) {
+        return run("deleteBook", () -> Repositories.books().delete(bookId));
+    }
+
+    // Successful borrows and returns are appended to the loan journal, which writes them in
+    // the background; the call itself still costs one round trip. With the circulation log
+    // open they are acknowledged once they are on local disk and the returned quantity is
+    // the projected one; the log applies them to the server and journals them afterwards.
+    public static CompletableFuture<Integer> borrowBook(String bookId, String memberId) {
+        return submit("borrowBook", () -> borrow(bookId, memberId));
+    }
+
+    public static CompletableFuture<Integer> returnBook(String bookId, String memberId) {
+        return submit("returnBook", () -> giveBack(bookId, memberId));
+    }
+
+    // The blocking forms, also called by LibraryServer's request threads.
+    static int borrow(String bookId, String memberId) {
+        if (CirculationLog.isEnabled())
+            return CirculationLog.borrow(bookId, memberId);
+        int quantity = Repositories.books().borrow(bookId);
+        if (quantity >= 0)
+            LoanJournal.borrowed(memberId, bookId, 1);
+        return quantity;
+    }
+
+    static int giveBack(String bookId, String memberId) {
+        if (CirculationLog.isEnabled())
+            return CirculationLog.giveBack(bookId, memberId);
+        int quantity = Repositories.books().returnBook(bookId);
+        if (quantity >= 0)
+            LoanJournal.returned(memberId, bookId);
+        return quantity;
+    }
+
+    // Batch checkout; through the circulation log too when it is open, like single borrows.
+    public static CompletableFuture<List<BorrowResult>> borrowBooks(List<String> bookIds, String memberId) {
+        return submit("borrowBooks", () -> {
+            if (CirculationLog.isEnabled())
+                return CirculationLog.borrowAll(bookIds, memberId);
+            List<BorrowResult> results = Repositories.books().borrowAll(bookIds);
+            for (BorrowResult result : results) {
+                if (result.isBorrowed())
+                    LoanJournal.borrowed(memberId, result.getBookId(), result.getCopies());
+            }
+            return results;
+        });
+    }
+
+    // ------------------- LOANS ---------------------
+    public static CompletableFuture<List<Loan>> getOpenLoans(String memberId) {
+        return submit("getOpenLoans", () -> LoanJournal.openLoans(memberId));
+    }
+
+    public static CompletableFuture<List<Loan>> getOverdueLoans(Date asOf) {
+        return submit("getOverdueLoans", () -> LoanJournal.overdue(asOf));
+    }
+
+    // ------------------- ADMINS, STAFF, MEMBERS ---------------------
+    public static CompletableFuture<Void> insertAdmin(Admin admin) {
+        return run("insertAdmin", () -> Repositories.admins().insert(admin));
+    }
+
+    public static CompletableFuture<Void> updateAdmin(String adminId, Document updateFields) {
+        return run("updateAdmin", () -> Repositories.admins().update(adminId, updateFields));
+    }
+
+    public static CompletableFuture<Void> deleteAdmin(String adminId) {
+        return run("deleteAdmin", () -> Repositories.admins().delete(adminId));
+    }
+
+    public static CompletableFuture<Void> insertStaff(Staff staff) {
+        return run("insertStaff", () -> Repositories.staff().insert(staff));
+    }
+
+    public static CompletableFuture<Void> insertMember(Member member) {
+        return run("insertMember", () -> Repositories.members().insert(member));
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.library;
+
+import java.util.Date;
+
+// One open loan, reconstructed from the loan journal.
+public class Loan {
+    private final String memberId;
+    private final String bookId;
+    private final Date borrowedAt;
+    private final Date dueDate;
+
+    public Loan(String memberId, String bookId, Date borrowedAt, Date dueDate) {
+        this.memberId = memberId;
+        this.bookId = bookId;
+        this.borrowedAt = borrowedAt;
+        this.dueDate = dueDate;
+    }
+
+    public String getMemberId() { return memberId; }
+
+    public String getBookId() { return bookId; }
+
+    public Date getBorrowedAt() { return borrowedAt; }
+
+    public Date getDueDate() { return dueDate; }
+}
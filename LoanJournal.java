@@ -0,0 +1,399 @@
+package com.example.library;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+// Journal of borrow and return events in the "loans" collection:
+//   { type: "borrow" | "return", memberId, bookId, at, dueDate (borrows only),
+//     returnedAt, returnedBy (borrows, once returned), pending (returns, until applied) }
+//
+// Recording an event never touches the network: it goes onto a lock-free queue and a single
+// writer thread group-commits the queue with one unordered insertMany. A batch is written
+// as soon as library.loans.batchSize events are waiting or the oldest has waited
+// library.loans.maxDelayMillis, so a checkout burst costs one round trip per batch rather
+// than one per click. Failed batches are retried; event _ids are assigned when the event is
+// queued, so a retry after a partial write skips what already landed.
+//
+// Once a return is stored the writer closes the member's oldest open borrow of that book
+// by setting its returnedAt and returnedBy, then clears the return's pending flag. Open
+// loans are therefore the borrows with no returnedAt, read through the borrow_due partial
+// index without replaying any history. Returns still pending at startup (a crash between
+// the two writes, or returns journaled before borrows were closed in place) are applied
+// then, in time order. IndexManager declares the indexes these reads and writes use; its
+// returned_by_unique index keeps one return from closing two loans. With the in-memory
+// backend the events are kept in memory instead.
+public class LoanJournal {
+    private static final int LOAN_DAYS = Integer.getInteger("library.loan.days", 14);
+    private static final int BATCH_SIZE = Integer.getInteger("library.loans.batchSize", 500);
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("library.loans.maxDelayMillis", 50));
+    private static final long MAX_RETRY_MILLIS = 5000;
+    private static final int DUPLICATE_KEY = 11000;
+    // Marker in "stats" for marking returns journaled before loans were closed in place.
+    private static final String MIGRATION_ID = "loanReturns";
+
+    private static class Pending {
+        final Document event;
+        final long enqueuedAt = System.nanoTime();
+
+        Pending(Document event) {
+            this.event = event;
+        }
+    }
+
+    private static final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final List<Document> memoryEvents = new ArrayList<>();
+    private static volatile Thread writer;
+    private static volatile boolean stopping;
+
+    public static synchronized void start() {
+        if (writer != null)
+            return;
+        writer = new Thread(LoanJournal::writeLoop, "loan-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(LoanJournal::stop, "loan-journal-flush"));
+    }
+
+    // Flushes what is queued and stops the writer.
+    public static void stop() {
+        Thread current = writer;
+        if (current == null)
+            return;
+        stopping = true;
+        LockSupport.unpark(current);
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void borrowed(String memberId, String bookId, int copies) {
+        for (int i = 0; i < copies; i++) {
+            append(borrowEvent(memberId, bookId, new ObjectId(), new Date()));
+        }
+    }
+
+    public static void returned(String memberId, String bookId) {
+        append(returnEvent(memberId, bookId, new ObjectId(), new Date()));
+    }
+
+    // Written before returning rather than queued, for the circulation log's replay: it may
+    // only drop an operation from the log once the loan record is stored too. The event _id
+    // and time are the operation's idempotency key and the time the desk accepted it, so a
+    // replay after a crash stores one event, dated (and due) from the checkout. Throws if
+    // the server can't take it; the caller retries.
+    public static void storeBorrowed(String memberId, String bookId, ObjectId eventId, Date at) {
+        store(borrowEvent(memberId, bookId, eventId, at));
+    }
+
+    public static void storeReturned(String memberId, String bookId, ObjectId eventId, Date at) {
+        store(returnEvent(memberId, bookId, eventId, at));
+    }
+
+    private static Document borrowEvent(String memberId, String bookId, ObjectId eventId, Date at) {
+        return new Document("_id", eventId).append("type", "borrow").append("memberId", memberId)
+                .append("bookId", bookId).append("at", at)
+                .append("dueDate", new Date(at.getTime() + TimeUnit.DAYS.toMillis(LOAN_DAYS)));
+    }
+
+    private static Document returnEvent(String memberId, String bookId, ObjectId eventId, Date at) {
+        return new Document("_id", eventId).append("type", "return").append("memberId", memberId)
+                .append("bookId", bookId).append("at", at).append("pending", true);
+    }
+
+    // An event already stored counts as written; a return stored earlier but not yet applied
+    // is applied now (applying one twice closes one loan, see close).
+    private static void store(Document event) {
+        if (Repositories.isInMemory()) {
+            write(Collections.singletonList(event));
+            return;
+        }
+        try {
+            collection().insertOne(event);
+        } catch (MongoWriteException ex) {
+            if (ex.getError().getCode() != DUPLICATE_KEY)
+                throw ex;
+        }
+        if ("return".equals(event.getString("type"))) {
+            close(event);
+            collection().updateOne(Filters.eq("_id", event.get("_id")), Updates.unset("pending"));
+        }
+    }
+
+    // Events not yet written.
+    public static int pendingCount() {
+        return pending.get();
+    }
+
+    private static void append(Document event) {
+        queue.add(new Pending(event));
+        int waiting = pending.incrementAndGet();
+        // The first event starts the latency clock; a full batch is flushed right away.
+        if (waiting == 1 || waiting == BATCH_SIZE)
+            LockSupport.unpark(writer);
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            Pending first = queue.peek();
+            if (first == null) {
+                if (stopping)
+                    return;
+                LockSupport.parkNanos(MAX_DELAY_NANOS);
+                continue;
+            }
+            long deadline = first.enqueuedAt + MAX_DELAY_NANOS;
+            long now;
+            while (!stopping && pending.get() < BATCH_SIZE && (now = System.nanoTime()) < deadline) {
+                LockSupport.parkNanos(deadline - now);
+            }
+            List<Document> batch = new ArrayList<>(Math.min(pending.get(), BATCH_SIZE));
+            Pending next;
+            while (batch.size() < BATCH_SIZE && (next = queue.poll()) != null) {
+                batch.add(next.event);
+            }
+            write(batch);
+            pending.addAndGet(-batch.size());
+        }
+    }
+
+    // Retries until the batch is stored and its returns applied; events are never dropped.
+    private static void write(List<Document> batch) {
+        if (Repositories.isInMemory()) {
+            synchronized (memoryEvents) {
+                for (Document event : batch) {
+                    if ("return".equals(event.getString("type"))) {
+                        event.remove("pending");
+                        closeInMemory(event);
+                    }
+                    memoryEvents.add(event);
+                }
+            }
+            return;
+        }
+        // Returns are applied once stored, in queue order; one already stored by an earlier
+        // attempt (a replayed operation) was applied then or is left to recovery.
+        Set<Object> stored = new HashSet<>();
+        List<Document> remaining = batch;
+        long backoff = 100;
+        while (!remaining.isEmpty()) {
+            try {
+                collection().insertMany(remaining, new InsertManyOptions().ordered(false));
+                for (Document event : remaining) {
+                    stored.add(event.get("_id"));
+                }
+                break;
+            } catch (MongoBulkWriteException ex) {
+                // Keep only the events that failed for a reason other than already being stored.
+                Set<Integer> failed = new HashSet<>();
+                List<Document> retry = new ArrayList<>();
+                for (BulkWriteError error : ex.getWriteErrors()) {
+                    failed.add(error.getIndex());
+                    if (error.getCode() != DUPLICATE_KEY)
+                        retry.add(remaining.get(error.getIndex()));
+                }
+                for (int i = 0; i < remaining.size(); i++) {
+                    if (!failed.contains(i))
+                        stored.add(remaining.get(i).get("_id"));
+                }
+                remaining = retry;
+                if (!remaining.isEmpty())
+                    System.out.println("Loan journal: retrying " + remaining.size() + " events: " + ex.getMessage());
+            } catch (Exception ex) {
+                System.out.println("Loan journal write failed, retrying " + remaining.size() + " events: " + ex.getMessage());
+            }
+            if (remaining.isEmpty() || !sleep(backoff))
+                break;
+            backoff = Math.min(MAX_RETRY_MILLIS, backoff * 2);
+        }
+        List<Document> returns = new ArrayList<>();
+        for (Document event : batch) {
+            if ("return".equals(event.getString("type")) && stored.contains(event.get("_id")))
+                returns.add(event);
+        }
+        applyReturns(returns);
+    }
+
+    // Closes the loan each return ends, then clears the returns' pending flags. Retried until
+    // done; the returned_by_unique index keeps a retried return from closing a second loan.
+    private static void applyReturns(List<Document> returns) {
+        long backoff = 100;
+        int applied = 0;
+        while (!returns.isEmpty()) {
+            try {
+                for (; applied < returns.size(); applied++) {
+                    close(returns.get(applied));
+                }
+                List<Object> ids = new ArrayList<>();
+                for (Document event : returns) {
+                    ids.add(event.get("_id"));
+                }
+                collection().updateMany(Filters.in("_id", ids), Updates.unset("pending"));
+                return;
+            } catch (Exception ex) {
+                System.out.println("Loan journal: closing loans failed, retrying " + (returns.size() - applied)
+                        + " returns: " + ex.getMessage());
+            }
+            if (!sleep(backoff))
+                return;
+            backoff = Math.min(MAX_RETRY_MILLIS, backoff * 2);
+        }
+    }
+
+    // Closes the pair's oldest borrow that was open when the return happened. A return with
+    // nothing open ends a loan from before the journal existed.
+    private static void close(Document event) {
+        try {
+            collection().findOneAndUpdate(Filters.and(Filters.eq("memberId", event.get("memberId")),
+                            Filters.eq("bookId", event.get("bookId")), Filters.eq("type", "borrow"),
+                            Filters.eq("returnedAt", null), Filters.lte("at", event.getDate("at"))),
+                    Updates.combine(Updates.set("returnedAt", event.getDate("at")), Updates.set("returnedBy", event.get("_id"))),
+                    new FindOneAndUpdateOptions().sort(Sorts.ascending("at")).projection(Projections.include("_id")));
+        } catch (MongoException ex) {
+            // This return already closed a loan.
+            if (ex.getCode() != DUPLICATE_KEY)
+                throw ex;
+        }
+    }
+
+    // Guarded by memoryEvents.
+    private static void closeInMemory(Document event) {
+        Document oldest = null;
+        for (Document borrow : memoryEvents) {
+            if ("borrow".equals(borrow.getString("type")) && borrow.get("returnedAt") == null
+                    && borrow.getString("memberId").equals(event.getString("memberId"))
+                    && borrow.getString("bookId").equals(event.getString("bookId"))
+                    && !borrow.getDate("at").after(event.getDate("at"))
+                    && (oldest == null || borrow.getDate("at").before(oldest.getDate("at"))))
+                oldest = borrow;
+        }
+        if (oldest != null)
+            oldest.append("returnedAt", event.getDate("at")).append("returnedBy", event.get("_id"));
+    }
+
+    // Applies the returns left pending by an earlier run, oldest first, on its own thread.
+    // Called once the indexes are in place. The first run also marks the returns journaled
+    // before loans were closed in place, i.e. those older than its marker in "stats".
+    public static void recover() {
+        if (Repositories.isInMemory())
+            return;
+        Thread recovery = new Thread(() -> {
+            try {
+                MongoCollection<Document> stats = MongoDBUtil.getDatabase().getCollection("stats");
+                Document marker = stats.findOneAndUpdate(Filters.eq("_id", MIGRATION_ID),
+                        Updates.setOnInsert("since", new Date()),
+                        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+                if (!marker.getBoolean("migrated", false)) {
+                    long marked = collection().updateMany(Filters.and(Filters.eq("type", "return"),
+                            Filters.exists("pending", false), Filters.lt("at", marker.getDate("since"))),
+                            Updates.set("pending", true)).getModifiedCount();
+                    stats.updateOne(Filters.eq("_id", MIGRATION_ID), Updates.set("migrated", true));
+                    System.out.println("Loan journal: " + marked + " earlier returns to apply");
+                }
+                List<Document> returns = new ArrayList<>(BATCH_SIZE);
+                int applied = 0;
+                for (Document event : collection().find(Filters.eq("pending", true)).sort(Sorts.ascending("at"))) {
+                    returns.add(event);
+                    if (returns.size() == BATCH_SIZE) {
+                        applyReturns(returns);
+                        applied += returns.size();
+                        returns = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                applyReturns(returns);
+                applied += returns.size();
+                if (applied > 0)
+                    System.out.println("Loan journal: applied " + applied + " pending returns");
+            } catch (Exception ex) {
+                // Retried at the next start.
+                System.out.println("Loan journal: unable to apply pending returns: " + ex.getMessage());
+                ex.printStackTrace();
+            }
+        }, "loan-journal-recovery");
+        recovery.setDaemon(true);
+        recovery.start();
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    static MongoCollection<Document> collection() {
+        return MongoDBUtil.getDatabase().getCollection("loans");
+    }
+
+    // ------------------- QUERIES ---------------------
+
+    // The member's open loans, oldest first.
+    public static List<Loan> openLoans(String memberId) {
+        if (Repositories.isInMemory())
+            return openInMemory(borrow -> memberId.equals(borrow.getString("memberId")),
+                    (a, b) -> a.getBorrowedAt().compareTo(b.getBorrowedAt()));
+        return toLoans(collection().find(Filters.and(Filters.eq("memberId", memberId), Filters.eq("type", "borrow"),
+                Filters.eq("returnedAt", null))).sort(Sorts.ascending("at")));
+    }
+
+    // Loans still open that were due before asOf, most overdue first.
+    public static List<Loan> overdue(Date asOf) {
+        if (Repositories.isInMemory())
+            return openInMemory(borrow -> borrow.getDate("dueDate").before(asOf),
+                    (a, b) -> a.getDueDate().compareTo(b.getDueDate()));
+        return toLoans(collection().find(Filters.and(Filters.eq("type", "borrow"), Filters.eq("returnedAt", null),
+                Filters.lt("dueDate", asOf))).sort(Sorts.ascending("dueDate")));
+    }
+
+    private static List<Loan> openInMemory(Predicate<Document> filter, Comparator<Loan> order) {
+        List<Document> borrows = new ArrayList<>();
+        synchronized (memoryEvents) {
+            for (Document event : memoryEvents) {
+                if ("borrow".equals(event.getString("type")) && event.get("returnedAt") == null && filter.test(event))
+                    borrows.add(event);
+            }
+        }
+        List<Loan> loans = toLoans(borrows);
+        loans.sort(order);
+        return loans;
+    }
+
+    private static List<Loan> toLoans(Iterable<Document> borrows) {
+        List<Loan> loans = new ArrayList<>();
+        for (Document borrow : borrows) {
+            loans.add(new Loan(borrow.getString("memberId"), borrow.getString("bookId"),
+                    borrow.getDate("at"), borrow.getDate("dueDate")));
+        }
+        return loans;
+    }
+}
@@ -1,19 +1,33 @@
 package com.example.library;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
+import javafx.geometry.Side;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import org.bson.Document;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public class Main extends Application {
 
@@ -21,46 +35,117 @@ public class Main extends Application {
     private TableView<Book> bookTableView;
     private TextField bookIdField, bookTitleField, bookAuthorField, bookDateField, bookQuantityField;
     private TextField bookSearchField;
+    private static final int SEARCH_DEBOUNCE_MS = 250;
+    private PauseTransition searchDebounce;
+    private static final int SUGGESTION_LIMIT = 8;
+    private ContextMenu suggestionMenu;
+    private boolean applyingSuggestion;
+    private final LibraryService.Latest<List<Suggestion>> suggestionRequest = new LibraryService.Latest<>();
+    private final LibraryService.Latest<CatalogView> searchRequest = new LibraryService.Latest<>();
+    private final LibraryService.Latest<CatalogView> viewRequest = new LibraryService.Latest<>();
     private ObservableList<Book> bookData;
     private Label totalQuantityLabel;
     private int currentPage = 0;
     private final int pageSize = 10;
+    private BookPage currentBookPage;
+    private String pageSearch = ""; // search the current page was loaded with ("" = whole catalog)
+    private String pageCursor;      // cursor the current page was loaded from (null = first page)
+    private boolean pageBackward;
+    private BookSort bookSort = BookSort.NATURAL;
+    private boolean bookSortAscending = true;
     private Label pageInfoLabel;
+    private Label catalogSourceLabel; // says when the table still shows the local catalog snapshot
     private Button previousButton, nextButton;
+    private TextField filterAuthorField, filterTitleField;
+    private DatePicker filterFromPicker, filterToPicker;
+    private CheckBox filterAvailableBox;
+    private Label filterPlanLabel;
+    private BookQuery pageFilter;   // criteria of the Filters panel, null when none are applied
+    private final LibraryService.Latest<BookQueryResult> filterRequest = new LibraryService.Latest<>();
 
     // ------------------- ADMIN TAB FIELDS ---------------------
     private TextField adminIdField, adminUsernameField, adminPasswordField;
 
     // ------------------- STAFF TAB FIELDS ---------------------
-    private TextField staffBookIdField;
+    private TextField staffBookIdField, staffMemberIdField;
+    private TableView<Loan> loanTableView;
     private Label staffStatusLabel;
+    private Label bookCacheLabel;
 
     // ------------------- MEMBER TAB FIELDS ---------------------
     private TextField memberIdField, memberNameField, memberMembershipField, memberPasswordField;
     private TableView<Book> memberBookTableView;
-    private ObservableList<Book> memberBookData;
+    private LazyBookList memberBookData;
+    private static final int MEMBER_PAGE_SIZE = 50;
+
+    // ------------------- DIAGNOSTICS TAB FIELDS ---------------------
+    private TableView<OperationMetrics> operationsTableView;
+    private TableView<SlowQuery> slowQueryTableView;
+    private Timeline diagnosticsRefresher;
+    private Label idFilterLabel;
 
     public static void main(String[] args) {
         launch(args);
     }
 
+    // Startup runs in phases timed by StartupTimer: storage (local files only; the connection
+    // warm-up and the loads go on in the background), the Books tab from the local catalog
+    // snapshot, the window, and only then the first query. The Admin, Staff and Members tabs
+    // are built the first time they are selected.
     @Override
     public void start(Stage primaryStage) {
+        StartupTimer.end(StartupTimer.LAUNCH);
         primaryStage.setTitle("Library Management System");
+        StartupTimer.begin("storage start");
+        whenDone(Repositories.start(), done -> { }, "Storage startup failed");
+        StartupTimer.end("storage start");
 
         // Create tabs for different roles/features.
         TabPane tabPane = new TabPane();
+        StartupTimer.begin("Books tab");
         Tab booksTab = new Tab("Books", createBooksTab());
-        Tab adminTab = new Tab("Admin", createAdminTab());
-        Tab staffTab = new Tab("Staff", createStaffTab());
-        Tab memberTab = new Tab("Members", createMemberTab());
+        StartupTimer.end("Books tab");
+        Tab adminTab = lazyTab("Admin", this::createAdminTab);
+        Tab staffTab = lazyTab("Staff", this::createStaffTab);
+        Tab memberTab = lazyTab("Members", this::createMemberTab);
+        Tab diagnosticsTab = new Tab("Diagnostics", createDiagnosticsTab());
+        // Only poll the metrics while the tab is showing.
+        diagnosticsTab.selectedProperty().addListener((obs, wasSelected, selected) -> {
+            if (selected) {
+                refreshDiagnostics();
+                diagnosticsRefresher.play();
+            } else {
+                diagnosticsRefresher.stop();
+            }
+        });
 
-        tabPane.getTabs().addAll(booksTab, adminTab, staffTab, memberTab);
+        // Other desks' writes arrive through the change stream, batched once per frame.
+        BookChangeWatcher.addListener(this::applyBookChanges);
+
+        tabPane.getTabs().addAll(booksTab, adminTab, staffTab, memberTab, diagnosticsTab);
         tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
 
+        StartupTimer.begin("window");
         Scene scene = new Scene(tabPane, 900, 700);
         primaryStage.setScene(scene);
         primaryStage.show();
+        StartupTimer.end("window");
+        if (bookData != null)
+            StartupTimer.firstInteraction("local catalog snapshot");
+        loadPaginatedBooks();
+    }
+
+    // A tab whose content is built the first time it is selected.
+    private Tab lazyTab(String title, Supplier<Node> content) {
+        Tab tab = new Tab(title);
+        tab.selectedProperty().addListener((obs, wasSelected, selected) -> {
+            if (selected && tab.getContent() == null) {
+                StartupTimer.begin(title + " tab");
+                tab.setContent(content.get());
+                StartupTimer.end(title + " tab");
+            }
+        });
+        return tab;
     }
 
     // ------------------- BOOKS TAB ---------------------
@@ -79,34 +164,101 @@ public class Main extends Application {
         quantityCol.setCellValueFactory(new PropertyValueFactory<>("quantity"));
         bookTableView.getColumns().addAll(idCol, titleCol, authorCol, dateCol, quantityCol);
 
+        // Column sorting is done by the server across the whole catalog, not just the visible page.
+        idCol.setSortable(false);
+        titleCol.setUserData(BookSort.TITLE);
+        authorCol.setUserData(BookSort.AUTHOR);
+        dateCol.setUserData(BookSort.PUBLISHED_DATE);
+        quantityCol.setUserData(BookSort.QUANTITY);
+        bookTableView.setSortPolicy(table -> {
+            // Search results are one ranked list, so a column click just reorders it.
+            if (!pageSearch.isEmpty())
+                return TableView.DEFAULT_SORT_POLICY.call(table);
+            applyBookSort();
+            return true;
+        });
+
         // Search controls.
-        Label searchLabel = new Label("Search Title:");
+        Label searchLabel = new Label("Search Title/Author:");
         bookSearchField = new TextField();
         Button searchButton = new Button("Search");
-        searchButton.setOnAction(e -> searchBooks());
+        searchButton.setOnAction(e -> {
+            searchDebounce.stop();
+            searchBooks();
+        });
+        // Search as you type, once typing pauses.
+        searchDebounce = new PauseTransition(Duration.millis(SEARCH_DEBOUNCE_MS));
+        searchDebounce.setOnFinished(e -> searchBooks());
+        bookSearchField.textProperty().addListener((obs, oldText, newText) -> {
+            searchDebounce.playFromStart();
+            if (!applyingSuggestion)
+                showSuggestions(newText.trim());
+        });
+        // Typeahead: completions on every keystroke, picked with the mouse or arrow keys + Enter.
+        suggestionMenu = new ContextMenu();
+        bookSearchField.focusedProperty().addListener((obs, wasFocused, focused) -> {
+            if (!focused)
+                suggestionMenu.hide();
+        });
         HBox searchBox = new HBox(10, searchLabel, bookSearchField, searchButton);
         searchBox.setPadding(new Insets(10));
 
+        // Filters: any mix of author, title prefix, publication dates and availability. The
+        // matches page and sort like the catalog; the label shows the index that served them.
+        filterAuthorField = new TextField();
+        filterAuthorField.setPromptText("Exact name");
+        filterTitleField = new TextField();
+        filterTitleField.setPromptText("Starts with");
+        filterFromPicker = new DatePicker();
+        filterToPicker = new DatePicker();
+        filterAvailableBox = new CheckBox("Available only");
+        Button applyFiltersButton = new Button("Apply Filters");
+        applyFiltersButton.setOnAction(e -> applyFilters());
+        Button clearFiltersButton = new Button("Clear");
+        clearFiltersButton.setOnAction(e -> clearFilters());
+        filterPlanLabel = new Label();
+        GridPane filterGrid = new GridPane();
+        filterGrid.setHgap(10);
+        filterGrid.setVgap(10);
+        filterGrid.add(new Label("Author:"), 0, 0);
+        filterGrid.add(filterAuthorField, 1, 0);
+        filterGrid.add(new Label("Title:"), 2, 0);
+        filterGrid.add(filterTitleField, 3, 0);
+        filterGrid.add(new Label("Published from:"), 0, 1);
+        filterGrid.add(filterFromPicker, 1, 1);
+        filterGrid.add(new Label("to:"), 2, 1);
+        filterGrid.add(filterToPicker, 3, 1);
+        filterGrid.add(filterAvailableBox, 0, 2, 2, 1);
+        filterGrid.add(new HBox(10, applyFiltersButton, clearFiltersButton), 2, 2, 2, 1);
+        TitledPane filtersPane = new TitledPane("Filters", new VBox(10, filterGrid, filterPlanLabel));
+        filtersPane.setExpanded(false);
+
         // Pagination controls.
         previousButton = new Button("Previous");
         previousButton.setOnAction(e -> {
-            if (currentPage > 0) {
+            if (currentBookPage != null && currentBookPage.hasPrevious()) {
                 currentPage--;
+                pageCursor = currentBookPage.getFirstCursor();
+                pageBackward = true;
                 loadPaginatedBooks();
             }
         });
         nextButton = new Button("Next");
         nextButton.setOnAction(e -> {
-            currentPage++;
-            loadPaginatedBooks();
+            if (currentBookPage != null && currentBookPage.hasNext()) {
+                currentPage++;
+                pageCursor = currentBookPage.getLastCursor();
+                pageBackward = false;
+                loadPaginatedBooks();
+            }
         });
         pageInfoLabel = new Label();
         HBox paginationBox = new HBox(10, previousButton, nextButton, pageInfoLabel);
         paginationBox.setPadding(new Insets(10));
 
-        // Aggregate total quantity.
+        // Totals of the catalog, or of the search matches; they come with each page.
         totalQuantityLabel = new Label();
-        updateTotalQuantity();
+        catalogSourceLabel = new Label();
 
         // Form to add/update/delete books.
         GridPane form = new GridPane();
@@ -137,9 +289,9 @@ public class Main extends Application {
         deleteBookButton.setOnAction(e -> deleteBook());
         HBox buttonBox = new HBox(10, addBookButton, updateBookButton, deleteBookButton);
 
-        VBox vbox = new VBox(10, searchBox, bookTableView, paginationBox, totalQuantityLabel, form, buttonBox);
+        VBox vbox = new VBox(10, searchBox, filtersPane, bookTableView, paginationBox, totalQuantityLabel, catalogSourceLabel, form, buttonBox);
         vbox.setPadding(new Insets(15));
-        loadPaginatedBooks();
+        showLocalCopy();
         return vbox;
     }
 
@@ -180,14 +332,48 @@ public class Main extends Application {
         vbox.setPadding(new Insets(15));
         Label infoLabel = new Label("Process Book Borrow/Return:");
         staffBookIdField = new TextField();
-        staffBookIdField.setPromptText("Enter Book ID");
+        staffBookIdField.setPromptText("Enter Book ID(s), comma separated");
         Button borrowButton = new Button("Borrow Book");
         borrowButton.setOnAction(e -> processBorrow());
         Button returnButton = new Button("Return Book");
         returnButton.setOnAction(e -> processReturn());
         staffStatusLabel = new Label();
-        vbox.getChildren().addAll(infoLabel, new HBox(10, new Label("Book ID:"), staffBookIdField),
-                new HBox(10, borrowButton, returnButton), staffStatusLabel);
+        bookCacheLabel = new Label();
+        // Operations acknowledged from the local circulation log but not yet on the server.
+        Label unsyncedLabel = new Label();
+        Timeline unsyncedRefresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> {
+            int rejected = CirculationLog.rejected().size();
+            unsyncedLabel.setText("Unsynced operations: " + CirculationLog.unsyncedCount()
+                    + (rejected > 0 ? " (" + rejected + " rejected by the server, see log)" : ""));
+        }));
+        unsyncedRefresher.setCycleCount(Timeline.INDEFINITE);
+        unsyncedRefresher.play();
+
+        // Loans from the journal: the member's open loans, or everything overdue today.
+        staffMemberIdField = new TextField();
+        staffMemberIdField.setPromptText("Member ID");
+        loanTableView = new TableView<>();
+        TableColumn<Loan, String> memberCol = new TableColumn<>("Member ID");
+        memberCol.setCellValueFactory(new PropertyValueFactory<>("memberId"));
+        TableColumn<Loan, String> bookCol = new TableColumn<>("Book ID");
+        bookCol.setCellValueFactory(new PropertyValueFactory<>("bookId"));
+        TableColumn<Loan, Date> borrowedCol = new TableColumn<>("Borrowed");
+        borrowedCol.setCellValueFactory(new PropertyValueFactory<>("borrowedAt"));
+        TableColumn<Loan, Date> dueCol = new TableColumn<>("Due");
+        dueCol.setCellValueFactory(new PropertyValueFactory<>("dueDate"));
+        loanTableView.getColumns().add(memberCol);
+        loanTableView.getColumns().add(bookCol);
+        loanTableView.getColumns().add(borrowedCol);
+        loanTableView.getColumns().add(dueCol);
+        Button openLoansButton = new Button("Member's Open Loans");
+        openLoansButton.setOnAction(e -> loadOpenLoans());
+        Button overdueButton = new Button("Overdue Today");
+        overdueButton.setOnAction(e -> loadOverdueLoans());
+
+        vbox.getChildren().addAll(infoLabel, new HBox(10, new Label("Member ID:"), staffMemberIdField),
+                new HBox(10, new Label("Book ID:"), staffBookIdField),
+                new HBox(10, borrowButton, returnButton), staffStatusLabel, unsyncedLabel, new Separator(),
+                new HBox(10, openLoansButton, overdueButton), loanTableView, bookCacheLabel);
         return vbox;
     }
 
@@ -228,6 +414,12 @@ public class Main extends Application {
         TableColumn<Book, Integer> quantityCol = new TableColumn<>("Quantity");
         quantityCol.setCellValueFactory(new PropertyValueFactory<>("quantity"));
         memberBookTableView.getColumns().addAll(idCol, titleCol, authorCol, dateCol, quantityCol);
+        // Rows are loaded a window at a time in title order, so the table can't re-sort them locally.
+        for (TableColumn<Book, ?> column : memberBookTableView.getColumns()) {
+            column.setSortable(false);
+        }
+        memberBookData = new LazyBookList(true, BookSort.TITLE, MEMBER_PAGE_SIZE, 1, 8);
+        memberBookTableView.setItems(memberBookData);
 
         Button loadBooksButton = new Button("Load Available Books");
         loadBooksButton.setOnAction(e -> loadAvailableBooks());
@@ -237,50 +429,332 @@ public class Main extends Application {
         return vbox;
     }
 
+    // ------------------- DIAGNOSTICS TAB ---------------------
+    // Live per-operation latency from QueryMetrics, refreshed every second while the tab is selected.
+    private VBox createDiagnosticsTab() {
+        operationsTableView = new TableView<>();
+        TableColumn<OperationMetrics, String> opCol = new TableColumn<>("Operation");
+        opCol.setCellValueFactory(new PropertyValueFactory<>("name"));
+        TableColumn<OperationMetrics, Long> countCol = new TableColumn<>("Calls");
+        countCol.setCellValueFactory(new PropertyValueFactory<>("count"));
+        TableColumn<OperationMetrics, Long> errorsCol = new TableColumn<>("Errors");
+        errorsCol.setCellValueFactory(new PropertyValueFactory<>("errors"));
+        TableColumn<OperationMetrics, Long> commandsCol = new TableColumn<>("Commands");
+        commandsCol.setCellValueFactory(new PropertyValueFactory<>("commands"));
+        operationsTableView.getColumns().add(opCol);
+        operationsTableView.getColumns().add(countCol);
+        operationsTableView.getColumns().add(errorsCol);
+        operationsTableView.getColumns().add(commandsCol);
+        operationsTableView.getColumns().add(millisColumn("p50 (ms)", OperationMetrics::getP50Micros));
+        operationsTableView.getColumns().add(millisColumn("p99 (ms)", OperationMetrics::getP99Micros));
+        operationsTableView.getColumns().add(millisColumn("p99.9 (ms)", OperationMetrics::getP999Micros));
+        operationsTableView.getColumns().add(millisColumn("Max (ms)", OperationMetrics::getMaxMicros));
+        operationsTableView.getColumns().add(millisColumn("Pool wait p99 (ms)", OperationMetrics::getPoolWaitP99Micros));
+
+        slowQueryTableView = new TableView<>();
+        TableColumn<SlowQuery, String> timeCol = new TableColumn<>("Time");
+        timeCol.setCellValueFactory(cell -> new SimpleStringProperty(
+                new SimpleDateFormat("HH:mm:ss").format(cell.getValue().getTime())));
+        TableColumn<SlowQuery, String> slowOpCol = new TableColumn<>("Operation");
+        slowOpCol.setCellValueFactory(new PropertyValueFactory<>("operation"));
+        TableColumn<SlowQuery, String> durationCol = new TableColumn<>("Duration (ms)");
+        durationCol.setCellValueFactory(cell -> new SimpleStringProperty(
+                String.format("%.2f%s", cell.getValue().getMicros() / 1000.0, cell.getValue().isFailed() ? " (failed)" : "")));
+        TableColumn<SlowQuery, String> commandCol = new TableColumn<>("Command");
+        commandCol.setCellValueFactory(new PropertyValueFactory<>("command"));
+        commandCol.setPrefWidth(450);
+        slowQueryTableView.getColumns().add(timeCol);
+        slowQueryTableView.getColumns().add(slowOpCol);
+        slowQueryTableView.getColumns().add(durationCol);
+        slowQueryTableView.getColumns().add(commandCol);
+
+        Button resetButton = new Button("Reset");
+        resetButton.setOnAction(e -> {
+            QueryMetrics.reset();
+            refreshDiagnostics();
+        });
+
+        // Duplicate-ID pre-check filters: size, memory and false-positive rates.
+        idFilterLabel = new Label();
+
+        diagnosticsRefresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refreshDiagnostics()));
+        diagnosticsRefresher.setCycleCount(Timeline.INDEFINITE);
+        VBox vbox = new VBox(10, new Label("Operations (also published over JMX under com.example.library):"),
+                operationsTableView, new Label("Slowest MongoDB commands, last 10 minutes:"), slowQueryTableView, resetButton,
+                new Label("Duplicate-ID filters:"), idFilterLabel);
+        vbox.setPadding(new Insets(15));
+        return vbox;
+    }
+
+    private TableColumn<OperationMetrics, String> millisColumn(String title, ToLongFunction<OperationMetrics> micros) {
+        TableColumn<OperationMetrics, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new SimpleStringProperty(
+                String.format("%.2f", micros.applyAsLong(cell.getValue()) / 1000.0)));
+        return column;
+    }
+
+    private void refreshDiagnostics() {
+        operationsTableView.getItems().setAll(QueryMetrics.operations());
+        slowQueryTableView.getItems().setAll(QueryMetrics.slowestQueries());
+        if (!Repositories.isInMemory()) {
+            StringBuilder text = new StringBuilder();
+            for (IdFilter filter : IdFilter.all()) {
+                text.append(text.length() == 0 ? "" : "\n").append(filter.stats());
+            }
+            idFilterLabel.setText(text.toString());
+        }
+    }
+
     // ------------------- BOOKS OPERATIONS ---------------------
 
-    // Load books with pagination—if no search query is active.
+    // Load (or reload) the current keyset page of the catalog, or the search matches. The
+    // rows, the count and the total quantity come back from one request; a newer request
+    // cancels one still in flight.
     private void loadPaginatedBooks() {
-        if (bookSearchField.getText().trim().isEmpty()) {
-            List<Book> books = MongoDBUtil.getBooksWithPagination(currentPage * pageSize, pageSize);
-            bookData = FXCollections.observableArrayList(books);
+        previousButton.setDisable(true);
+        nextButton.setDisable(true);
+        if (pageFilter != null) {
+            loadFilteredBooks();
+            return;
+        }
+        if (!pageSearch.isEmpty()) {
+            loadSearchResults();
+            return;
+        }
+        filterRequest.replace(null);
+        searchRequest.replace(null);
+        CompletableFuture<CatalogView> request = viewRequest.replace(LibraryService.getCatalogView(
+                pageSearch, bookSort, bookSortAscending, pageCursor, pageBackward, pageSize));
+        whenDone(request, view -> {
+            currentBookPage = view.getPage();
+            if (!currentBookPage.hasPrevious())
+                currentPage = 0;
+            bookData = FXCollections.observableArrayList(currentBookPage.getBooks());
+            bookTableView.setItems(bookData);
+            previousButton.setDisable(!currentBookPage.hasPrevious());
+            nextButton.setDisable(!currentBookPage.hasNext());
+            showPageCount(view.getTotals());
+            showTotals(view.getTotals());
+            catalogSourceLabel.setText("");
+            StartupTimer.firstInteraction("first page query");
+        }, "Unable to load books");
+    }
+
+    // Until the server's first page arrives, the first page and totals from the local catalog
+    // snapshot, marked with how old they are.
+    private void showLocalCopy() {
+        CatalogView view = CatalogSnapshot.firstView(pageSize);
+        if (view == null)
+            return;
+        currentBookPage = view.getPage();
+        bookData = FXCollections.observableArrayList(currentBookPage.getBooks());
+        bookTableView.setItems(bookData);
+        showPageCount(view.getTotals());
+        showTotals(view.getTotals());
+        long savedAt = CatalogSnapshot.savedAt();
+        long minutes = Math.max(0, (System.currentTimeMillis() - savedAt) / 60_000);
+        catalogSourceLabel.setText("Showing the local copy saved "
+                + new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(savedAt))
+                + " (" + (minutes < 60 ? minutes + " min" : minutes / 60 + " h") + " old); connecting to the server...");
+    }
+
+    // The Filters panel's matches, one keyset page at a time. There is no match count, so the
+    // totals line is left to the unfiltered views.
+    private void loadFilteredBooks() {
+        viewRequest.replace(null);
+        searchRequest.replace(null);
+        BookQuery query = pageFilter.copy().sortBy(bookSort, bookSortAscending).limit(pageSize).page(pageCursor, pageBackward);
+        whenDone(filterRequest.replace(LibraryService.queryBooks(query)), result -> {
+            currentBookPage = result.getPage();
+            if (!currentBookPage.hasPrevious())
+                currentPage = 0;
+            bookData = FXCollections.observableArrayList(currentBookPage.getBooks());
             bookTableView.setItems(bookData);
-            updatePageInfo();
+            previousButton.setDisable(!currentBookPage.hasPrevious());
+            nextButton.setDisable(!currentBookPage.hasNext());
+            pageInfoLabel.setText("Page " + (currentPage + 1) + "   (filtered)");
+            totalQuantityLabel.setText("");
+            filterPlanLabel.setText("Index: " + result.getPlan().describe());
+        }, "Unable to load books");
+    }
+
+    private void applyFilters() {
+        BookQuery filter = new BookQuery()
+                .author(filterAuthorField.getText())
+                .titleStartsWith(filterTitleField.getText())
+                .publishedFrom(startOfDay(filterFromPicker.getValue()))
+                // The "to" date is inclusive, so the range ends at the start of the next day.
+                .publishedBefore(filterToPicker.getValue() == null ? null : startOfDay(filterToPicker.getValue().plusDays(1)))
+                .availableOnly(filterAvailableBox.isSelected());
+        if (!filter.hasCriteria()) {
+            clearFilters();
+            return;
+        }
+        pageFilter = filter;
+        bookSearchField.setDisable(true);
+        loadFirstPage();
+    }
+
+    private void clearFilters() {
+        filterAuthorField.clear();
+        filterTitleField.clear();
+        filterFromPicker.setValue(null);
+        filterToPicker.setValue(null);
+        filterAvailableBox.setSelected(false);
+        filterPlanLabel.setText("");
+        bookSearchField.setDisable(false);
+        if (pageFilter != null) {
+            pageFilter = null;
+            loadFirstPage();
+        }
+    }
+
+    private static Date startOfDay(LocalDate date) {
+        return date == null ? null : Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private void loadFirstPage() {
+        pageSearch = bookSearchField.getText().trim();
+        currentPage = 0;
+        pageCursor = null;
+        pageBackward = false;
+        loadPaginatedBooks();
+    }
+
+    // Re-sort on the server when the user clicks a column header.
+    private void applyBookSort() {
+        BookSort sort = BookSort.NATURAL;
+        boolean ascending = true;
+        if (!bookTableView.getSortOrder().isEmpty()) {
+            TableColumn<Book, ?> column = bookTableView.getSortOrder().get(0);
+            sort = (BookSort) column.getUserData();
+            ascending = column.getSortType() == TableColumn.SortType.ASCENDING;
+        }
+        if (sort != bookSort || ascending != bookSortAscending) {
+            bookSort = sort;
+            bookSortAscending = ascending;
+            loadFirstPage();
         }
     }
 
     // Update pagination information.
-    private void updatePageInfo() {
-        long totalBooks = MongoDBUtil.getBooksCount();
-        int totalPages = (int) Math.ceil((double) totalBooks / pageSize);
+    private void showPageCount(CatalogStats stats) {
+        int totalPages = Math.max(1, (int) Math.ceil((double) stats.getTotalTitles() / pageSize));
         pageInfoLabel.setText("Page " + (currentPage + 1) + " of " + totalPages);
-        previousButton.setDisable(currentPage == 0);
-        nextButton.setDisable((currentPage + 1) * pageSize >= totalBooks);
     }
 
-    // Update total quantity label using an aggregation query.
-    private void updateTotalQuantity() {
-        int totalQty = MongoDBUtil.getTotalQuantity();
-        totalQuantityLabel.setText("Total Books Quantity: " + totalQty);
+    private void showTotals(CatalogStats stats) {
+        totalQuantityLabel.setText((pageSearch.isEmpty() ? "Total Books Quantity: " : "Matching Books Quantity: ")
+                + stats.getTotalCopies()
+                + "   Titles: " + stats.getTotalTitles()
+                + "   Out of stock: " + stats.getOutOfStock());
+    }
+
+    // Reload whatever the Books table is showing after a change.
+    private void refreshBooks() {
+        loadPaginatedBooks();
+    }
+
+    // After this desk's own write: with the change stream running the delta arrives through
+    // applyBookChanges like everyone else's, so there is nothing to re-query.
+    private void afterBookWrite() {
+        if (!BookChangeWatcher.isActive())
+            refreshBooks();
+    }
+
+    // One coalesced batch from the change stream: patch the rows on screen in place and
+    // take the counters as they are, rather than re-running the page, count and total.
+    private void applyBookChanges(BookChanges changes) {
+        if (changes.isReloadNeeded()) {
+            refreshBooks();
+            // Null until the Members tab has been opened.
+            if (memberBookData != null)
+                loadAvailableBooks();
+            return;
+        }
+        if (!changes.getChanged().isEmpty()) {
+            if (bookData != null) {
+                for (int i = 0; i < bookData.size(); i++) {
+                    Book newer = changes.getChanged().get(bookData.get(i).getId());
+                    if (newer != null)
+                        bookData.set(i, newer);
+                }
+                // New titles show up at the end of the natural order, so only the last page takes them.
+                boolean lastPage = wholeCatalogShown() && bookSort == BookSort.NATURAL
+                        && bookSortAscending && currentBookPage != null && !currentBookPage.hasNext();
+                for (String bookId : changes.getInserted()) {
+                    if (lastPage && bookData.size() < pageSize)
+                        bookData.add(changes.getChanged().get(bookId));
+                }
+            }
+            // Null until the Members tab has been opened.
+            if (memberBookData != null)
+                memberBookData.refresh(changes.getChanged());
+        }
+        // The counters are catalog-wide, so they only replace the totals of an unfiltered view.
+        if (changes.getStats() != null && wholeCatalogShown()) {
+            showTotals(changes.getStats());
+            showPageCount(changes.getStats());
+        }
     }
 
-    // Search books by title.
+    private boolean wholeCatalogShown() {
+        return pageSearch.isEmpty() && pageFilter == null;
+    }
+
+    private void showSuggestions(String prefix) {
+        if (prefix.isEmpty()) {
+            suggestionRequest.replace(null);
+            suggestionMenu.hide();
+            return;
+        }
+        whenDone(suggestionRequest.replace(LibraryService.suggest(prefix, SUGGESTION_LIMIT)), suggestions -> {
+            suggestionMenu.getItems().clear();
+            for (Suggestion suggestion : suggestions) {
+                MenuItem item = new MenuItem(suggestion.getText()
+                        + (suggestion.getKind() == Suggestion.Kind.AUTHOR ? "  (author)" : ""));
+                item.setOnAction(e -> {
+                    applyingSuggestion = true;
+                    bookSearchField.setText(suggestion.getText());
+                    bookSearchField.positionCaret(suggestion.getText().length());
+                    applyingSuggestion = false;
+                    searchDebounce.stop();
+                    searchBooks();
+                });
+                suggestionMenu.getItems().add(item);
+            }
+            if (suggestions.isEmpty() || !bookSearchField.isFocused())
+                suggestionMenu.hide();
+            else if (!suggestionMenu.isShowing())
+                suggestionMenu.show(bookSearchField, Side.BOTTOM, 0, 0);
+        }, "Unable to load suggestions");
+    }
+
+    // Search books by title or author.
     private void searchBooks() {
-        String pattern = bookSearchField.getText().trim();
-        if (pattern.isEmpty()) {
-            currentPage = 0;
-            loadPaginatedBooks();
-            previousButton.setDisable(false);
-            nextButton.setDisable(false);
-            pageInfoLabel.setText("");
-        } else {
-            List<Book> books = MongoDBUtil.searchBooksByTitle(pattern);
-            bookData = FXCollections.observableArrayList(books);
+        loadFirstPage();
+    }
+
+    // The search matches a page at a time, best first: from the in-memory search index once it
+    // has loaded (substrings, and titles with a typo or two), title/author prefixes before.
+    // The count and totals cover every match, not just the page shown.
+    private void loadSearchResults() {
+        viewRequest.replace(null);
+        filterRequest.replace(null);
+        CompletableFuture<CatalogView> request = searchRequest.replace(LibraryService.searchView(
+                pageSearch, pageCursor, pageBackward, pageSize));
+        whenDone(request, view -> {
+            currentBookPage = view.getPage();
+            if (!currentBookPage.hasPrevious())
+                currentPage = 0;
+            bookData = FXCollections.observableArrayList(currentBookPage.getBooks());
             bookTableView.setItems(bookData);
-            previousButton.setDisable(true);
-            nextButton.setDisable(true);
-            pageInfoLabel.setText("Search results");
-        }
+            previousButton.setDisable(!currentBookPage.hasPrevious());
+            nextButton.setDisable(!currentBookPage.hasNext());
+            showPageCount(view.getTotals());
+            showTotals(view.getTotals());
+            catalogSourceLabel.setText("");
+        }, "Unable to search books");
     }
 
     // Add a new book.
@@ -294,12 +768,7 @@ public class Main extends Application {
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
             Date publicationDate = sdf.parse(dateStr);
             Book book = new Book(id, title, author, publicationDate, quantity);
-            MongoDBUtil.insertBook(book);
-            if (bookSearchField.getText().trim().isEmpty())
-                loadPaginatedBooks();
-            else
-                searchBooks();
-            updateTotalQuantity();
+            whenDone(LibraryService.insertBook(book), done -> afterBookWrite(), "Unable to add book");
         } catch (Exception ex) {
             ex.printStackTrace();
             showAlert("Error", "Invalid book input: " + ex.getMessage());
@@ -324,12 +793,7 @@ public class Main extends Application {
                     .append("author", author)
                     .append("publishedDate", publicationDate)
                     .append("quantity", quantity);
-            MongoDBUtil.updateBook(selected.getId(), updateDoc);
-            if (bookSearchField.getText().trim().isEmpty())
-                loadPaginatedBooks();
-            else
-                searchBooks();
-            updateTotalQuantity();
+            whenDone(LibraryService.updateBook(selected.getId(), updateDoc), done -> afterBookWrite(), "Unable to update book");
         } catch (Exception ex) {
             ex.printStackTrace();
             showAlert("Error", "Invalid book input: " + ex.getMessage());
@@ -343,116 +807,182 @@ public class Main extends Application {
             showAlert("Warning", "Select a book to delete.");
             return;
         }
-        MongoDBUtil.deleteBook(selected.getId());
-        if (bookSearchField.getText().trim().isEmpty())
-            loadPaginatedBooks();
-        else
-            searchBooks();
-        updateTotalQuantity();
+        whenDone(LibraryService.deleteBook(selected.getId()), done -> afterBookWrite(), "Unable to delete book");
     }
 
     // ------------------- ADMIN OPERATIONS ---------------------
     private void addAdmin() {
-        try {
-            String id = adminIdField.getText().trim();
-            String username = adminUsernameField.getText().trim();
-            String password = adminPasswordField.getText().trim();
-            Admin admin = new Admin(id, username, password);
-            MongoDBUtil.insertAdmin(admin);
-            showAlert("Info", "Admin added successfully.");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("Error", "Invalid admin input: " + ex.getMessage());
-        }
+        String id = adminIdField.getText().trim();
+        String username = adminUsernameField.getText().trim();
+        String password = adminPasswordField.getText().trim();
+        Admin admin = new Admin(id, username, password);
+        whenDone(LibraryService.insertAdmin(admin),
+                done -> showAlert("Info", "Admin added successfully."), "Invalid admin input");
     }
 
     private void updateAdmin() {
-        try {
-            String id = adminIdField.getText().trim();
-            String username = adminUsernameField.getText().trim();
-            String password = adminPasswordField.getText().trim();
-            Document updateDoc = new Document("username", username)
-                    .append("password", password);
-            MongoDBUtil.updateAdmin(id, updateDoc);
-            showAlert("Info", "Admin updated successfully.");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("Error", "Invalid admin input: " + ex.getMessage());
-        }
+        String id = adminIdField.getText().trim();
+        String username = adminUsernameField.getText().trim();
+        String password = adminPasswordField.getText().trim();
+        Document updateDoc = new Document("username", username)
+                .append("password", password);
+        whenDone(LibraryService.updateAdmin(id, updateDoc),
+                done -> showAlert("Info", "Admin updated successfully."), "Invalid admin input");
     }
 
     private void deleteAdmin() {
-        try {
-            String id = adminIdField.getText().trim();
-            MongoDBUtil.deleteAdmin(id);
-            showAlert("Info", "Admin deleted successfully.");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("Error", "Invalid admin input: " + ex.getMessage());
-        }
+        String id = adminIdField.getText().trim();
+        whenDone(LibraryService.deleteAdmin(id),
+                done -> showAlert("Info", "Admin deleted successfully."), "Invalid admin input");
     }
 
     // ------------------- STAFF OPERATIONS ---------------------
     private void processBorrow() {
-        String bookId = staffBookIdField.getText().trim();
-        if (bookId.isEmpty()) {
+        String input = staffBookIdField.getText().trim();
+        String memberId = staffMemberIdField.getText().trim();
+        if (input.isEmpty()) {
             staffStatusLabel.setText("Enter a valid Book ID.");
             return;
         }
-        boolean success = MongoDBUtil.borrowBook(bookId);
-        if (success) {
-            staffStatusLabel.setText("Book borrowed successfully.");
-            updateTotalQuantity();
-            loadPaginatedBooks();
-        } else {
-            staffStatusLabel.setText("Unable to borrow book: out of stock or invalid ID.");
+        if (memberId.isEmpty()) {
+            staffStatusLabel.setText("Enter the borrowing member's ID.");
+            return;
         }
+        // Several IDs (comma or space separated) check out the whole stack in one call.
+        List<String> bookIds = Arrays.asList(input.split("[,\\s]+"));
+        if (bookIds.size() > 1) {
+            processBatchBorrow(bookIds, memberId);
+            return;
+        }
+        staffStatusLabel.setText("Borrowing...");
+        if (CirculationLog.isEnabled()) {
+            whenDone(LibraryService.borrowBook(input, memberId), newQty -> staffStatusLabel.setText(newQty < 0
+                    ? "Unable to borrow book: out of stock or invalid ID."
+                    : "Borrow recorded, syncing. Copies left: " + newQty), "Unable to borrow book");
+            return;
+        }
+        // The borrow writes the book through to the cache, so the lookup is normally a hit.
+        CompletableFuture<Book> request = LibraryService.borrowBook(input, memberId).thenCompose(newQty -> newQty < 0
+                ? CompletableFuture.completedFuture((Book) null)
+                : LibraryService.getBook(input));
+        whenDone(request, book -> {
+            if (book != null) {
+                staffStatusLabel.setText("Borrowed \"" + book.getTitle()
+                        + "\" successfully. Copies left: " + book.getQuantity());
+                afterBookWrite();
+            } else {
+                staffStatusLabel.setText("Unable to borrow book: out of stock or invalid ID.");
+            }
+            updateBookCacheStats();
+        }, "Unable to borrow book");
+    }
+
+    private void processBatchBorrow(List<String> bookIds, String memberId) {
+        staffStatusLabel.setText("Borrowing " + bookIds.size() + " books...");
+        whenDone(LibraryService.borrowBooks(bookIds, memberId), results -> {
+            int borrowed = 0;
+            StringBuilder failed = new StringBuilder();
+            for (BorrowResult result : results) {
+                if (result.isBorrowed()) {
+                    borrowed += result.getCopies();
+                } else {
+                    failed.append("\n").append(result.getBookId()).append(": ")
+                            .append(result.getStatus() == BorrowResult.Status.NOT_FOUND ? "invalid ID" : "out of stock");
+                }
+            }
+            staffStatusLabel.setText("Borrowed " + borrowed + " of " + bookIds.size() + " books." + failed);
+            if (borrowed > 0)
+                afterBookWrite();
+            updateBookCacheStats();
+        }, "Unable to borrow books");
     }
 
     private void processReturn() {
         String bookId = staffBookIdField.getText().trim();
+        String memberId = staffMemberIdField.getText().trim();
         if (bookId.isEmpty()) {
             staffStatusLabel.setText("Enter a valid Book ID.");
             return;
         }
-        boolean success = MongoDBUtil.returnBook(bookId);
-        if (success) {
-            staffStatusLabel.setText("Book returned successfully.");
-            updateTotalQuantity();
-            loadPaginatedBooks();
-        } else {
-            staffStatusLabel.setText("Unable to return book. Check Book ID.");
+        if (memberId.isEmpty()) {
+            staffStatusLabel.setText("Enter the returning member's ID.");
+            return;
+        }
+        staffStatusLabel.setText("Returning...");
+        if (CirculationLog.isEnabled()) {
+            whenDone(LibraryService.returnBook(bookId, memberId), newQty -> staffStatusLabel.setText(newQty < 0
+                    ? "Unable to return book. Check Book ID."
+                    : "Return recorded, syncing. Copies in stock: " + newQty), "Unable to return book");
+            return;
+        }
+        CompletableFuture<Book> request = LibraryService.returnBook(bookId, memberId).thenCompose(newQty -> newQty < 0
+                ? CompletableFuture.completedFuture((Book) null)
+                : LibraryService.getBook(bookId));
+        whenDone(request, book -> {
+            if (book != null) {
+                staffStatusLabel.setText("Returned \"" + book.getTitle()
+                        + "\" successfully. Copies in stock: " + book.getQuantity());
+                afterBookWrite();
+            } else {
+                staffStatusLabel.setText("Unable to return book. Check Book ID.");
+            }
+            updateBookCacheStats();
+        }, "Unable to return book");
+    }
+
+    private void loadOpenLoans() {
+        String memberId = staffMemberIdField.getText().trim();
+        if (memberId.isEmpty()) {
+            staffStatusLabel.setText("Enter a Member ID to list open loans.");
+            return;
         }
+        whenDone(LibraryService.getOpenLoans(memberId), loans -> {
+            loanTableView.getItems().setAll(loans);
+            staffStatusLabel.setText(memberId + " has " + loans.size() + " open loan(s).");
+        }, "Unable to load loans");
+    }
+
+    private void loadOverdueLoans() {
+        whenDone(LibraryService.getOverdueLoans(new Date()), loans -> {
+            loanTableView.getItems().setAll(loans);
+            staffStatusLabel.setText(loans.size() + " overdue loan(s).");
+        }, "Unable to load overdue loans");
+    }
+
+    private void updateBookCacheStats() {
+        // The embedded engine serves reads from memory and has no cache in front of it.
+        if (!Repositories.isInMemory())
+            bookCacheLabel.setText("Book cache: " + MongoDBUtil.getBookCache().stats());
     }
 
     // ------------------- MEMBER OPERATIONS ---------------------
     private void registerMember() {
-        try {
-            String id = memberIdField.getText().trim();
-            String name = memberNameField.getText().trim();
-            String membership = memberMembershipField.getText().trim();
-            String password = memberPasswordField.getText().trim();
-            Member member = new Member(id, name, membership, password);
-            MongoDBUtil.insertMember(member);
-            showAlert("Info", "Member registered successfully.");
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("Error", "Invalid member input: " + ex.getMessage());
-        }
+        String id = memberIdField.getText().trim();
+        String name = memberNameField.getText().trim();
+        String membership = memberMembershipField.getText().trim();
+        String password = memberPasswordField.getText().trim();
+        Member member = new Member(id, name, membership, password);
+        whenDone(LibraryService.insertMember(member),
+                done -> showAlert("Info", "Member registered successfully."), "Invalid member input");
     }
 
+    // Only the in-stock rows in and around the viewport are fetched, as the member scrolls.
     private void loadAvailableBooks() {
-        try {
-            List<Book> books = MongoDBUtil.getAllBooks();
-            memberBookData = FXCollections.observableArrayList(books);
-            memberBookTableView.setItems(memberBookData);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            showAlert("Error", "Unable to load books: " + ex.getMessage());
-        }
+        whenDone(LibraryService.getCatalogStats(),
+                stats -> memberBookData.reset((int) (stats.getTotalTitles() - stats.getOutOfStock())),
+                "Unable to load books");
     }
 
     // ------------------- COMMON HELPER ---------------------
+    // Applies the result of a background data-access call on the FX thread,
+    // or reports the failure.
+    private <T> void whenDone(CompletableFuture<T> future, Consumer<T> onSuccess, String errorMessage) {
+        LibraryService.onFxThread(future, onSuccess, ex -> {
+            ex.printStackTrace();
+            showAlert("Error", errorMessage + ": " + ex.getMessage());
+        });
+    }
+
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION, message, ButtonType.OK);
         alert.setTitle(title);
@@ -0,0 +1,59 @@
+package com.example.library;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+// Decodes member documents directly into Member; layout matches MongoDBUtil.insertMember.
+public class MemberCodec implements Codec<Member> {
+
+    @Override
+    public Member decode(BsonReader reader, DecoderContext decoderContext) {
+        Member member = new Member();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (name) {
+                case "memberId":
+                    member.setId(CodecSupport.readAsString(reader));
+                    break;
+                case "name":
+                    member.setName(CodecSupport.readAsString(reader));
+                    break;
+                case "membershipNumber":
+                    member.setMembershipNumber(CodecSupport.readAsString(reader));
+                    break;
+                case "password":
+                    member.setPassword(CodecSupport.readAsString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return member;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Member member, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        CodecSupport.writeString(writer, "name", member.getName());
+        CodecSupport.writeString(writer, "membershipNumber", member.getMembershipNumber());
+        CodecSupport.writeString(writer, "password", member.getPassword());
+        if (member.getId() != null && !member.getId().isEmpty())
+            writer.writeString("memberId", member.getId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Member> getEncoderClass() {
+        return Member.class;
+    }
+}
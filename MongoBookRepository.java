@@ -0,0 +1,116 @@
+package com.example.library;
+
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The MongoDB catalog: delegates to MongoDBUtil, including its cache, search index and counters.
+public class MongoBookRepository implements BookRepository {
+    private static final Bson AVAILABLE = Filters.gt("quantity", 0);
+
+    @Override
+    public void insert(Book book) {
+        MongoDBUtil.insertBook(book);
+    }
+
+    @Override
+    public void update(String bookId, Document updateFields) {
+        MongoDBUtil.updateBook(bookId, updateFields);
+    }
+
+    @Override
+    public void delete(String bookId) {
+        MongoDBUtil.deleteBook(bookId);
+    }
+
+    @Override
+    public Book findById(String bookId) {
+        return MongoDBUtil.getBook(bookId);
+    }
+
+    @Override
+    public List<Book> findAll() {
+        return MongoDBUtil.getAllBooks();
+    }
+
+    @Override
+    public void forEach(Consumer<Book> action) {
+        MongoDBUtil.forEachBrowseBook(action);
+    }
+
+    // In-memory index once loaded, otherwise the index-backed prefix query with a
+    // whole-word text query as fallback.
+    @Override
+    public List<Book> search(String pattern, int limit) {
+        BookSearchIndex searchIndex = MongoDBUtil.getSearchIndex();
+        if (searchIndex.isReady())
+            return searchIndex.search(pattern, limit);
+        List<Book> books = MongoDBUtil.searchBooksByTitle(pattern, TitleSearchMode.PREFIX);
+        if (books.isEmpty())
+            books = MongoDBUtil.searchBooksByTitle(pattern, TitleSearchMode.TEXT);
+        return books;
+    }
+
+    // Ranked pages from the search index once loaded; until then the title/author prefix
+    // view. A search keeps paging with the source its first page came from.
+    @Override
+    public CatalogView searchView(String pattern, String cursor, boolean backward, int limit) {
+        BookSearchIndex searchIndex = MongoDBUtil.getSearchIndex();
+        if (searchIndex.isReady() && (cursor == null || BookSearchIndex.isSearchCursor(cursor)))
+            return searchIndex.searchView(pattern, cursor, backward, limit);
+        if (BookSearchIndex.isSearchCursor(cursor))
+            cursor = null;
+        return MongoDBUtil.getCatalogView(pattern, BookSort.TITLE, true, cursor, backward, limit);
+    }
+
+    // Served from the search index; nothing is suggested until it has loaded.
+    @Override
+    public List<Suggestion> suggest(String prefix, int limit) {
+        BookSearchIndex searchIndex = MongoDBUtil.getSearchIndex();
+        return searchIndex.isReady() ? searchIndex.suggest(prefix, limit) : new ArrayList<>();
+    }
+
+    @Override
+    public BookPage findPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit, boolean availableOnly) {
+        return MongoDBUtil.getBooksPage(availableOnly ? AVAILABLE : new Document(), sort, ascending, cursor, backward, limit);
+    }
+
+    @Override
+    public BookPage findPageAt(BookSort sort, boolean ascending, int offset, int limit, boolean availableOnly) {
+        return MongoDBUtil.getBooksPageAt(availableOnly ? AVAILABLE : new Document(), sort, ascending, offset, limit);
+    }
+
+    @Override
+    public CatalogView findView(String search, BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        return MongoDBUtil.getCatalogView(search, sort, ascending, cursor, backward, limit);
+    }
+
+    @Override
+    public BookQueryResult query(BookQuery query) {
+        return MongoDBUtil.queryBooks(query);
+    }
+
+    @Override
+    public int borrow(String bookId) {
+        return MongoDBUtil.borrowBook(bookId);
+    }
+
+    @Override
+    public int returnBook(String bookId) {
+        return MongoDBUtil.returnBook(bookId);
+    }
+
+    @Override
+    public List<BorrowResult> borrowAll(List<String> bookIds) {
+        return MongoDBUtil.borrowBooks(bookIds);
+    }
+
+    @Override
+    public CatalogStats stats() {
+        return CatalogCounters.read();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.library;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Builds the MongoClient from external configuration: the properties file named by
+// -Dlibrary.config (default ./library.properties, if present), with any -D system property
+// of the same name taking precedence. Settings that are not configured keep the driver's
+// defaults or whatever the connection string says. See library.properties.example.
+//
+// Reads are routed per workload. Catalog browsing and search may go to secondaries with
+// bounded staleness; everything else (borrow/return, account lookups, the reads that follow
+// a write) always reads from the primary.
+public final class MongoClientFactory {
+    public enum Workload {
+        BROWSE("browse"),
+        SEARCH("search");
+
+        private final String key;
+
+        Workload(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final String DEFAULT_URI = "mongodb+srv:/MongoSecretUrl/?retryWrites=true&w=majority&appName=libraryDB";
+    // The server rejects anything lower.
+    private static final long MIN_STALENESS_SECONDS = 90;
+
+    private static final Properties config = load();
+
+    private MongoClientFactory() {
+    }
+
+    public static String databaseName() {
+        return get("mongo.database", "libraryDB");
+    }
+
+    public static MongoClient create() {
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(get("mongo.uri", DEFAULT_URI)))
+                // Every command and pool checkout is reported to QueryMetrics for the Diagnostics tab and JMX.
+                .addCommandListener(QueryMetrics.INSTANCE)
+                .applyToConnectionPoolSettings(pool -> {
+                    pool.addConnectionPoolListener(QueryMetrics.INSTANCE);
+                    if (has("mongo.pool.maxSize"))
+                        pool.maxSize(getInt("mongo.pool.maxSize"));
+                    if (has("mongo.pool.minSize"))
+                        pool.minSize(getInt("mongo.pool.minSize"));
+                    if (has("mongo.pool.maxWaitMillis"))
+                        pool.maxWaitTime(getInt("mongo.pool.maxWaitMillis"), TimeUnit.MILLISECONDS);
+                    if (has("mongo.pool.maxIdleMillis"))
+                        pool.maxConnectionIdleTime(getInt("mongo.pool.maxIdleMillis"), TimeUnit.MILLISECONDS);
+                })
+                .applyToSocketSettings(socket -> {
+                    if (has("mongo.connectTimeoutMillis"))
+                        socket.connectTimeout(getInt("mongo.connectTimeoutMillis"), TimeUnit.MILLISECONDS);
+                    if (has("mongo.socketTimeoutMillis"))
+                        socket.readTimeout(getInt("mongo.socketTimeoutMillis"), TimeUnit.MILLISECONDS);
+                })
+                .applyToClusterSettings(cluster -> {
+                    if (has("mongo.serverSelectionTimeoutMillis"))
+                        cluster.serverSelectionTimeout(getInt("mongo.serverSelectionTimeoutMillis"), TimeUnit.MILLISECONDS);
+                });
+        List<MongoCompressor> compressors = compressors(get("mongo.compressors", "zstd,snappy,zlib"));
+        if (!compressors.isEmpty())
+            settings.compressorList(compressors);
+        return MongoClients.create(settings.build());
+    }
+
+    // mongo.read.<workload> names the mode (primary, primaryPreferred, secondary,
+    // secondaryPreferred, nearest); mongo.read.<workload>.maxStalenessSeconds bounds how
+    // far behind a secondary may be. Unconfigured workloads read from the primary.
+    public static ReadPreference readPreference(Workload workload) {
+        String mode = get("mongo.read." + workload.key, "primary");
+        if (mode.equalsIgnoreCase("primary"))
+            return ReadPreference.primary();
+        String stalenessKey = "mongo.read." + workload.key + ".maxStalenessSeconds";
+        if (!has(stalenessKey))
+            return ReadPreference.valueOf(mode);
+        long staleness = Long.parseLong(get(stalenessKey, null).trim());
+        if (staleness < MIN_STALENESS_SECONDS) {
+            System.out.println(stalenessKey + " raised to the minimum of " + MIN_STALENESS_SECONDS + " seconds");
+            staleness = MIN_STALENESS_SECONDS;
+        }
+        return ReadPreference.valueOf(mode, Collections.emptyList(), staleness, TimeUnit.SECONDS);
+    }
+
+    // Offers the server each requested compressor whose library is on the classpath, in order.
+    private static List<MongoCompressor> compressors(String names) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        for (String name : names.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "zstd":
+                    if (onClasspath("com.github.luben.zstd.Zstd"))
+                        compressors.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "snappy":
+                    if (onClasspath("org.xerial.snappy.Snappy"))
+                        compressors.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "":
+                case "none":
+                    break;
+                default:
+                    System.out.println("Unknown compressor ignored: " + name);
+            }
+        }
+        return compressors;
+    }
+
+    private static boolean onClasspath(String className) {
+        try {
+            Class.forName(className, false, MongoClientFactory.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException ex) {
+            System.out.println(className + " not on the classpath, compressor skipped");
+            return false;
+        }
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        Path file = Paths.get(System.getProperty("library.config", "library.properties"));
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                System.out.println("Loaded configuration from " + file.toAbsolutePath());
+            } catch (IOException ex) {
+                System.out.println("Unable to read " + file + ": " + ex.getMessage());
+                ex.printStackTrace();
+            }
+        }
+        return properties;
+    }
+
+    private static boolean has(String key) {
+        return get(key, null) != null;
+    }
+
+    private static String get(String key, String defaultValue) {
+        return System.getProperty(key, config.getProperty(key, defaultValue));
+    }
+
+    private static int getInt(String key) {
+        return Integer.parseInt(get(key, null).trim());
+    }
+}
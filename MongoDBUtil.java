@@ -1,27 +1,160 @@
 package com.example.library;
 
 import com.mongodb.client.*;
-import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Date;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class MongoDBUtil {
-    private static final String CONNECTION_STRING = "mongodb+srv:/MongoSecretUrl/?retryWrites=true&w=majority&appName=libraryDB";
-    private static final String DATABASE_NAME = "libraryDB";
+    // Connection, pool, timeout, compression and read-routing settings come from MongoClientFactory.
+    private static final MongoClient mongoClient = MongoClientFactory.create();
+    // Model codecs decode straight from the wire into the POJOs; Document keeps the default codecs.
+    private static final CodecRegistry codecRegistry = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new BookCodec(), new MemberCodec(), new StaffCodec(), new AdminCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+    private static final MongoDatabase database = mongoClient.getDatabase(MongoClientFactory.databaseName()).withCodecRegistry(codecRegistry);
 
-    private static final MongoClient mongoClient = MongoClients.create(CONNECTION_STRING);
-    private static final MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+    static MongoDatabase getDatabase() {
+        return database;
+    }
+
+    // Opens up to `connections` pooled connections at once by pinging from that many threads,
+    // so the first queries after startup don't each wait for a handshake in turn.
+    static void warmUp(int connections) {
+        List<Thread> pingers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread pinger = new Thread(() -> {
+                try {
+                    database.runCommand(new Document("ping", 1));
+                } catch (Exception ex) {
+                    System.out.println("Connection warm-up failed: " + ex.getMessage());
+                }
+            }, "mongo-warmup-" + (i + 1));
+            pinger.setDaemon(true);
+            pinger.start();
+            pingers.add(pinger);
+        }
+        for (Thread pinger : pingers) {
+            try {
+                pinger.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 
     // BOOK COLLECTION & METHODS
     private static final MongoCollection<Document> bookCollection = database.getCollection("books");
+    private static final MongoCollection<Book> typedBookCollection = bookCollection.withDocumentClass(Book.class);
+    // Catalog lists, pages, counts and title queries may read from a secondary. Writes,
+    // borrow/return, cache fills and the search-index load stay on the primary, so nothing
+    // stale is written back over newer state.
+    private static final MongoCollection<Document> browseBookCollection =
+            bookCollection.withReadPreference(MongoClientFactory.readPreference(MongoClientFactory.Workload.BROWSE));
+    private static final MongoCollection<Book> typedBrowseBookCollection = browseBookCollection.withDocumentClass(Book.class);
+    private static final MongoCollection<Book> typedSearchBookCollection = typedBookCollection
+            .withReadPreference(MongoClientFactory.readPreference(MongoClientFactory.Workload.SEARCH));
+    // The fields the book tables display; list queries project to these by default.
+    static final Bson BOOK_FIELDS = Projections.fields(
+            Projections.include("bookId", "title", "author", "publishedDate", "quantity"), Projections.excludeId());
+
+    // Read-through cache for single-book lookups; sized and aged via system properties.
+    private static final BookCache bookCache = new BookCache(
+            Integer.getInteger("library.bookCache.size", 10_000),
+            Long.getLong("library.bookCache.ttlSeconds", 300L));
+
+    public static BookCache getBookCache() {
+        return bookCache;
+    }
+
+    public static Book getBook(String bookId) {
+        Book book = bookCache.get(bookId);
+        if (book != null)
+            return book;
+        book = typedBookCollection.find(Filters.eq("bookId", bookId)).projection(BOOK_FIELDS).first();
+        if (book == null)
+            return null;
+        bookCache.put(bookId, book);
+        return book;
+    }
+
+    // In-memory title/author search, kept current by the book write paths below.
+    private static final BookSearchIndex searchIndex = new BookSearchIndex();
 
+    public static BookSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    // Streams every book without materializing the collection, keyed by bookId
+    // (or the _id for books stored without one).
+    public static void forEachBook(BiConsumer<String, Book> action) {
+        FindIterable<Book> books = typedBookCollection.find()
+                .projection(Projections.include("bookId", "title", "author", "publishedDate", "quantity"))
+                .batchSize(1000);
+        for (Book book : books) {
+            action.accept(book.getId() != null ? book.getId() : book.getDocumentId(), book);
+        }
+    }
+
+    // Every book stored with an ObjectId _id, in _id order, for the CatalogSnapshot rebuild.
+    static void forEachBookById(BiConsumer<ObjectId, Book> action) {
+        FindIterable<Book> books = typedBookCollection.find(Filters.type("_id", BsonType.OBJECT_ID))
+                .projection(VIEW_FIELDS)
+                .sort(Sorts.ascending("_id"))
+                .batchSize(10_000);
+        for (Book book : books) {
+            action.accept(new ObjectId(book.getDocumentId()), book);
+        }
+    }
+
+    private static String searchKey(Document doc) {
+        String bookId = doc.getString("bookId");
+        return bookId != null ? bookId : doc.getObjectId("_id").toHexString();
+    }
+
+    // IDs are checked against the IdFilter first; only a possible duplicate costs a query.
     public static void insertBook(Book book) {
+        if (IdFilter.BOOK_IDS.isDuplicate(book.getId(), id -> exists(bookCollection, "bookId", id)))
+            throw new IllegalStateException("Duplicate bookId: " + book.getId());
         Document doc = new Document("title", book.getTitle())
                 .append("author", book.getAuthor())
                 .append("publishedDate", book.getPublishedDate())
@@ -30,56 +163,161 @@ public class MongoDBUtil {
             doc.append("bookId", book.getId());
         bookCollection.insertOne(doc);
         System.out.println("Inserted Book: " + doc.toJson());
+        CatalogCounters.increment(book.getQuantity(), 1, CatalogCounters.outOfStock(book.getQuantity()));
+        searchIndex.put(searchKey(doc), documentToBook(doc));
+        IdFilter.BOOK_IDS.add(book.getId());
+    }
+
+    // Covered by the field's unique index.
+    private static boolean exists(MongoCollection<Document> collection, String field, String value) {
+        return collection.find(Filters.eq(field, value))
+                .projection(Projections.fields(Projections.include(field), Projections.excludeId()))
+                .first() != null;
+    }
+
+    static long countDocuments(String collection) {
+        return database.getCollection(collection).estimatedDocumentCount();
+    }
+
+    // Streams one field of every document that has it, for the IdFilter load.
+    static void forEachValue(String collection, String field, Consumer<String> action) {
+        FindIterable<Document> docs = database.getCollection(collection).find(Filters.exists(field))
+                .projection(Projections.fields(Projections.include(field), Projections.excludeId()))
+                .batchSize(10_000);
+        for (Document doc : docs) {
+            Object value = doc.get(field);
+            if (value != null)
+                action.accept(value.toString());
+        }
+    }
+
+    // Unordered bulk insert used by the catalog importer. The server keeps going past
+    // failed documents; their indexes are returned with the error that rejected them.
+    static Map<Integer, BulkWriteError> insertBooks(List<Document> docs) {
+        Map<Integer, BulkWriteError> errors = new HashMap<>();
+        try {
+            bookCollection.insertMany(docs, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException ex) {
+            for (BulkWriteError error : ex.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+            }
+        }
+        long copies = 0;
+        long outOfStock = 0;
+        boolean indexing = searchIndex.isReady();
+        for (int i = 0; i < docs.size(); i++) {
+            if (errors.containsKey(i))
+                continue;
+            Document doc = docs.get(i);
+            int qty = doc.getInteger("quantity", 0);
+            copies += qty;
+            outOfStock += CatalogCounters.outOfStock(qty);
+            if (indexing)
+                searchIndex.put(searchKey(doc), documentToBook(doc));
+            IdFilter.BOOK_IDS.add(doc.getString("bookId"));
+        }
+        CatalogCounters.increment(copies, docs.size() - errors.size(), outOfStock);
+        return errors;
     }
 
     public static void updateBook(String bookId, Document updateFields) {
         Document updateDoc = new Document("$set", updateFields);
-        UpdateResult result = bookCollection.updateOne(Filters.eq("bookId", bookId), updateDoc);
-        System.out.println("Matched: " + result.getMatchedCount() + ", Modified: " + result.getModifiedCount());
+        // The pre-image gives the quantity delta for the catalog counters.
+        Document before = bookCollection.findOneAndUpdate(Filters.eq("bookId", bookId), updateDoc,
+                new FindOneAndUpdateOptions()
+                        .projection(BOOK_FIELDS)
+                        .returnDocument(ReturnDocument.BEFORE));
+        System.out.println("Matched: " + (before != null ? 1 : 0));
+        bookCache.invalidate(bookId);
+        if (before == null)
+            return;
+        if (updateFields.containsKey("quantity")) {
+            int oldQty = before.getInteger("quantity", 0);
+            int newQty = updateFields.getInteger("quantity");
+            CatalogCounters.increment(newQty - oldQty, 0,
+                    CatalogCounters.outOfStock(newQty) - CatalogCounters.outOfStock(oldQty));
+        }
+        Document after = new Document(before);
+        after.putAll(updateFields);
+        searchIndex.put(searchKey(after), documentToBook(after));
     }
 
     public static void deleteBook(String bookId) {
-        DeleteResult result = bookCollection.deleteOne(Filters.eq("bookId", bookId));
-        System.out.println("Deleted Count: " + result.getDeletedCount());
+        Document deleted = bookCollection.findOneAndDelete(Filters.eq("bookId", bookId),
+                new FindOneAndDeleteOptions().projection(Projections.include("quantity")));
+        System.out.println("Deleted Count: " + (deleted != null ? 1 : 0));
+        bookCache.invalidate(bookId);
+        if (deleted != null) {
+            int qty = deleted.getInteger("quantity", 0);
+            CatalogCounters.increment(-qty, -1, -CatalogCounters.outOfStock(qty));
+            searchIndex.remove(bookId);
+            IdFilter.BOOK_IDS.remove(bookId);
+        }
     }
 
     public static List<Book> getAllBooks() {
-        List<Book> books = new ArrayList<>();
-        FindIterable<Document> docs = bookCollection.find();
-        for (Document doc : docs) {
-            Book book = new Book();
-            book.setId(doc.getString("bookId"));
-            book.setTitle(doc.getString("title"));
-            book.setAuthor(doc.getString("author"));
-            book.setPublishedDate(doc.getDate("publishedDate"));
-            book.setQuantity(doc.getInteger("quantity", 0));
-            books.add(book);
+        return getAllBooks(BOOK_FIELDS);
+    }
+
+    // projection limits the decoded fields to what the caller displays.
+    public static List<Book> getAllBooks(Bson projection) {
+        return typedBrowseBookCollection.find().projection(projection).into(new ArrayList<>());
+    }
+
+    // The same rows as getAllBooks, one batch at a time, in _id order.
+    static void forEachBrowseBook(Consumer<Book> action) {
+        FindIterable<Book> books = typedBrowseBookCollection.find()
+                .projection(BOOK_FIELDS)
+                .sort(Sorts.ascending("_id"))
+                .batchSize(1000);
+        for (Book book : books) {
+            action.accept(book);
         }
-        return books;
     }
 
-    public static List<Book> searchBooksByTitle(String titlePattern) {
-        List<Book> books = new ArrayList<>();
-        FindIterable<Document> docs = bookCollection.find(
-                Filters.regex("title", ".*" + titlePattern + ".*", "i")
-        );
-        for (Document doc : docs) {
-            Book book = new Book();
-            book.setId(doc.getString("bookId"));
-            book.setTitle(doc.getString("title"));
-            book.setAuthor(doc.getString("author"));
-            book.setPublishedDate(doc.getDate("publishedDate"));
-            book.setQuantity(doc.getInteger("quantity", 0));
-            books.add(book);
+    // Case-insensitive prefix search. Same collation as the title_prefix_ci index;
+    // U+FFFF sorts after every real character, so it closes the range.
+    static final Collation TITLE_COLLATION = Collation.builder()
+            .locale("en")
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
+
+    public static List<Book> searchBooksByTitle(String titlePattern, TitleSearchMode mode) {
+        switch (mode) {
+            case PREFIX:
+                return typedSearchBookCollection.find(titlePrefixFilter(titlePattern))
+                        .collation(TITLE_COLLATION)
+                        .projection(BOOK_FIELDS)
+                        .into(new ArrayList<>());
+            case TEXT:
+                return typedSearchBookCollection.find(Filters.text(titlePattern))
+                        .projection(Projections.fields(BOOK_FIELDS, Projections.metaTextScore("score")))
+                        .sort(Sorts.metaTextScore("score"))
+                        .into(new ArrayList<>());
+            default:
+                return searchBooksByTitle(titlePattern);
         }
-        return books;
+    }
+
+    static Bson titlePrefixFilter(String prefix) {
+        return Filters.and(Filters.gte("title", prefix), Filters.lt("title", prefix + "\uffff"));
+    }
+
+    static Bson authorPrefixFilter(String prefix) {
+        return Filters.and(Filters.gte("author", prefix), Filters.lt("author", prefix + "\uffff"));
+    }
+
+    public static List<Book> searchBooksByTitle(String titlePattern) {
+        return typedSearchBookCollection.find(Filters.regex("title", ".*" + titlePattern + ".*", "i"))
+                .projection(BOOK_FIELDS)
+                .into(new ArrayList<>());
     }
 
     public static int getTotalQuantity() {
         List<Document> pipeline = new ArrayList<>();
         pipeline.add(new Document("$group", new Document("_id", null)
                 .append("totalQuantity", new Document("$sum", "$quantity"))));
-        AggregateIterable<Document> result = bookCollection.aggregate(pipeline);
+        AggregateIterable<Document> result = browseBookCollection.aggregate(pipeline);
         int total = 0;
         for (Document doc : result) {
             total = doc.getInteger("totalQuantity", 0);
@@ -88,64 +326,408 @@ public class MongoDBUtil {
     }
 
     public static long getBooksCount() {
-        return bookCollection.countDocuments();
+        return browseBookCollection.countDocuments();
     }
 
     public static List<Book> getBooksWithPagination(int skip, int limit) {
+        return typedBrowseBookCollection.find().projection(BOOK_FIELDS).skip(skip).limit(limit).into(new ArrayList<>());
+    }
+
+    // Keyset pagination: each page seeks past the boundary row of the previous one on
+    // the (sort field, _id) index instead of using skip(), so deep pages cost the same
+    // as the first. cursor is a token from a previous BookPage (null for the first page);
+    // backward pages towards the start using the current page's first cursor.
+    public static BookPage getBooksPage(BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        return getBooksPage(new Document(), sort, ascending, cursor, backward, limit);
+    }
+
+    // Same, restricted to the books matching filter.
+    public static BookPage getBooksPage(Bson filter, BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        boolean scanAscending = ascending != backward;
+        Bson query = cursor == null ? filter : Filters.and(filter, seekFilter(sort, decodeCursor(cursor), scanAscending));
+        List<Document> docs = browseBookCollection.find(query)
+                .sort(sort.orderBy(scanAscending))
+                .limit(limit + 1)
+                .into(new ArrayList<>());
+        BookPage page = toPage(sort, docs, cursor, backward, limit);
+        // Fewer than a page left before the cursor: show a full first page instead.
+        return page != null ? page : getBooksPage(filter, sort, ascending, null, false, limit);
+    }
+
+    // Turns up to limit + 1 rows in scan order into a page, or null when a backward page
+    // came up short and the caller should load the first page.
+    private static BookPage toPage(BookSort sort, List<Document> docs, String cursor, boolean backward, int limit) {
+        boolean more = docs.size() > limit;
+        if (more)
+            docs.remove(limit);
+        if (backward) {
+            if (!more)
+                return null;
+            Collections.reverse(docs);
+        }
+
         List<Book> books = new ArrayList<>();
-        FindIterable<Document> docs = bookCollection.find().skip(skip).limit(limit);
         for (Document doc : docs) {
-            Book book = new Book();
-            book.setId(doc.getString("bookId"));
-            book.setTitle(doc.getString("title"));
-            book.setAuthor(doc.getString("author"));
-            book.setPublishedDate(doc.getDate("publishedDate"));
-            book.setQuantity(doc.getInteger("quantity", 0));
-            books.add(book);
+            books.add(documentToBook(doc));
+        }
+        String firstCursor = docs.isEmpty() ? null : encodeCursor(sort, docs.get(0));
+        String lastCursor = docs.isEmpty() ? null : encodeCursor(sort, docs.get(docs.size() - 1));
+        boolean hasPrevious = backward ? more : cursor != null;
+        boolean hasNext = backward || more;
+        return new BookPage(books, firstCursor, lastCursor, hasPrevious, hasNext);
+    }
+
+    // A catalog page and its totals in one round trip. Without a search the page is the
+    // usual keyset query and the catalog counters document is appended to its results with
+    // $unionWith, so the totals stay an _id lookup. With a search (the HTTP API's; the Books
+    // tab searches the in-memory index) the title/author prefix match is sorted and cut to
+    // the page before anything else, and a $unionWith of the same match grouped into one
+    // totals document counts every match. Only the page is ever sorted, as a top-k sort,
+    // and allowDiskUse covers a grouping too large for memory.
+    public static CatalogView getCatalogView(String search, BookSort sort, boolean ascending, String cursor, boolean backward, int limit) {
+        boolean scanAscending = ascending != backward;
+        boolean searching = search != null && !search.isEmpty();
+        Bson matches = searching ? Filters.or(titlePrefixFilter(search), authorPrefixFilter(search)) : new Document();
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(cursor == null ? matches
+                : Filters.and(matches, seekFilter(sort, decodeCursor(cursor), scanAscending))));
+        pipeline.add(Aggregates.sort(sort.orderBy(scanAscending)));
+        pipeline.add(Aggregates.limit(limit + 1));
+        pipeline.add(Aggregates.project(VIEW_FIELDS));
+        if (searching) {
+            pipeline.add(Aggregates.unionWith("books", Arrays.asList(
+                    Aggregates.match(matches),
+                    Aggregates.group(SEARCH_TOTALS_ID,
+                            Accumulators.sum("totalTitles", 1),
+                            Accumulators.sum("totalCopies", "$quantity"),
+                            Accumulators.sum("outOfStock", new Document("$cond",
+                                    Arrays.asList(new Document("$lte", Arrays.asList("$quantity", 0)), 1, 0)))))));
+        } else {
+            pipeline.add(Aggregates.unionWith("stats",
+                    Collections.singletonList(Aggregates.match(Filters.eq("_id", CatalogCounters.STATS_ID)))));
+        }
+        Object totalsId = searching ? SEARCH_TOTALS_ID : CatalogCounters.STATS_ID;
+
+        List<Document> docs = new ArrayList<>();
+        CatalogStats totals = null;
+        AggregateIterable<Document> results = browseBookCollection.aggregate(pipeline).allowDiskUse(true);
+        if (searching)
+            results = results.collation(TITLE_COLLATION);
+        for (Document doc : results) {
+            if (totalsId.equals(doc.get("_id")))
+                totals = CatalogCounters.toStats(doc);
+            else
+                docs.add(doc);
+        }
+        if (totals == null)
+            totals = searching ? new CatalogStats(0, 0, 0) : CatalogCounters.read();
+        BookPage page = toPage(sort, docs, cursor, backward, limit);
+        if (page == null)
+            return getCatalogView(search, sort, ascending, null, false, limit);
+        return new CatalogView(page, totals);
+    }
+
+    // Multi-criteria query (see BookQuery): one keyset page on the index BookQueryPlanner
+    // picks, hinted so the plan reported is the one that ran. If that index is missing
+    // (its creation failed at startup) the query is retried and the server picks.
+    public static BookQueryResult queryBooks(BookQuery query) {
+        BookQueryPlan plan = BookQueryPlanner.plan(query, BookQueryPlanner.MONGO_INDEXES);
+        List<Document> docs;
+        try {
+            docs = bookQuery(query, plan.getIndex()).into(new ArrayList<>());
+        } catch (MongoServerException ex) {
+            System.out.println("Index " + plan.getIndex() + " unusable, running without a hint: " + ex.getMessage());
+            plan = new BookQueryPlan(null, new ArrayList<>(), false, new ArrayList<>(), new ArrayList<>());
+            docs = bookQuery(query, null).into(new ArrayList<>());
         }
-        return books;
+        BookPage page = toPage(query.getSort(), docs, query.getCursor(), query.isBackward(), query.getLimit());
+        if (page == null)
+            return queryBooks(query.copy().page(null, false));
+        return new BookQueryResult(page, plan);
+    }
+
+    // The find behind queryBooks, in scan order with one row past the page; also explained
+    // by IndexManager.verifyQueryPlans.
+    static FindIterable<Document> bookQuery(BookQuery query, String index) {
+        boolean scanAscending = query.isAscending() != query.isBackward();
+        List<Bson> filters = new ArrayList<>();
+        if (query.getAuthor() != null)
+            filters.add(Filters.eq("author", query.getAuthor()));
+        if (query.getTitlePrefix() != null)
+            filters.add(titlePrefixFilter(query.getTitlePrefix()));
+        if (query.getPublishedFrom() != null)
+            filters.add(Filters.gte("publishedDate", query.getPublishedFrom()));
+        if (query.getPublishedBefore() != null)
+            filters.add(Filters.lt("publishedDate", query.getPublishedBefore()));
+        if (query.isAvailableOnly())
+            filters.add(Filters.gt("quantity", 0));
+        if (query.getCursor() != null)
+            filters.add(seekFilter(query.getSort(), decodeCursor(query.getCursor()), scanAscending));
+        FindIterable<Document> find = browseBookCollection.find(filters.isEmpty() ? new Document() : Filters.and(filters))
+                .collation(TITLE_COLLATION)
+                .sort(query.getSort().orderBy(scanAscending))
+                .limit(query.getLimit() + 1)
+                .projection(VIEW_FIELDS);
+        return index == null ? find : find.hintString(index);
+    }
+
+    // BOOK_FIELDS plus _id, which the page cursors are built from.
+    private static final Bson VIEW_FIELDS = Projections.include("bookId", "title", "author", "publishedDate", "quantity");
+    // _id of the search totals document getCatalogView appends to a page; book _ids are ObjectIds.
+    private static final String SEARCH_TOTALS_ID = "searchTotals";
+
+    // Positional page for jumping straight to an offset (e.g. dragging a scrollbar), where no
+    // neighbouring cursor is known. Costs O(offset) index keys, so prefer the cursor form.
+    public static BookPage getBooksPageAt(Bson filter, BookSort sort, boolean ascending, int offset, int limit) {
+        List<Document> docs = browseBookCollection.find(filter)
+                .sort(sort.orderBy(ascending))
+                .skip(offset)
+                .limit(limit + 1)
+                .into(new ArrayList<>());
+        boolean more = docs.size() > limit;
+        if (more)
+            docs.remove(limit);
+        List<Book> books = new ArrayList<>();
+        for (Document doc : docs) {
+            books.add(documentToBook(doc));
+        }
+        String firstCursor = docs.isEmpty() ? null : encodeCursor(sort, docs.get(0));
+        String lastCursor = docs.isEmpty() ? null : encodeCursor(sort, docs.get(docs.size() - 1));
+        return new BookPage(books, firstCursor, lastCursor, offset > 0, more);
+    }
+
+    private static Bson seekFilter(BookSort sort, Document cursor, boolean scanAscending) {
+        Object id = cursor.get("id");
+        if (sort == BookSort.NATURAL)
+            return scanAscending ? Filters.gt("_id", id) : Filters.lt("_id", id);
+        String field = sort.getField();
+        Object value = cursor.get("v");
+        // Null and missing values sort before everything else, but $gt/$lt never match them
+        // and comparing against null matches nothing: the null rows are handled on their own.
+        if (value == null) {
+            Bson tied = Filters.and(Filters.eq(field, null), scanAscending ? Filters.gt("_id", id) : Filters.lt("_id", id));
+            return scanAscending ? Filters.or(tied, Filters.ne(field, null)) : tied;
+        }
+        if (scanAscending)
+            return Filters.or(Filters.gt(field, value),
+                    Filters.and(Filters.eq(field, value), Filters.gt("_id", id)));
+        return Filters.or(Filters.lt(field, value),
+                Filters.and(Filters.eq(field, value), Filters.lt("_id", id)),
+                Filters.eq(field, null));
+    }
+
+    // The cursor is the row's sort value and _id as extended JSON, so dates and
+    // ObjectIds round-trip with their types intact.
+    private static String encodeCursor(BookSort sort, Document doc) {
+        Document cursor = new Document("v", doc.get(sort.getField())).append("id", doc.get("_id"));
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(cursor.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Document decodeCursor(String cursor) {
+        return Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+    }
+
+    // A book written elsewhere, as seen by the BookChangeWatcher: refreshes the cache and the
+    // search index so this desk's lookups don't serve the old copy. While the index is still
+    // loading this also keeps the scan from storing an older copy of the book.
+    static Book bookChanged(Document doc) {
+        Book book = documentToBook(doc);
+        String key = searchKey(doc);
+        if (book.getId() != null)
+            bookCache.refresh(book.getId(), book);
+        searchIndex.put(key, book);
+        return book;
+    }
+
+    // A book deleted elsewhere, known only by its _id: evicted from the search index (and so
+    // from the typeahead and the circulation log's stock check), the cache and the ID filter,
+    // as deleteBook does for this desk's own deletes.
+    static void bookDeleted(String documentId) {
+        String key = searchIndex.removeDocument(documentId);
+        if (key == null || key.equals(documentId))
+            return;
+        bookCache.invalidate(key);
+        IdFilter.BOOK_IDS.remove(key);
+    }
+
+    private static Book documentToBook(Document doc) {
+        Book book = new Book();
+        Object id = doc.get("_id");
+        if (id instanceof ObjectId)
+            book.setDocumentId(((ObjectId) id).toHexString());
+        else if (id instanceof String)
+            book.setDocumentId((String) id);
+        book.setId(doc.getString("bookId"));
+        book.setTitle(doc.getString("title"));
+        book.setAuthor(doc.getString("author"));
+        book.setPublishedDate(doc.getDate("publishedDate"));
+        book.setQuantity(doc.getInteger("quantity", 0));
+        return book;
     }
 
     // STAFF FUNCTIONS: Borrow and Return Books.
-    public static boolean borrowBook(String bookId) {
-        Document bookDoc = bookCollection.find(Filters.eq("bookId", bookId)).first();
-        if (bookDoc != null) {
-            int qty = bookDoc.getInteger("quantity", 0);
-            if (qty > 0) {
-                bookCollection.updateOne(
-                        Filters.eq("bookId", bookId),
-                        new Document("$inc", new Document("quantity", -1))
-                );
-                System.out.println("Book borrowed. New quantity: " + (qty - 1));
-                return true;
-            }
+    // Both are a single conditional findOneAndUpdate, so the stock check and the
+    // decrement happen atomically on the server and two desks can't oversell the last copy.
+    // Returns the new quantity, or -1 if the book doesn't exist or is out of stock.
+    public static int borrowBook(String bookId) {
+        Document bookDoc = bookCollection.findOneAndUpdate(
+                Filters.and(Filters.eq("bookId", bookId), Filters.gt("quantity", 0)),
+                Updates.inc("quantity", -1),
+                new FindOneAndUpdateOptions()
+                        .projection(BOOK_FIELDS)
+                        .returnDocument(ReturnDocument.AFTER)
+        );
+        if (bookDoc == null) {
+            return -1;
+        }
+        return afterCirculation(bookId, bookDoc, -1);
+    }
+
+    // Returns the new quantity, or -1 if the book doesn't exist.
+    public static int returnBook(String bookId) {
+        Document bookDoc = bookCollection.findOneAndUpdate(
+                Filters.eq("bookId", bookId),
+                Updates.inc("quantity", 1),
+                new FindOneAndUpdateOptions()
+                        .projection(BOOK_FIELDS)
+                        .returnDocument(ReturnDocument.AFTER)
+        );
+        if (bookDoc == null) {
+            return -1;
         }
-        return false;
+        return afterCirculation(bookId, bookDoc, 1);
+    }
+
+    // Replayed circulation operations (see CirculationLog) carry an idempotency key. The
+    // last APPLIED_OPS_KEPT keys are kept on the book, so applying an operation that has
+    // already landed changes nothing and reports the book's current quantity.
+    private static final int APPLIED_OPS_KEPT = 64;
+
+    // Returns the new quantity, or -1 if the book doesn't exist or is out of stock.
+    public static int borrowBook(String bookId, ObjectId opId) {
+        return applyOnce(bookId, opId, -1);
+    }
+
+    // Returns the new quantity, or -1 if the book doesn't exist.
+    public static int returnBook(String bookId, ObjectId opId) {
+        return applyOnce(bookId, opId, 1);
+    }
+
+    private static int applyOnce(String bookId, ObjectId opId, int delta) {
+        Bson filter = Filters.and(Filters.eq("bookId", bookId), Filters.ne("appliedOps", opId));
+        if (delta < 0)
+            filter = Filters.and(filter, Filters.gt("quantity", 0));
+        Document bookDoc = bookCollection.findOneAndUpdate(filter,
+                Updates.combine(Updates.inc("quantity", delta),
+                        Updates.pushEach("appliedOps", Collections.singletonList(opId),
+                                new PushOptions().slice(-APPLIED_OPS_KEPT))),
+                new FindOneAndUpdateOptions()
+                        .projection(BOOK_FIELDS)
+                        .returnDocument(ReturnDocument.AFTER)
+        );
+        if (bookDoc != null)
+            return afterCirculation(bookId, bookDoc, delta);
+        Document applied = bookCollection.find(Filters.and(Filters.eq("bookId", bookId), Filters.eq("appliedOps", opId)))
+                .projection(BOOK_FIELDS)
+                .first();
+        return applied == null ? -1 : applied.getInteger("quantity", 0);
+    }
+
+    // Counters, cache and search index after a single-copy borrow (delta -1) or return (+1).
+    private static int afterCirculation(String bookId, Document bookDoc, int delta) {
+        int qty = bookDoc.getInteger("quantity", 0);
+        System.out.println((delta < 0 ? "Book borrowed" : "Book returned") + ". New quantity: " + qty);
+        if (delta < 0)
+            CatalogCounters.increment(-1, 0, CatalogCounters.outOfStock(qty));
+        else
+            CatalogCounters.increment(1, 0, qty == 1 ? -1 : 0);
+        bookCache.put(bookId, documentToBook(bookDoc));
+        searchIndex.updateQuantity(bookId, qty);
+        return qty;
     }
 
-    public static boolean returnBook(String bookId) {
-        Document bookDoc = bookCollection.find(Filters.eq("bookId", bookId)).first();
-        if (bookDoc != null) {
-            bookCollection.updateOne(
-                    Filters.eq("bookId", bookId),
-                    new Document("$inc", new Document("quantity", 1))
-            );
-            System.out.println("Book returned.");
-            return true;
+    // Checks out a whole stack of books with one unordered bulkWrite.
+    // Repeated IDs are grouped into a single decrement, so a title is either fully
+    // checked out or not at all. Each successful update pushes the batch token onto the
+    // book's bounded appliedOps list (as applyOnce does), so batches running at the same
+    // time don't overwrite each other's marks, and one follow-up find reports the outcome
+    // of every item.
+    public static List<BorrowResult> borrowBooks(List<String> bookIds) {
+        Map<String, Integer> requested = new LinkedHashMap<>();
+        for (String bookId : bookIds) {
+            requested.merge(bookId, 1, Integer::sum);
+        }
+        List<BorrowResult> results = new ArrayList<>();
+        if (requested.isEmpty()) {
+            return results;
+        }
+
+        ObjectId batchToken = new ObjectId();
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            writes.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("bookId", entry.getKey()), Filters.gte("quantity", entry.getValue())),
+                    Updates.combine(
+                            Updates.inc("quantity", -entry.getValue()),
+                            Updates.pushEach("appliedOps", Collections.singletonList(batchToken),
+                                    new PushOptions().slice(-APPLIED_OPS_KEPT)),
+                            // Left by the single-token marking this replaced.
+                            Updates.unset("checkoutBatch"))
+            ));
+        }
+        bookCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+
+        Map<String, Document> current = new HashMap<>();
+        for (Document doc : bookCollection.find(Filters.in("bookId", requested.keySet()))
+                .projection(Projections.fields(Projections.include("bookId", "quantity"),
+                        Projections.elemMatch("appliedOps", new Document("$eq", batchToken))))) {
+            current.put(doc.getString("bookId"), doc);
+        }
+        int copiesBorrowed = 0;
+        int soldOut = 0;
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            Document doc = current.get(entry.getKey());
+            BorrowResult.Status status;
+            int qty = -1;
+            if (doc == null) {
+                status = BorrowResult.Status.NOT_FOUND;
+            } else {
+                qty = doc.getInteger("quantity", 0);
+                status = doc.containsKey("appliedOps")
+                        ? BorrowResult.Status.BORROWED
+                        : BorrowResult.Status.OUT_OF_STOCK;
+                bookCache.updateQuantity(entry.getKey(), qty);
+                searchIndex.updateQuantity(entry.getKey(), qty);
+                if (status == BorrowResult.Status.BORROWED) {
+                    copiesBorrowed += entry.getValue();
+                    soldOut += CatalogCounters.outOfStock(qty);
+                }
+            }
+            results.add(new BorrowResult(entry.getKey(), entry.getValue(), status, qty));
         }
-        return false;
+        CatalogCounters.increment(-copiesBorrowed, 0, soldOut);
+        return results;
     }
 
     // ADMIN COLLECTION & METHODS
     private static MongoCollection<Document> adminCollection = database.getCollection("admins");
+    private static final MongoCollection<Admin> typedAdminCollection = adminCollection.withDocumentClass(Admin.class);
+
+    public static Admin getAdmin(String adminId) {
+        return typedAdminCollection.find(Filters.eq("adminId", adminId)).first();
+    }
 
     public static void insertAdmin(Admin admin) {
+        if (IdFilter.ADMIN_IDS.isDuplicate(admin.getId(), id -> exists(adminCollection, "adminId", id)))
+            throw new IllegalStateException("Duplicate adminId: " + admin.getId());
         Document doc = new Document("username", admin.getUsername())
                 .append("password", admin.getPassword());
         if (admin.getId() != null && !admin.getId().isEmpty())
             doc.append("adminId", admin.getId());
         adminCollection.insertOne(doc);
         System.out.println("Inserted Admin: " + doc.toJson());
+        IdFilter.ADMIN_IDS.add(admin.getId());
     }
 
     public static void updateAdmin(String adminId, Document updateFields) {
@@ -157,18 +739,28 @@ public class MongoDBUtil {
     public static void deleteAdmin(String adminId) {
         DeleteResult result = adminCollection.deleteOne(Filters.eq("adminId", adminId));
         System.out.println("Deleted Admin Count: " + result.getDeletedCount());
+        if (result.getDeletedCount() > 0)
+            IdFilter.ADMIN_IDS.remove(adminId);
     }
 
     // STAFF COLLECTION & METHODS (managing staff records)
     private static MongoCollection<Document> staffCollection = database.getCollection("staff");
+    private static final MongoCollection<Staff> typedStaffCollection = staffCollection.withDocumentClass(Staff.class);
+
+    public static Staff getStaff(String staffId) {
+        return typedStaffCollection.find(Filters.eq("staffId", staffId)).first();
+    }
 
     public static void insertStaff(Staff staff) {
+        if (IdFilter.STAFF_IDS.isDuplicate(staff.getId(), id -> exists(staffCollection, "staffId", id)))
+            throw new IllegalStateException("Duplicate staffId: " + staff.getId());
         Document doc = new Document("username", staff.getUsername())
                 .append("password", staff.getPassword());
         if (staff.getId() != null && !staff.getId().isEmpty())
             doc.append("staffId", staff.getId());
         staffCollection.insertOne(doc);
         System.out.println("Inserted Staff: " + doc.toJson());
+        IdFilter.STAFF_IDS.add(staff.getId());
     }
 
     public static void updateStaff(String staffId, Document updateFields) {
@@ -180,12 +772,24 @@ public class MongoDBUtil {
     public static void deleteStaff(String staffId) {
         DeleteResult result = staffCollection.deleteOne(Filters.eq("staffId", staffId));
         System.out.println("Deleted Staff Count: " + result.getDeletedCount());
+        if (result.getDeletedCount() > 0)
+            IdFilter.STAFF_IDS.remove(staffId);
     }
 
     // MEMBER COLLECTION & METHODS
     private static MongoCollection<Document> memberCollection = database.getCollection("members");
+    private static final MongoCollection<Member> typedMemberCollection = memberCollection.withDocumentClass(Member.class);
+
+    public static Member getMember(String memberId) {
+        return typedMemberCollection.find(Filters.eq("memberId", memberId)).first();
+    }
 
     public static void insertMember(Member member) {
+        if (IdFilter.MEMBER_IDS.isDuplicate(member.getId(), id -> exists(memberCollection, "memberId", id)))
+            throw new IllegalStateException("Duplicate memberId: " + member.getId());
+        if (IdFilter.MEMBERSHIP_NUMBERS.isDuplicate(member.getMembershipNumber(),
+                number -> exists(memberCollection, "membershipNumber", number)))
+            throw new IllegalStateException("Duplicate membershipNumber: " + member.getMembershipNumber());
         Document doc = new Document("name", member.getName())
                 .append("membershipNumber", member.getMembershipNumber())
                 .append("password", member.getPassword());
@@ -193,17 +797,27 @@ public class MongoDBUtil {
             doc.append("memberId", member.getId());
         memberCollection.insertOne(doc);
         System.out.println("Inserted Member: " + doc.toJson());
+        IdFilter.MEMBER_IDS.add(member.getId());
+        IdFilter.MEMBERSHIP_NUMBERS.add(member.getMembershipNumber());
     }
 
     public static void updateMember(String memberId, Document updateFields) {
         Document updateDoc = new Document("$set", updateFields);
         UpdateResult result = memberCollection.updateOne(Filters.eq("memberId", memberId), updateDoc);
         System.out.println("Member Matched: " + result.getMatchedCount() + ", Modified: " + result.getModifiedCount());
+        // The old number's fingerprint stays behind; it can only cause an extra lookup.
+        if (result.getModifiedCount() > 0 && updateFields.containsKey("membershipNumber"))
+            IdFilter.MEMBERSHIP_NUMBERS.add(updateFields.getString("membershipNumber"));
     }
 
     public static void deleteMember(String memberId) {
-        DeleteResult result = memberCollection.deleteOne(Filters.eq("memberId", memberId));
-        System.out.println("Deleted Member Count: " + result.getDeletedCount());
+        Document deleted = memberCollection.findOneAndDelete(Filters.eq("memberId", memberId),
+                new FindOneAndDeleteOptions().projection(Projections.include("membershipNumber")));
+        System.out.println("Deleted Member Count: " + (deleted != null ? 1 : 0));
+        if (deleted != null) {
+            IdFilter.MEMBER_IDS.remove(memberId);
+            IdFilter.MEMBERSHIP_NUMBERS.remove(deleted.getString("membershipNumber"));
+        }
     }
 
 }
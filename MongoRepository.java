@@ -0,0 +1,43 @@
+package com.example.library;
+
+import org.bson.Document;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Repository over the static MongoDBUtil operations for one account collection.
+public class MongoRepository<T> implements Repository<T> {
+    private final Consumer<T> insert;
+    private final BiConsumer<String, Document> update;
+    private final Consumer<String> delete;
+    private final Function<String, T> find;
+
+    public MongoRepository(Consumer<T> insert, BiConsumer<String, Document> update,
+                           Consumer<String> delete, Function<String, T> find) {
+        this.insert = insert;
+        this.update = update;
+        this.delete = delete;
+        this.find = find;
+    }
+
+    @Override
+    public void insert(T record) {
+        insert.accept(record);
+    }
+
+    @Override
+    public void update(String id, Document updateFields) {
+        update.accept(id, updateFields);
+    }
+
+    @Override
+    public void delete(String id) {
+        delete.accept(id);
+    }
+
+    @Override
+    public T findById(String id) {
+        return find.apply(id);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.library;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters for one logical operation (borrowBook, searchBooks, ...): end-to-end latency,
+// failed calls, how many MongoDB commands it issued (and how many of those failed) and how
+// long it waited for a pooled connection.
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram poolWait = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong commandFailures = new AtomicLong();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void recordLatency(long micros, boolean failed) {
+        latency.record(micros);
+        if (failed)
+            errors.incrementAndGet();
+    }
+
+    void recordCommand(boolean failed) {
+        commands.incrementAndGet();
+        if (failed)
+            commandFailures.incrementAndGet();
+    }
+
+    void recordPoolWait(long micros) {
+        poolWait.record(micros);
+    }
+
+    @Override
+    public long getCount() {
+        return latency.count();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getCommands() {
+        return commands.get();
+    }
+
+    @Override
+    public long getCommandFailures() {
+        return commandFailures.get();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.percentile(0.50);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.percentile(0.99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.percentile(0.999);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.max();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.mean();
+    }
+
+    @Override
+    public long getPoolWaitP99Micros() {
+        return poolWait.percentile(0.99);
+    }
+
+    @Override
+    public double getPoolWaitMeanMicros() {
+        return poolWait.mean();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        poolWait.reset();
+        errors.set(0);
+        commands.set(0);
+        commandFailures.set(0);
+    }
+}
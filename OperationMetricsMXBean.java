@@ -0,0 +1,29 @@
+package com.example.library;
+
+// JMX view of one logical operation, under com.example.library:type=Operation,name=<op>.
+// Latencies are in microseconds.
+public interface OperationMetricsMXBean {
+    long getCount();
+
+    long getErrors();
+
+    long getCommands();
+
+    long getCommandFailures();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    double getMeanMicros();
+
+    long getPoolWaitP99Micros();
+
+    double getPoolWaitMeanMicros();
+
+    void reset();
+}
@@ -0,0 +1,206 @@
+package com.example.library;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Latency and error metrics per logical operation. LibraryService runs each request inside
+// track(), which times it end to end and labels the thread; the sync driver raises command
+// and pool checkout events on the calling thread, so the listener methods below attribute
+// every MongoDB command and connection wait to that label. Commands issued outside track()
+// (index checks, counter reconciliation, imports) are grouped as "other:<command>".
+//
+// Each operation is published over JMX as com.example.library:type=Operation,name=<op>,
+// and the slowest commands of the last few minutes are kept for the Diagnostics tab.
+public class QueryMetrics implements CommandListener, ConnectionPoolListener {
+    public static final QueryMetrics INSTANCE = new QueryMetrics();
+
+    private static final int SLOW_QUERIES = 25;
+    private static final long SLOW_QUERY_WINDOW_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int SUMMARY_LENGTH = 200;
+
+    private static final ThreadLocal<String> currentOperation = new ThreadLocal<>();
+    private static final ThreadLocal<long[]> checkoutStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String[]> pending = new ConcurrentHashMap<>();
+    private final List<SlowQuery> slowQueries = new ArrayList<>();
+    private volatile long slowFloorMicros;
+
+    private QueryMetrics() {
+    }
+
+    // Runs task as the named operation, recording its latency and whether it threw.
+    public static <T> T track(String operation, Callable<T> task) throws Exception {
+        String outer = currentOperation.get();
+        currentOperation.set(operation);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = task.call();
+            failed = false;
+            return result;
+        } finally {
+            INSTANCE.metrics(operation).recordLatency((System.nanoTime() - start) / 1000, failed);
+            if (outer == null)
+                currentOperation.remove();
+            else
+                currentOperation.set(outer);
+        }
+    }
+
+    // All operations seen so far, busiest first.
+    public static List<OperationMetrics> operations() {
+        List<OperationMetrics> result = new ArrayList<>(INSTANCE.operations.values());
+        result.sort(Comparator.comparingLong(OperationMetrics::getCount).reversed());
+        return result;
+    }
+
+    // The slowest commands of the last ten minutes, slowest first.
+    public static List<SlowQuery> slowestQueries() {
+        synchronized (INSTANCE.slowQueries) {
+            INSTANCE.expireSlowQueries();
+            return new ArrayList<>(INSTANCE.slowQueries);
+        }
+    }
+
+    public static void reset() {
+        for (OperationMetrics metrics : INSTANCE.operations.values()) {
+            metrics.reset();
+        }
+        synchronized (INSTANCE.slowQueries) {
+            INSTANCE.slowQueries.clear();
+            INSTANCE.slowFloorMicros = 0;
+        }
+    }
+
+    // ------------------- COMMAND EVENTS ---------------------
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String operation = currentOperation.get();
+        if (operation == null)
+            operation = "other:" + event.getCommandName();
+        pending.put(event.getRequestId(), new String[]{operation, summarize(event.getCommandName(), event.getCommand())});
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        completed(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.MICROSECONDS), false);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        completed(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.MICROSECONDS), true);
+    }
+
+    private void completed(int requestId, String commandName, long micros, boolean failed) {
+        String[] started = pending.remove(requestId);
+        String operation = started != null ? started[0] : "other:" + commandName;
+        OperationMetrics metrics = metrics(operation);
+        metrics.recordCommand(failed);
+        // Untracked commands have no surrounding track() call to time them.
+        if (!operation.equals(currentOperation.get()))
+            metrics.recordLatency(micros, failed);
+        if (micros > slowFloorMicros)
+            recordSlowQuery(operation, started != null ? started[1] : commandName, micros, failed);
+    }
+
+    // ------------------- POOL EVENTS ---------------------
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        checkoutStart.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        recordPoolWait();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        recordPoolWait();
+    }
+
+    private void recordPoolWait() {
+        long[] start = checkoutStart.get();
+        if (start[0] == 0)
+            return;
+        String operation = currentOperation.get();
+        metrics(operation != null ? operation : "other:checkout").recordPoolWait((System.nanoTime() - start[0]) / 1000);
+        start[0] = 0;
+    }
+
+    // ------------------- INTERNALS ---------------------
+    private OperationMetrics metrics(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics != null)
+            return metrics;
+        return operations.computeIfAbsent(operation, name -> {
+            OperationMetrics created = new OperationMetrics(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(created,
+                        new ObjectName("com.example.library:type=Operation,name=" + ObjectName.quote(name)));
+            } catch (Exception ex) {
+                System.out.println("Unable to register JMX metrics for " + name + ": " + ex.getMessage());
+            }
+            return created;
+        });
+    }
+
+    private void recordSlowQuery(String operation, String command, long micros, boolean failed) {
+        synchronized (slowQueries) {
+            expireSlowQueries();
+            slowQueries.add(new SlowQuery(new Date(), operation, command, micros, failed));
+            slowQueries.sort(Comparator.comparingLong(SlowQuery::getMicros).reversed());
+            if (slowQueries.size() > SLOW_QUERIES)
+                slowQueries.remove(slowQueries.size() - 1);
+            slowFloorMicros = slowQueries.size() < SLOW_QUERIES ? 0 : slowQueries.get(slowQueries.size() - 1).getMicros();
+        }
+    }
+
+    private void expireSlowQueries() {
+        long cutoff = System.currentTimeMillis() - SLOW_QUERY_WINDOW_MS;
+        if (slowQueries.removeIf(query -> query.getTime().getTime() < cutoff))
+            slowFloorMicros = 0;
+    }
+
+    // "find books {filter}" style one-liner. Write commands only report their statement
+    // count, so a large bulk write is never rendered to JSON.
+    private static String summarize(String commandName, BsonDocument command) {
+        BsonValue target = command.get(commandName);
+        StringBuilder summary = new StringBuilder(commandName);
+        if (target != null && target.isString())
+            summary.append(' ').append(target.asString().getValue());
+        for (String statements : new String[]{"updates", "deletes", "documents"}) {
+            BsonValue value = command.get(statements);
+            if (value != null && value.isArray())
+                return summary.append(" (").append(value.asArray().size()).append(' ').append(statements).append(')').toString();
+        }
+        for (String key : new String[]{"filter", "query", "pipeline"}) {
+            BsonValue value = command.get(key);
+            if (value != null) {
+                String json = value.isDocument() ? value.asDocument().toJson() : new BsonDocument(key, value).toJson();
+                summary.append(' ').append(json.length() > SUMMARY_LENGTH ? json.substring(0, SUMMARY_LENGTH) + "..." : json);
+                break;
+            }
+        }
+        return summary.toString();
+    }
+}
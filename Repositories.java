@@ -0,0 +1,164 @@
+package com.example.library;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Picks the storage backend once per process from -Dlibrary.backend:
+//   mongo  (default) MongoDBUtil against the configured server
+//   memory           the embedded engine; with -Dlibrary.snapshot=<file> it is loaded from
+//                    that file at startup and saved every library.snapshot.seconds (default
+//                    30) when something changed, and again on shutdown.
+public final class Repositories {
+    private static final boolean IN_MEMORY = "memory".equalsIgnoreCase(System.getProperty("library.backend", "mongo"));
+    private static final String SNAPSHOT = System.getProperty("library.snapshot");
+    private static final long SNAPSHOT_SECONDS = Long.getLong("library.snapshot.seconds", 30);
+
+    private static final BookRepository books;
+    private static final Repository<Member> members;
+    private static final Repository<Staff> staff;
+    private static final Repository<Admin> admins;
+
+    static {
+        if (IN_MEMORY) {
+            books = new InMemoryBookRepository();
+            members = InMemoryRepository.members();
+            staff = InMemoryRepository.staff();
+            admins = InMemoryRepository.admins();
+        } else {
+            books = new MongoBookRepository();
+            members = new MongoRepository<>(MongoDBUtil::insertMember, MongoDBUtil::updateMember,
+                    MongoDBUtil::deleteMember, MongoDBUtil::getMember);
+            staff = new MongoRepository<>(MongoDBUtil::insertStaff, MongoDBUtil::updateStaff,
+                    MongoDBUtil::deleteStaff, MongoDBUtil::getStaff);
+            admins = new MongoRepository<>(MongoDBUtil::insertAdmin, MongoDBUtil::updateAdmin,
+                    MongoDBUtil::deleteAdmin, MongoDBUtil::getAdmin);
+        }
+    }
+
+    private static long savedVersion = -1;
+
+    private Repositories() {
+    }
+
+    public static boolean isInMemory() {
+        return IN_MEMORY;
+    }
+
+    public static BookRepository books() {
+        return books;
+    }
+
+    public static Repository<Member> members() {
+        return members;
+    }
+
+    public static Repository<Staff> staff() {
+        return staff;
+    }
+
+    public static Repository<Admin> admins() {
+        return admins;
+    }
+
+    // Backend startup work: the loan journal writer, then for MongoDB the connection pool
+    // warm-up, the circulation log (replaying anything left unsynced), index reconciliation
+    // and then the loan journal's pending returns, counter reconciliation, the local catalog
+    // snapshot, the book change stream and the search index and duplicate-ID filter loads,
+    // all off the FX thread, and for the embedded engine the snapshot load and the periodic
+    // save. Only local files are opened before this returns; the slow phases are timed by
+    // StartupTimer.
+    public static CompletableFuture<Void> start() {
+        LoanJournal.start();
+        if (!IN_MEMORY) {
+            // Creating the client and opening a connection per pool thread, in parallel with
+            // the window being built, so the first page doesn't wait for the handshakes.
+            Thread warmer = new Thread(() -> StartupTimer.run("connection warm-up",
+                    () -> MongoDBUtil.warmUp(LibraryService.threadCount())), "mongo-warmup");
+            warmer.setDaemon(true);
+            warmer.start();
+            try {
+                CirculationLog.open();
+            } catch (Exception ex) {
+                System.out.println("Circulation log unavailable, borrows and returns go straight to the server: "
+                        + ex.getMessage());
+                ex.printStackTrace();
+            }
+            CompletableFuture<Void> indexes = LibraryService.run(() -> StartupTimer.run("index check", () -> {
+                IndexManager.ensureIndexes();
+                if (Boolean.getBoolean("library.verifyQueryPlans"))
+                    IndexManager.verifyQueryPlans();
+            }));
+            // Returns left pending are applied once the unique returnedBy index is in place.
+            indexes.whenComplete((ignored, ex) -> LoanJournal.recover());
+            CatalogCounters.startReconciliation();
+            // The local catalog copy first: the watcher resumes from the point it was saved at.
+            CatalogSnapshot.open();
+            BookChangeWatcher.start();
+            CatalogSnapshot.startSync();
+            // Searches go to MongoDB until the in-memory index has finished loading.
+            Thread indexLoader = new Thread(() -> StartupTimer.run("search index load",
+                    () -> MongoDBUtil.getSearchIndex().load()), "search-index-loader");
+            indexLoader.setDaemon(true);
+            indexLoader.start();
+            // Inserts check the database for every ID until the duplicate-ID filters are loaded.
+            Thread idFilterLoader = new Thread(() -> StartupTimer.run("ID filter load", IdFilter::loadAll),
+                    "id-filter-loader");
+            idFilterLoader.setDaemon(true);
+            idFilterLoader.start();
+            return indexes;
+        }
+        if (SNAPSHOT == null)
+            return CompletableFuture.completedFuture(null);
+        SnapshotStore store = new SnapshotStore(Paths.get(SNAPSHOT));
+        return LibraryService.run(() -> {
+            StartupTimer.begin("snapshot load");
+            try {
+                if (store.exists()) {
+                    long start = System.nanoTime();
+                    List<Book> loaded = new ArrayList<>();
+                    store.load(loaded::add, members::insert, staff::insert, admins::insert);
+                    ((InMemoryBookRepository) books).insertAll(loaded);
+                    System.out.println("Snapshot loaded: " + books.stats().getTotalTitles() + " books in "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException("Unable to load snapshot " + SNAPSHOT, ex);
+            } finally {
+                StartupTimer.end("snapshot load");
+            }
+            savedVersion = version();
+            ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            saver.scheduleWithFixedDelay(() -> saveSnapshot(store), SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> saveSnapshot(store), "snapshot-shutdown"));
+        });
+    }
+
+    private static synchronized void saveSnapshot(SnapshotStore store) {
+        long version = version();
+        if (version == savedVersion)
+            return;
+        try {
+            store.save(books.findAll(), ((InMemoryRepository<Member>) members).findAll(),
+                    ((InMemoryRepository<Staff>) staff).findAll(), ((InMemoryRepository<Admin>) admins).findAll());
+            savedVersion = version;
+        } catch (Exception ex) {
+            System.out.println("Snapshot save failed: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // Sum of the embedded repositories' write counters.
+    private static long version() {
+        return ((InMemoryBookRepository) books).version() + ((InMemoryRepository<Member>) members).version()
+                + ((InMemoryRepository<Staff>) staff).version() + ((InMemoryRepository<Admin>) admins).version();
+    }
+}
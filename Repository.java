@@ -0,0 +1,17 @@
+package com.example.library;
+
+import org.bson.Document;
+
+// Storage operations shared by every record type, keyed by the user-defined ID
+// (bookId, memberId, staffId, adminId). Partial updates take the changed fields as a
+// Document, the same shape the tabs in Main already build.
+public interface Repository<T> {
+    void insert(T record);
+
+    void update(String id, Document updateFields);
+
+    void delete(String id);
+
+    // null if no record has this ID.
+    T findById(String id);
+}
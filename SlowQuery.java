@@ -0,0 +1,30 @@
+package com.example.library;
+
+import java.util.Date;
+
+// One completed MongoDB command, kept for the Diagnostics tab's slowest-queries list.
+public class SlowQuery {
+    private final Date time;
+    private final String operation;
+    private final String command;
+    private final long micros;
+    private final boolean failed;
+
+    public SlowQuery(Date time, String operation, String command, long micros, boolean failed) {
+        this.time = time;
+        this.operation = operation;
+        this.command = command;
+        this.micros = micros;
+        this.failed = failed;
+    }
+
+    public Date getTime() { return time; }
+
+    public String getOperation() { return operation; }
+
+    public String getCommand() { return command; }
+
+    public long getMicros() { return micros; }
+
+    public boolean isFailed() { return failed; }
+}
@@ -0,0 +1,88 @@
+package com.example.library;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Persists the in-memory repositories to one file: a header, then books, members, staff
+// and admins as length-prefixed BSON records encoded with the model codecs. Saves go to a
+// temporary file that is moved over the old snapshot, so a crash mid-write leaves the
+// previous snapshot intact.
+public class SnapshotStore {
+    private static final int MAGIC = 0x4C494231; // "LIB1"
+
+    private final Path file;
+
+    public SnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    public void save(List<Book> books, List<Member> members, List<Staff> staff, List<Admin> admins) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            writeSection(out, books, new BookCodec());
+            writeSection(out, members, new MemberCodec());
+            writeSection(out, staff, new StaffCodec());
+            writeSection(out, admins, new AdminCodec());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void load(Consumer<Book> books, Consumer<Member> members, Consumer<Staff> staff, Consumer<Admin> admins) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a library snapshot: " + file);
+            readSection(in, books, new BookCodec());
+            readSection(in, members, new MemberCodec());
+            readSection(in, staff, new StaffCodec());
+            readSection(in, admins, new AdminCodec());
+        }
+    }
+
+    private static <T> void writeSection(DataOutputStream out, List<T> records, Codec<T> codec) throws IOException {
+        out.writeInt(records.size());
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        for (T record : records) {
+            buffer.truncateToPosition(0);
+            try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+                codec.encode(writer, record, EncoderContext.builder().build());
+            }
+            out.writeInt(buffer.getPosition());
+            buffer.pipe(out);
+        }
+    }
+
+    private static <T> void readSection(DataInputStream in, Consumer<T> sink, Codec<T> codec) throws IOException {
+        int count = in.readInt();
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length > bytes.length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            in.readFully(bytes, 0, length);
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes, 0, length))) {
+                sink.accept(codec.decode(reader, DecoderContext.builder().build()));
+            }
+        }
+    }
+}
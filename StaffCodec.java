@@ -0,0 +1,55 @@
+package com.example.library;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+// Decodes staff documents directly into Staff; layout matches MongoDBUtil.insertStaff.
+public class StaffCodec implements Codec<Staff> {
+
+    @Override
+    public Staff decode(BsonReader reader, DecoderContext decoderContext) {
+        Staff staff = new Staff();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (name) {
+                case "staffId":
+                    staff.setId(CodecSupport.readAsString(reader));
+                    break;
+                case "username":
+                    staff.setUsername(CodecSupport.readAsString(reader));
+                    break;
+                case "password":
+                    staff.setPassword(CodecSupport.readAsString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return staff;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Staff staff, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        CodecSupport.writeString(writer, "username", staff.getUsername());
+        CodecSupport.writeString(writer, "password", staff.getPassword());
+        if (staff.getId() != null && !staff.getId().isEmpty())
+            writer.writeString("staffId", staff.getId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Staff> getEncoderClass() {
+        return Staff.class;
+    }
+}
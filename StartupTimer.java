@@ -0,0 +1,119 @@
+package com.example.library;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Times the startup phases from JVM start. Phases may overlap (the connection warm-up and
+// the index loads run beside the window being built); each is begun and ended by whoever
+// runs it. "First interaction" is when the Books table first shows rows the desk can act
+// on, from the local catalog snapshot or the server. Once that has happened and every phase
+// begun so far has ended, the report is printed; phases begun later (a tab built on first
+// selection) are printed one by one.
+//
+// With -Dlibrary.startupLog=<file> each launch also appends one line to that file, so
+// time-to-first-interaction can be compared across releases.
+public class StartupTimer {
+    // JVM start to the application's entry point (Main.start, LibraryServer.main).
+    public static final String LAUNCH = "launch";
+
+    private static final long JVM_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private static final String LOG = System.getProperty("library.startupLog");
+
+    private static class Phase {
+        final long start;
+        long end = -1;
+
+        Phase(long start) {
+            this.start = start;
+        }
+    }
+
+    // Guarded by the class lock.
+    private static final Map<String, Phase> phases = new LinkedHashMap<>();
+    private static long firstInteraction = -1;
+    private static String firstInteractionSource;
+    private static boolean reported;
+
+    static {
+        phases.put(LAUNCH, new Phase(0));
+    }
+
+    public static synchronized void begin(String phase) {
+        phases.putIfAbsent(phase, new Phase(now()));
+    }
+
+    public static synchronized void end(String phase) {
+        Phase timed = phases.get(phase);
+        if (timed == null || timed.end >= 0)
+            return;
+        timed.end = now();
+        if (reported)
+            System.out.println("Startup: " + phase + " took " + (timed.end - timed.start) + " ms");
+        else
+            reportWhenComplete();
+    }
+
+    // Runs task as the named phase.
+    public static void run(String phase, Runnable task) {
+        begin(phase);
+        try {
+            task.run();
+        } finally {
+            end(phase);
+        }
+    }
+
+    // The first call wins; source says where the rows came from.
+    public static synchronized void firstInteraction(String source) {
+        if (firstInteraction >= 0)
+            return;
+        firstInteraction = now();
+        firstInteractionSource = source;
+        System.out.println("Startup: first interaction after " + firstInteraction + " ms (" + source + ")");
+        reportWhenComplete();
+    }
+
+    private static void reportWhenComplete() {
+        if (firstInteraction < 0)
+            return;
+        for (Phase phase : phases.values()) {
+            if (phase.end < 0)
+                return;
+        }
+        reported = true;
+        StringBuilder report = new StringBuilder("Startup timing (ms since JVM start):\n");
+        report.append(String.format("  %-28s %7s %7s %7s%n", "phase", "start", "end", "took"));
+        StringBuilder line = new StringBuilder(Instant.now().toString())
+                .append("\tfirstInteraction=").append(firstInteraction);
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            report.append(String.format("  %-28s %7d %7d %7d%n", entry.getKey(), phase.start, phase.end, phase.end - phase.start));
+            line.append('\t').append(entry.getKey()).append('=').append(phase.start).append('+').append(phase.end - phase.start);
+        }
+        report.append("  first interaction after ").append(firstInteraction).append(" ms (")
+                .append(firstInteractionSource).append(')');
+        System.out.println(report);
+        if (LOG != null)
+            append(Paths.get(LOG), line.append(System.lineSeparator()).toString());
+    }
+
+    private static void append(Path file, String line) {
+        try {
+            Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            System.out.println("Unable to write the startup log " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() - JVM_START;
+    }
+}
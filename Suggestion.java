@@ -0,0 +1,23 @@
+package com.example.library;
+
+// One typeahead completion: a title or an author, and how much weight it carries (copies on
+// the shelf plus the number of titles behind it).
+public class Suggestion {
+    public enum Kind { TITLE, AUTHOR }
+
+    private final String text;
+    private final Kind kind;
+    private final long weight;
+
+    public Suggestion(String text, Kind kind, long weight) {
+        this.text = text;
+        this.kind = kind;
+        this.weight = weight;
+    }
+
+    public String getText() { return text; }
+
+    public Kind getKind() { return kind; }
+
+    public long getWeight() { return weight; }
+}
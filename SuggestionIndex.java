@@ -0,0 +1,268 @@
+package com.example.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Typeahead over distinct titles and authors. Terms sit in arrays sorted by normalized
+// text, so the completions of a prefix are a contiguous range found by binary search (a
+// trie flattened into a sorted array). A max segment tree over the term weights gives the
+// heaviest term of any range; the top k of a prefix come from repeatedly splitting the
+// range around its heaviest term, O(k log n) however many terms share the prefix.
+//
+// A term's weight is the copies on the shelf across its books plus the number of books,
+// so available titles rank first but out-of-stock ones still show. Weight changes and
+// removals update the trees in place. New terms wait in a small sorted map that queries
+// scan until MIN_PENDING of them are merged into a second, smaller array; that one is
+// merged into the main array once it reaches 1/8 of it, so a bulk load costs a few linear
+// merges per doubling instead of a rebuild every thousand inserts.
+public class SuggestionIndex {
+    private static final int MIN_PENDING = 1024;
+
+    private static class Term {
+        final String key;   // normalized text, then the kind, so titles and authors don't collide
+        final String text;  // as first seen
+        final Suggestion.Kind kind;
+        int books;
+        long copies;
+        Level level;        // null while pending
+        int position;
+
+        Term(String key, String text, Suggestion.Kind kind) {
+            this.key = key;
+            this.text = text;
+            this.kind = kind;
+        }
+
+        long weight() {
+            return books > 0 ? copies + books : -1;
+        }
+    }
+
+    // One sorted array of terms with its max tree. Removed terms keep their slot, with
+    // weight -1, until the next merge.
+    private static class Level {
+        final Term[] terms;
+        final String[] keys;
+        final int[] tree;  // node -> index of the heaviest term below it
+        int dead;
+
+        Level(List<Term> sorted) {
+            int count = sorted.size();
+            terms = sorted.toArray(new Term[0]);
+            keys = new String[count];
+            tree = new int[2 * count];
+            for (int p = 0; p < count; p++) {
+                terms[p].level = this;
+                terms[p].position = p;
+                keys[p] = terms[p].key;
+                tree[count + p] = p;
+            }
+            for (int node = count - 1; node >= 1; node--) {
+                tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        int size() {
+            return terms.length;
+        }
+
+        void update(int position) {
+            for (int node = (position + terms.length) >> 1; node >= 1; node >>= 1) {
+                tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        // Adds the heaviest live terms starting with prefix to out, at most limit of them.
+        void top(String prefix, int limit, List<Term> out) {
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + '\uffff');
+            if (from >= to)
+                return;
+            // Pending ranges, each with its heaviest index; a linear pick is fine for k this small.
+            List<int[]> ranges = new ArrayList<>();
+            ranges.add(new int[]{from, to, rangeMax(from, to)});
+            int found = 0;
+            while (found < limit && !ranges.isEmpty()) {
+                int pick = 0;
+                for (int i = 1; i < ranges.size(); i++) {
+                    if (terms[ranges.get(i)[2]].weight() > terms[ranges.get(pick)[2]].weight())
+                        pick = i;
+                }
+                int[] range = ranges.remove(pick);
+                Term term = terms[range[2]];
+                if (term.weight() < 0)
+                    break;
+                out.add(term);
+                found++;
+                if (range[0] < range[2])
+                    ranges.add(new int[]{range[0], range[2], rangeMax(range[0], range[2])});
+                if (range[2] + 1 < range[1])
+                    ranges.add(new int[]{range[2] + 1, range[1], rangeMax(range[2] + 1, range[1])});
+            }
+        }
+
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        // Index of the heaviest term in [from, to), on the bottom-up segment tree.
+        private int rangeMax(int from, int to) {
+            int n = terms.length;
+            int best = from;
+            for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1)
+                    best = heavier(best, tree[l++]);
+                if ((r & 1) == 1)
+                    best = heavier(best, tree[--r]);
+            }
+            return best;
+        }
+
+        private int heavier(int a, int b) {
+            return terms[b].weight() > terms[a].weight() ? b : a;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Term> terms = new HashMap<>();
+    private final NavigableMap<String, Term> pending = new TreeMap<>();
+    private Level main = new Level(new ArrayList<>());
+    private Level recent = new Level(new ArrayList<>());
+
+    // Moves one book's contribution from old to updated; either may be null.
+    public void replace(Book old, Book updated) {
+        lock.writeLock().lock();
+        try {
+            move(Suggestion.Kind.TITLE, old == null ? null : old.getTitle(), updated == null ? null : updated.getTitle(), old, updated);
+            move(Suggestion.Kind.AUTHOR, old == null ? null : old.getAuthor(), updated == null ? null : updated.getAuthor(), old, updated);
+            if (pending.size() >= MIN_PENDING) {
+                recent = merge(recent, pending.values());
+                pending.clear();
+            }
+            if (recent.size() > Math.max(MIN_PENDING, main.size() / 8) || main.dead > Math.max(MIN_PENDING, main.size() / 2)) {
+                main = merge(main, live(recent));
+                recent = new Level(new ArrayList<>());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit completions of prefix, heaviest first.
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String p = BookSearchIndex.normalize(prefix);
+        List<Suggestion> result = new ArrayList<>();
+        if (p.isEmpty() || limit <= 0)
+            return result;
+        lock.readLock().lock();
+        try {
+            List<Term> best = new ArrayList<>(limit * 2);
+            main.top(p, limit, best);
+            recent.top(p, limit, best);
+            best.addAll(pending.subMap(p, true, p + '\uffff', false).values());
+            best.sort((a, b) -> a.weight() != b.weight() ? Long.compare(b.weight(), a.weight()) : a.key.compareTo(b.key));
+            for (int i = 0; i < best.size() && result.size() < limit; i++) {
+                Term term = best.get(i);
+                result.add(new Suggestion(term.text, term.kind, term.weight()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void move(Suggestion.Kind kind, String oldText, String newText, Book old, Book updated) {
+        String oldKey = key(oldText, kind);
+        String newKey = key(newText, kind);
+        int oldCopies = old == null ? 0 : Math.max(0, old.getQuantity());
+        int newCopies = updated == null ? 0 : Math.max(0, updated.getQuantity());
+        // Same term on both sides: only the copies move, so the term never drops to zero books.
+        if (oldKey != null && oldKey.equals(newKey)) {
+            adjust(oldKey, oldText, kind, 0, newCopies - oldCopies);
+            return;
+        }
+        if (oldKey != null)
+            adjust(oldKey, oldText, kind, -1, -oldCopies);
+        if (newKey != null)
+            adjust(newKey, newText, kind, 1, newCopies);
+    }
+
+    private void adjust(String key, String text, Suggestion.Kind kind, int books, long copies) {
+        Term term = terms.get(key);
+        if (term == null) {
+            if (books <= 0)
+                return;
+            term = new Term(key, text.trim(), kind);
+            terms.put(key, term);
+            pending.put(key, term);
+        }
+        term.books += books;
+        term.copies += copies;
+        if (term.books <= 0) {
+            terms.remove(key);
+            if (term.level == null)
+                pending.remove(key);
+            else
+                term.level.dead++;
+        }
+        if (term.level != null)
+            term.level.update(term.position);
+    }
+
+    private static List<Term> live(Level level) {
+        List<Term> result = new ArrayList<>(level.size() - level.dead);
+        for (Term term : level.terms) {
+            if (term.books > 0)
+                result.add(term);
+        }
+        return result;
+    }
+
+    // Linear merge of a level's live terms with more terms, both in key order.
+    private static Level merge(Level level, Collection<Term> more) {
+        List<Term> merged = new ArrayList<>(level.size() - level.dead + more.size());
+        Term[] existing = level.terms;
+        int i = 0;
+        for (Term extra : more) {
+            for (; i < existing.length && existing[i].key.compareTo(extra.key) < 0; i++) {
+                if (existing[i].books > 0)
+                    merged.add(existing[i]);
+            }
+            merged.add(extra);
+        }
+        for (; i < existing.length; i++) {
+            if (existing[i].books > 0)
+                merged.add(existing[i]);
+        }
+        return new Level(merged);
+    }
+
+    private static String key(String text, Suggestion.Kind kind) {
+        String normalized = BookSearchIndex.normalize(text);
+        return normalized.isEmpty() ? null : normalized + '\u0000' + kind.ordinal();
+    }
+}
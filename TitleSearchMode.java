@@ -0,0 +1,11 @@
+package com.example.library;
+
+// How searchBooksByTitle matches a title.
+public enum TitleSearchMode {
+    // Case-insensitive substring regex. Cannot use an index, scans the whole collection.
+    CONTAINS,
+    // Case-insensitive prefix range served by the title_prefix_ci collation index.
+    PREFIX,
+    // Whole-word match served by the title_text index, ranked by relevance.
+    TEXT
+}
\ No newline at end of file
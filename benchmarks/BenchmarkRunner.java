@@ -0,0 +1,30 @@
+package com.example.library;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+// Entry point of benchmarks.jar. Accepts the usual JMH command line (e.g. a benchmark
+// regex, -p catalogSize=1000, -f 1) and always adds the GC profiler, for allocation per
+// operation (gc.alloc.rate.norm), and a JSON results file that can be diffed between
+// builds; set -Dbench.result=<file> to choose its name.
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        String result = System.getProperty("bench.result",
+                "jmh-result-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(options).run();
+        System.out.println("Results written to " + result);
+    }
+}
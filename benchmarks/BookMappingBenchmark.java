@@ -0,0 +1,89 @@
+package com.example.library;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Document <-> Book mapping on one encoded book: the registered BookCodec against the
+// generic Document path it replaced (decode to Document, then copy fields).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+@State(Scope.Thread)
+public class BookMappingBenchmark {
+    private final BookCodec bookCodec = new BookCodec();
+    private final DocumentCodec documentCodec = new DocumentCodec();
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+    private final EncoderContext encoderContext = EncoderContext.builder().build();
+    private final BasicOutputBuffer buffer = new BasicOutputBuffer();
+
+    private Book book;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        book = new Book("B123456", "The silent river 417", "Ishiguro Kafka", new Date(1_000_000_000_000L), 3);
+        encoded = new RawBsonDocument(book, bookCodec).getByteBuffer().array();
+    }
+
+    @Benchmark
+    public Book decodeWithCodec() {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(encoded))) {
+            return bookCodec.decode(reader, decoderContext);
+        }
+    }
+
+    @Benchmark
+    public Book decodeViaDocument() {
+        Document doc;
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(encoded))) {
+            doc = documentCodec.decode(reader, decoderContext);
+        }
+        return new Book(doc.getString("bookId"), doc.getString("title"), doc.getString("author"),
+                doc.getDate("publishedDate"), doc.getInteger("quantity", 0));
+    }
+
+    @Benchmark
+    public int encodeWithCodec() {
+        buffer.truncateToPosition(0);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            bookCodec.encode(writer, book, encoderContext);
+        }
+        return buffer.getPosition();
+    }
+
+    @Benchmark
+    public int encodeViaDocument() {
+        buffer.truncateToPosition(0);
+        Document doc = new Document("bookId", book.getId())
+                .append("title", book.getTitle())
+                .append("author", book.getAuthor())
+                .append("publishedDate", book.getPublishedDate())
+                .append("quantity", book.getQuantity());
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            documentCodec.encode(writer, doc, encoderContext);
+        }
+        return buffer.getPosition();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// A return followed by a borrow of a random book, so stock stays level however long the
+// run is. Each pair moves the book through the quantity order twice and updates the
+// counters; the threaded variant adds contention on the catalog's write lock.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+public class BorrowReturnBenchmark {
+    @State(Scope.Thread)
+    public static class Picker {
+        private SplittableRandom random;
+
+        @Setup
+        public void setup() {
+            random = new SplittableRandom(Thread.currentThread().getId());
+        }
+
+        String next(CatalogState catalog) {
+            return catalog.bookIds[random.nextInt(catalog.bookIds.length)];
+        }
+    }
+
+    @Benchmark
+    public int returnThenBorrow(CatalogState catalog, Picker picker) {
+        String bookId = picker.next(catalog);
+        catalog.repository.returnBook(bookId);
+        return catalog.repository.borrow(bookId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int returnThenBorrowContended(CatalogState catalog, Picker picker) {
+        return returnThenBorrow(catalog, picker);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// A generated catalog in the embedded engine, built once per trial. Titles and authors
+// are drawn from small word lists so searches and sorts see realistic duplicates; the
+// same seed gives the same catalog on every run, so results are comparable across builds.
+// It is bulk-loaded, as a snapshot is, so setup stays O(n log n) at the largest size.
+@State(Scope.Benchmark)
+public class CatalogState {
+    private static final String[] WORDS = {
+            "history", "garden", "winter", "river", "silent", "modern", "secret", "ocean", "empire",
+            "little", "night", "journey", "science", "city", "house", "war", "music", "stone",
+            "letters", "mountain", "shadow", "kingdom", "light", "machine", "island", "road"
+    };
+    private static final String[] NAMES = {
+            "Austen", "Baldwin", "Calvino", "Dickens", "Eliot", "Faulkner", "Gaskell", "Hardy",
+            "Ishiguro", "Joyce", "Kafka", "Lessing", "Morrison", "Nabokov", "Orwell", "Proust"
+    };
+
+    @Param({"1000", "100000", "1000000"})
+    public int catalogSize;
+
+    public InMemoryBookRepository repository;
+    public String[] bookIds;
+
+    @Setup(Level.Trial)
+    public void load() {
+        repository = new InMemoryBookRepository();
+        bookIds = new String[catalogSize];
+        List<Book> books = new ArrayList<>(catalogSize);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < catalogSize; i++) {
+            bookIds[i] = "B" + i;
+            books.add(generate(bookIds[i], random));
+        }
+        repository.insertAll(books);
+    }
+
+    static Book generate(String bookId, SplittableRandom random) {
+        String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                + " " + random.nextInt(1000);
+        String author = NAMES[random.nextInt(NAMES.length)] + " " + NAMES[random.nextInt(NAMES.length)];
+        Date published = new Date(random.nextLong(-2_000_000_000_000L, 1_700_000_000_000L));
+        return new Book(bookId, title, author, published, random.nextInt(6));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Paginated listing from the middle of the catalog: seeking from a keyset cursor (what the
+// Books tab does on Next/Previous) against the positional offset form used after a jump.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class PaginationBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"TITLE", "QUANTITY"})
+    public BookSort sort;
+
+    private String middleCursor;
+    private int middleOffset;
+
+    @Setup
+    public void setup(CatalogState catalog) {
+        middleOffset = catalog.catalogSize / 2;
+        middleCursor = catalog.repository.findPageAt(sort, true, middleOffset, PAGE_SIZE, false).getFirstCursor();
+    }
+
+    @Benchmark
+    public BookPage firstPage(CatalogState catalog) {
+        return catalog.repository.findPage(sort, true, null, false, PAGE_SIZE, false);
+    }
+
+    @Benchmark
+    public BookPage seekFromCursor(CatalogState catalog) {
+        return catalog.repository.findPage(sort, true, middleCursor, false, PAGE_SIZE, false);
+    }
+
+    @Benchmark
+    public BookPage skipToOffset(CatalogState catalog) {
+        return catalog.repository.findPageAt(sort, true, middleOffset, PAGE_SIZE, false);
+    }
+
+    @Benchmark
+    public BookPage availableOnly(CatalogState catalog) {
+        return catalog.repository.findPage(sort, true, middleCursor, false, PAGE_SIZE, true);
+    }
+}
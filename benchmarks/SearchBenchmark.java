@@ -0,0 +1,33 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Title search through the trigram index: a common prefix, a rarer substring, an author
+// match and a misspelling that only the fuzzy trigram pass finds.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    @Param({"riv", "ocean emp", "kafka", "kingdum"})
+    public String query;
+
+    @Benchmark
+    public List<Book> search(CatalogState catalog) {
+        return catalog.repository.search(query, 100);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Typeahead per keystroke: a one-letter prefix shared by a large slice of the catalog, a
+// word prefix and a longer, selective one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class SuggestBenchmark {
+    @Param({"s", "sec", "ocean empire 4"})
+    public String prefix;
+
+    @Benchmark
+    public List<Suggestion> suggest(CatalogState catalog) {
+        return catalog.repository.suggest(prefix, 8);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Total copies on hand: the maintained counters against summing the catalog, which is
+// what the $group aggregation used to do server-side.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx8g"})
+public class TotalQuantityBenchmark {
+    @Benchmark
+    public long fromCounters(CatalogState catalog) {
+        return catalog.repository.stats().getTotalCopies();
+    }
+
+    @Benchmark
+    public long byScanning(CatalogState catalog) {
+        long total = 0;
+        for (Book book : catalog.repository.findAll()) {
+            total += book.getQuantity();
+        }
+        return total;
+    }
+}